@@ -1,6 +1,8 @@
 package com.example.contentservice.config;
 
+import io.rsocket.core.Resume;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.rsocket.server.RSocketServerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.rsocket.RSocketRequester;
@@ -16,6 +18,15 @@ public class RsocketConfig {
     @Value("${ec2.server}")
     private String host;
 
+    // Streaming servers reconnect into their session after a network blip, clients that don't ask for it are unaffected
+    @Value("${rsocket.resume-session-ms:60000}")
+    private long resumeSessionMillis;
+
+    @Bean
+    public RSocketServerCustomizer rSocketResume() {
+        return server -> server.resume(new Resume().sessionDuration(Duration.ofMillis(resumeSessionMillis)));
+    }
+
     @Bean
     public RSocketRequester getRSocketRequester(RSocketStrategies rSocketStrategies) {
         return RSocketRequester.builder()
@@ -1,5 +1,6 @@
 package com.example.contentservice.controller;
 
+import com.example.contentservice.dto.channel.BroadcastStateDto;
 import com.example.contentservice.dto.channel.ChannelDetailResponseDto;
 import com.example.contentservice.dto.channel.ChannelResponseDto;
 import com.example.contentservice.dto.channel.StreamerCheckRequestDto;
@@ -11,6 +12,8 @@ import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 @RestController
 @Slf4j
 @RequestMapping("broadcasts")
@@ -42,4 +45,9 @@ public class ChannelController {
     public Mono<Boolean> endBroadcast(@PathVariable("streamer") String streamer) {
         return channelService.endBroadcast(streamer);
     }
+
+    @PostMapping("/states")
+    public Mono<Boolean> updateBroadcasts(@RequestBody List<BroadcastStateDto> states) {
+        return channelService.updateBroadcasts(states);
+    }
 }
@@ -1,22 +1,36 @@
 package com.example.contentservice.controller;
 
 import com.example.contentservice.dto.mypage.ChannelInfoDto;
+import com.example.contentservice.security.PrincipalUtil;
 import com.example.contentservice.service.MyPageService;
+import com.example.contentservice.service.StreamingNodeService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
 
+import java.security.Principal;
+
 @RestController
 @Slf4j
 @RequestMapping("mypage")
 @RequiredArgsConstructor
 public class MyPageController {
     private final MyPageService myPageService;
+    private final StreamingNodeService streamingNodeService;
+    private final PrincipalUtil principalUtil;
 
     @PostMapping("/{id}")
     public Mono<ResponseEntity<String>> changeInfo(@PathVariable("id") String id, @RequestBody ChannelInfoDto channelInfoDto) {
         return myPageService.changeInfo(id, channelInfoDto);
     }
+
+    @DeleteMapping("/stream")
+    public Mono<ResponseEntity<String>> stopStream(Mono<Principal> userDetails) {
+        return userDetails.flatMap(principal -> {
+            return streamingNodeService.killStream(principalUtil.getMember(principal).getNickname())
+                    .thenReturn(ResponseEntity.ok("Success"));
+        });
+    }
 }
@@ -1,5 +1,7 @@
 package com.example.contentservice.controller;
 
+import com.example.contentservice.service.PlaylistService;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
@@ -12,9 +14,17 @@ import reactor.core.publisher.Mono;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.regex.Pattern;
 
 @RestController
+@RequiredArgsConstructor
+@Slf4j
 public class PlaylistController {
+    // LL-HLS partial segment, data{segment}_{part}.ts
+    private static final Pattern PART = Pattern.compile(".*/data\\d+_\\d+\\.ts");
+
+    private final PlaylistService playlistService;
+
     @Value("${stream.directory}")
     private String path;
 
@@ -26,8 +36,6 @@ public class PlaylistController {
         String requestUrl = request.getPath().toString();
         String fileName = requestUrl.split("/streams/")[1];
 
-        // "무복사" 파일 전송을 지원
-        ZeroCopyHttpOutputMessage zeroCopyResponse = (ZeroCopyHttpOutputMessage) response;
         HttpHeaders headers = response.getHeaders();
 
         // 전송헤더에 파일명을 셋팅
@@ -41,11 +49,40 @@ public class PlaylistController {
         // 경로조합 - 고정된 루트 경로에 부분 경로 추가(공통부분 경로 정의할 때 유용)
         Path ans = file.resolve(fileName);
 
-        if (!Files.exists(ans)) {
-            response.setStatusCode(HttpStatus.NOT_FOUND);
-            return zeroCopyResponse.setComplete();
+        // LL-HLS 블로킹 리로드 - 요청한 세그먼트/파트가 플레이리스트에 올라올 때까지 응답을 보류
+        String msn = request.getQueryParams().getFirst("_HLS_msn");
+        if (msn != null && fileName.endsWith(".m3u8")) {
+            String part = request.getQueryParams().getFirst("_HLS_part");
+            return Mono.defer(() -> playlistService.awaitPlaylist(ans, Long.parseLong(msn),
+                            part == null ? -1 : Integer.parseInt(part)))
+                    .flatMap(found -> found
+                            ? send(response, ans)
+                            : complete(response, HttpStatus.SERVICE_UNAVAILABLE))
+                    .onErrorResume(IllegalArgumentException.class, e -> {
+                        log.debug("Bad blocking reload request {}: {}", requestUrl, e.getMessage());
+                        return complete(response, HttpStatus.BAD_REQUEST);
+                    });
         }
 
-        return zeroCopyResponse.writeWith(ans, 0, ans.toFile().length());
+        // preload hint 로 예고된 파트는 만들어질 때까지 대기
+        if (PART.matcher(requestUrl).matches() && !Files.exists(ans)) {
+            return playlistService.awaitFile(ans)
+                    .flatMap(found -> send(response, ans));
+        }
+
+        return send(response, ans);
+    }
+
+    // "무복사" 파일 전송을 지원
+    private Mono<Void> send(ServerHttpResponse response, Path file) {
+        if (!Files.exists(file)) {
+            return complete(response, HttpStatus.NOT_FOUND);
+        }
+        return ((ZeroCopyHttpOutputMessage) response).writeWith(file, 0, file.toFile().length());
+    }
+
+    private Mono<Void> complete(ServerHttpResponse response, HttpStatus status) {
+        response.setStatusCode(status);
+        return response.setComplete();
     }
 }
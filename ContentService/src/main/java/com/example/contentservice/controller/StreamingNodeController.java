@@ -0,0 +1,43 @@
+package com.example.contentservice.controller;
+
+import com.example.contentservice.dto.channel.BroadcastStateDto;
+import com.example.contentservice.dto.channel.StreamCheckDto;
+import com.example.contentservice.dto.channel.StreamerCheckRequestDto;
+import com.example.contentservice.service.ChannelService;
+import com.example.contentservice.service.StreamingNodeService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.annotation.ConnectMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+@Slf4j
+@Controller
+@RequiredArgsConstructor
+public class StreamingNodeController {
+
+    private final ChannelService channelService;
+    private final StreamingNodeService streamingNodeService;
+
+    @ConnectMapping("streaming")
+    public void onConnect(RSocketRequester requester, @Payload String nodeId) {
+        streamingNodeService.onConnect(requester, nodeId);
+    }
+
+    @MessageMapping("streams.check")
+    Mono<Boolean> check(StreamCheckDto streamCheckDto) {
+        return channelService
+                .checkBroadcast(streamCheckDto.getStreamer(), new StreamerCheckRequestDto(streamCheckDto.getStreamKey()))
+                .onErrorReturn(false);
+    }
+
+    @MessageMapping("streams.states")
+    Mono<Void> states(List<BroadcastStateDto> states) {
+        return channelService.updateBroadcasts(states).then();
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.contentservice.dto.channel;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BroadcastStateDto {
+    private String streamer;
+    private boolean onAir;
+}
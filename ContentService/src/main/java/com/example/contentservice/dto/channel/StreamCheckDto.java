@@ -0,0 +1,13 @@
+package com.example.contentservice.dto.channel;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StreamCheckDto {
+    private String streamer;
+    private String streamKey;
+}
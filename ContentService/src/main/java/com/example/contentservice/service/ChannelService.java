@@ -1,11 +1,13 @@
 package com.example.contentservice.service;
 
+import com.example.contentservice.dto.channel.BroadcastStateDto;
 import com.example.contentservice.dto.channel.ChannelDetailResponseDto;
 import com.example.contentservice.dto.channel.ChannelResponseDto;
 import com.example.contentservice.dto.channel.StreamerCheckRequestDto;
 import com.example.contentservice.repository.ChannelRepository;
 import com.example.contentservice.repository.MemberRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -13,9 +15,11 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.naming.AuthenticationException;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 @Service
+@Slf4j
 @RequiredArgsConstructor
 @Transactional
 public class ChannelService {
@@ -70,4 +74,18 @@ public class ChannelService {
                             .thenReturn(true);
                 });
     }
+
+    /*
+    Coalesced on/off air states from the streaming servers, one entry per streamer.
+    A channel that no longer exists must not fail the rest of the batch.
+     */
+    public Mono<Boolean> updateBroadcasts(List<BroadcastStateDto> states) {
+        return Flux.fromIterable(states)
+                .concatMap(state -> (state.isOnAir() ? startBroadcast(state.getStreamer()) : endBroadcast(state.getStreamer()))
+                        .onErrorResume(NoSuchElementException.class, e -> {
+                            log.info("{} : {}", state.getStreamer(), e.getMessage());
+                            return Mono.just(false);
+                        }))
+                .then(Mono.just(true));
+    }
 }
@@ -0,0 +1,113 @@
+package com.example.contentservice.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/*
+LL-HLS blocking playlist reload (_HLS_msn / _HLS_part) over the playlists StreamingService writes to the shared volume.
+The request is held until the playlist contains the asked segment or part, checked on a short poll.
+Every playlist (or hinted part) is polled once however many requests wait on it, the poll stops with the last waiter.
+ */
+@Service
+public class PlaylistService {
+
+    // The spec asks for an answer within three target durations
+    @Value("${stream.blocking-reload-timeout-ms:6000}")
+    private long timeoutMillis;
+
+    @Value("${stream.blocking-reload-poll-ms:50}")
+    private long pollMillis;
+
+    private final Map<Path, Flux<Position>> playlistPolls = new ConcurrentHashMap<>();
+    private final Map<Path, Flux<Boolean>> filePolls = new ConcurrentHashMap<>();
+
+    /*
+    Next media sequence number of the playlist and the parts already published for it
+     */
+    public record Position(long nextSequence, int parts) {
+
+        public boolean contains(long sequence, int part) {
+            if (part < 0) {
+                return nextSequence > sequence;
+            }
+            return nextSequence > sequence || (nextSequence == sequence && parts > part);
+        }
+
+        public static Position of(List<String> lines) {
+            long sequence = 0;
+            int parts = 0;
+            for (String line : lines) {
+                if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                    sequence = Long.parseLong(line.substring("#EXT-X-MEDIA-SEQUENCE:".length()).trim());
+                } else if (line.startsWith("#EXTINF:")) {
+                    sequence++;
+                    parts = 0;
+                } else if (line.startsWith("#EXT-X-PART:")) {
+                    parts++;
+                }
+            }
+            return new Position(sequence, parts);
+        }
+    }
+
+    /*
+    Completes with true once the playlist holds the segment (and part), false on timeout.
+    Errors with IllegalArgumentException when the request is too far ahead of the live edge.
+     */
+    public Mono<Boolean> awaitPlaylist(Path playlist, long sequence, int part) {
+        return poll(playlistPolls, playlist, PlaylistService::read)
+                .handle((position, sink) -> {
+                    // A playlist more than two segments behind will not get there within the timeout
+                    if (position.nextSequence() >= 0 && position.nextSequence() + 2 < sequence) {
+                        sink.error(new IllegalArgumentException("_HLS_msn " + sequence + " is too far ahead"));
+                    } else if (position.contains(sequence, part)) {
+                        sink.next(Boolean.TRUE);
+                    }
+                })
+                .cast(Boolean.class)
+                .next()
+                .timeout(Duration.ofMillis(timeoutMillis), Mono.just(Boolean.FALSE));
+    }
+
+    /*
+    Parts announced by a preload hint are requested before they exist, the request waits for the file
+     */
+    public Mono<Boolean> awaitFile(Path file) {
+        return poll(filePolls, file, Files::exists)
+                .filter(Boolean::booleanValue)
+                .next()
+                .timeout(Duration.ofMillis(timeoutMillis), Mono.just(Boolean.FALSE));
+    }
+
+    /*
+    One poll per path shared by all its waiters, a late waiter starts from the last value read
+     */
+    private <T> Flux<T> poll(Map<Path, Flux<T>> polls, Path path, Function<Path, T> read) {
+        return polls.computeIfAbsent(path, key -> Flux.interval(Duration.ZERO, Duration.ofMillis(pollMillis), Schedulers.boundedElastic())
+                .map(tick -> read.apply(key))
+                .doFinally(signal -> polls.remove(key))
+                .replay(1)
+                .refCount());
+    }
+
+    private static Position read(Path playlist) {
+        try {
+            return Position.of(Files.readAllLines(playlist));
+        } catch (IOException e) {
+            // Not written yet, or replaced while being read
+            return new Position(-1, 0);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.contentservice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Control connections of the streaming servers. Every node keeps one resumable RSocket connection open,
+which carries stream key checks and broadcast states one way and kill-stream commands the other.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StreamingNodeService {
+
+    private final Map<RSocketRequester, String> nodes = new ConcurrentHashMap<>();
+    private final ChannelService channelService;
+
+    public void onConnect(RSocketRequester requester, String nodeId) {
+        requester.rsocket()
+                .onClose()
+                .doFirst(() -> {
+                    nodes.put(requester, nodeId);
+                    log.info("스트리밍 서버 {} 가 연결되었습니다.", nodeId);
+                })
+                .doOnError(error -> log.info(error.getMessage()))
+                .doFinally(consumer -> {
+                    nodes.remove(requester);
+                    log.info("스트리밍 서버 {} 의 연결이 끊어졌습니다.", nodeId);
+                })
+                .subscribe();
+    }
+
+    /*
+    The stream is only published on one node, the others ignore the command
+     */
+    public Mono<Boolean> killStream(String streamer) {
+        return Flux.fromIterable(nodes.entrySet())
+                .flatMap(node -> node.getKey()
+                        .route("streams.kill")
+                        .data(streamer)
+                        .send()
+                        .onErrorResume(error -> {
+                            log.info("스트리밍 서버 {} 에 종료 요청 실패 : {}", node.getValue(), error.getMessage());
+                            return Mono.empty();
+                        }))
+                .then(channelService.endBroadcast(streamer));
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.contentservice.service;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class PlaylistServiceTest {
+
+    private final List<String> PLAYLIST = List.of(
+            "#EXTM3U",
+            "#EXT-X-VERSION:6",
+            "#EXT-X-TARGETDURATION:2",
+            "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=1.500",
+            "#EXT-X-PART-INF:PART-TARGET=0.500",
+            "#EXT-X-MEDIA-SEQUENCE:7",
+            "#EXTINF:2.000,",
+            "streamer_src/data7.ts",
+            "#EXT-X-PART:DURATION=0.500,URI=\"streamer_src/data8_0.ts\",INDEPENDENT=YES",
+            "#EXTINF:2.000,",
+            "streamer_src/data8.ts",
+            "#EXT-X-PART:DURATION=0.500,URI=\"streamer_src/data9_0.ts\",INDEPENDENT=YES",
+            "#EXT-X-PART:DURATION=0.500,URI=\"streamer_src/data9_1.ts\"",
+            "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"streamer_src/data9_2.ts\"");
+
+    @Test
+    @DisplayName("블로킹 리로드 대상 세그먼트/파트 포함 여부 테스트")
+    void testPositionContainsRequestedPart() {
+        PlaylistService.Position position = PlaylistService.Position.of(PLAYLIST);
+
+        Assertions.assertThat(position.nextSequence()).isEqualTo(9);
+        Assertions.assertThat(position.parts()).isEqualTo(2);
+
+        Assertions.assertThat(position.contains(8, -1)).isTrue();
+        Assertions.assertThat(position.contains(9, -1)).isFalse();
+        Assertions.assertThat(position.contains(9, 1)).isTrue();
+        // The preload hinted part is not published yet
+        Assertions.assertThat(position.contains(9, 2)).isFalse();
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.streamingservice.rtmp.bench;
+
+import com.example.streamingservice.rtmp.amf0.Amf0Reader;
+import com.example.streamingservice.rtmp.amf0.Amf0Rules;
+import com.example.streamingservice.rtmp.model.messages.RtmpCommand;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+AMF0 operations per second on the messages of a connect/publish burst:
+a typical OBS connect command and @setDataFrame metadata.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Amf0Benchmark {
+
+    private List<Object> connect;
+    private ByteBuf connectPayload;
+    private ByteBuf metadataPayload;
+    private ByteBuf out;
+    private final RtmpCommand command = new RtmpCommand();
+
+    @Setup
+    public void setUp() {
+        Amf0Rules.Amf0Object cmdObj = new Amf0Rules.Amf0Object();
+        cmdObj.put("app", "streamer");
+        cmdObj.put("type", "nonprivate");
+        cmdObj.put("flashVer", "FMLE/3.0 (compatible; FMSc/1.0)");
+        cmdObj.put("swfUrl", "rtmp://localhost:1935/streamer");
+        cmdObj.put("tcUrl", "rtmp://localhost:1935/streamer");
+        connect = new ArrayList<>();
+        connect.add("connect");
+        connect.add(1.0);
+        connect.add(cmdObj);
+        connectPayload = Unpooled.buffer();
+        Amf0Rules.encodeList(connectPayload, connect);
+
+        Amf0Rules.Amf0Object metadata = new Amf0Rules.Amf0Object();
+        metadata.put("duration", 0.0);
+        metadata.put("fileSize", 0.0);
+        metadata.put("width", 1920.0);
+        metadata.put("height", 1080.0);
+        metadata.put("videocodecid", 7.0);
+        metadata.put("videodatarate", 2500.0);
+        metadata.put("framerate", 30.0);
+        metadata.put("audiocodecid", 10.0);
+        metadata.put("audiodatarate", 160.0);
+        metadata.put("audiosamplerate", 48000.0);
+        metadata.put("audiosamplesize", 16.0);
+        metadata.put("audiochannels", 2.0);
+        metadata.put("stereo", true);
+        metadata.put("2.1", false);
+        metadata.put("encoder", "obs-output module (libobs version 29.1.3)");
+        List<Object> setDataFrame = new ArrayList<>();
+        setDataFrame.add("@setDataFrame");
+        setDataFrame.add("onMetaData");
+        setDataFrame.add(metadata);
+        metadataPayload = Unpooled.buffer();
+        Amf0Rules.encodeList(metadataPayload, setDataFrame);
+
+        out = Unpooled.buffer(1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        connectPayload.release();
+        metadataPayload.release();
+        out.release();
+    }
+
+    @Benchmark
+    public ByteBuf encodeConnect() {
+        out.clear();
+        Amf0Rules.encodeList(out, connect);
+        return out;
+    }
+
+    @Benchmark
+    public List<Object> decodeConnect() {
+        return Amf0Rules.decodeAll(connectPayload.duplicate());
+    }
+
+    @Benchmark
+    public RtmpCommand readConnect() {
+        command.reset();
+        Amf0Reader.readAll(connectPayload.duplicate(), command);
+        return command;
+    }
+
+    @Benchmark
+    public List<Object> decodeMetadata() {
+        return Amf0Rules.decodeAll(metadataPayload.duplicate());
+    }
+
+    @Benchmark
+    public String peekDataMessage() {
+        return Amf0Reader.peekString(metadataPayload);
+    }
+}
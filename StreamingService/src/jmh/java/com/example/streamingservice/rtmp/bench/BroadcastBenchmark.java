@@ -0,0 +1,63 @@
+package com.example.streamingservice.rtmp.bench;
+
+import com.example.streamingservice.rtmp.handlers.ChunkEncoder;
+import com.example.streamingservice.rtmp.model.context.Stream;
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+Cost of Stream.broadcastMessage for one inter-frame.
+Subscribers are embedded channels with a ChunkEncoder, so delivery runs inline and the per-viewer header
+compression path is included. Each embedded channel has its own loop, so every subscriber is its own loop group.
+Outbound buffers are drained in the operation, standing in for the socket write.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BroadcastBenchmark {
+
+    @Param({"1", "100", "10000"})
+    private int subscribers;
+
+    private Stream stream;
+    private EmbeddedChannel[] channels;
+    private RtmpMediaMessage frame;
+    private int timestamp;
+
+    @Setup
+    public void setUp() {
+        stream = new Stream("bench");
+        channels = new EmbeddedChannel[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            channels[i] = new EmbeddedChannel(new ChunkEncoder());
+            stream.addSubscriber(channels[i]);
+            channels[i].releaseOutbound();
+        }
+        RtmpMessage message = SyntheticTraffic.videoFrame(0, false, new Random(42));
+        frame = RtmpMediaMessage.fromRtmpMessage(message);
+        message.release();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finishAndReleaseAll();
+        }
+        frame.release();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        // Steady 30 fps timestamps, so viewers stay on compressed headers
+        frame.header().setTimestamp(timestamp += 33);
+        stream.broadcastMessage(frame);
+        for (EmbeddedChannel channel : channels) {
+            channel.releaseOutbound();
+        }
+    }
+}
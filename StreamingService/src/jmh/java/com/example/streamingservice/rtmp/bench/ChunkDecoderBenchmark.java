@@ -0,0 +1,59 @@
+package com.example.streamingservice.rtmp.bench;
+
+import com.example.streamingservice.rtmp.handlers.ChunkDecoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+Decode throughput of one GOP of publisher traffic (about 0.5MB, 120 messages) per operation,
+fed to the decoder in socket-read sized slices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChunkDecoderBenchmark {
+
+    @Param({"COMPOSITE", "POOLED"})
+    private ChunkDecoder.ReassemblyMode mode;
+
+    // Publisher chunk size, OBS and ffmpeg use 4096, 128 is the protocol default
+    @Param({"128", "4096"})
+    private int chunkSize;
+
+    @Param({"16384"})
+    private int readSize;
+
+    private ByteBuf wire;
+    private EmbeddedChannel channel;
+
+    @Setup
+    public void setUp() {
+        wire = SyntheticTraffic.wire(SyntheticTraffic.gop(0), chunkSize);
+        channel = new EmbeddedChannel(new ChunkDecoder(mode));
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        wire.release();
+    }
+
+    @Benchmark
+    public void decodeGop(Blackhole blackhole) {
+        ByteBuf in = wire.duplicate();
+        while (in.isReadable()) {
+            channel.writeInbound(in.readRetainedSlice(Math.min(readSize, in.readableBytes())));
+        }
+        // Released right away, as the media path does after the fan-out
+        Object message;
+        while ((message = channel.readInbound()) != null) {
+            blackhole.consume(message);
+            ReferenceCountUtil.release(message);
+        }
+    }
+}
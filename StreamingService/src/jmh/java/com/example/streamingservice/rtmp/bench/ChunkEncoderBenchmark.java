@@ -0,0 +1,73 @@
+package com.example.streamingservice.rtmp.bench;
+
+import com.example.streamingservice.rtmp.handlers.ChunkEncoder;
+import com.example.streamingservice.rtmp.model.messages.EncodedMediaMessage;
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import com.example.streamingservice.rtmp.model.util.MessageProvider;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.RTMP_CHUNK_TYPE_0;
+
+/*
+Encode throughput per outbound chunk size, one GOP per operation.
+encodeGop goes through the per-connection ChunkEncoder, sharedEncoding is the fan-out path
+which encodes every frame once for all subscribers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChunkEncoderBenchmark {
+
+    @Param({"128", "4096", "65536"})
+    private int chunkSize;
+
+    private List<RtmpMessage> frames;
+    private EmbeddedChannel channel;
+
+    @Setup
+    public void setUp() {
+        frames = SyntheticTraffic.gop(0);
+        channel = new EmbeddedChannel(new ChunkEncoder());
+        channel.writeOutbound(MessageProvider.setChunkSize(chunkSize));
+        channel.releaseOutbound();
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        frames.forEach(RtmpMessage::release);
+    }
+
+    @Benchmark
+    public void encodeGop(Blackhole blackhole) {
+        for (RtmpMessage frame : frames) {
+            channel.writeOutbound(new RtmpMessage(frame.header(), frame.payload().retainedDuplicate()));
+        }
+        ByteBuf encoded;
+        while ((encoded = channel.readOutbound()) != null) {
+            blackhole.consume(encoded);
+            encoded.release();
+        }
+    }
+
+    @Benchmark
+    public void sharedEncoding(Blackhole blackhole) {
+        for (RtmpMessage frame : frames) {
+            RtmpMediaMessage media = RtmpMediaMessage.fromRtmpMessage(frame);
+            EncodedMediaMessage encoded = new EncodedMediaMessage(media, ByteBufAllocator.DEFAULT);
+            ByteBuf chunks = encoded.retainedChunks(chunkSize, RTMP_CHUNK_TYPE_0, frame.header().getTimestamp(), 1);
+            blackhole.consume(chunks);
+            chunks.release();
+            encoded.release();
+            media.release();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.streamingservice.rtmp.bench;
+
+import com.example.streamingservice.rtmp.handlers.ChunkEncoder;
+import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import com.example.streamingservice.rtmp.model.util.MessageProvider;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
+
+/*
+FLV-in-RTMP traffic shaped like a 30 fps H.264/AAC publisher:
+a 2 second GOP of one 60KB keyframe and 8KB inter-frames (about 2 Mbps), one AAC frame per video frame.
+Payload bytes are random but fixed by the seed, so runs are comparable.
+ */
+public final class SyntheticTraffic {
+
+    public static final int FPS = 30;
+    public static final int GOP_FRAMES = 60;
+    public static final int KEYFRAME_SIZE = 60_000;
+    public static final int INTERFRAME_SIZE = 8_000;
+    public static final int AUDIO_FRAME_SIZE = 380;
+
+    private static final int VIDEO_CID = 6;
+    private static final int AUDIO_CID = 4;
+    private static final int STREAM_ID = 1;
+
+    private SyntheticTraffic() {
+    }
+
+    public static RtmpMessage videoFrame(int timestamp, boolean keyframe, Random random) {
+        int length = keyframe ? KEYFRAME_SIZE : INTERFRAME_SIZE;
+        byte[] payload = new byte[length];
+        random.nextBytes(payload);
+        // FLV video tag header: frame type and codec id, AVC NALU, composition time 0
+        payload[0] = (byte) (keyframe ? 0x17 : 0x27);
+        payload[1] = 0x01;
+        payload[2] = payload[3] = payload[4] = 0;
+        return new RtmpMessage(header(VIDEO_CID, RTMP_MSG_USER_CONTROL_TYPE_VIDEO, timestamp, length),
+                Unpooled.wrappedBuffer(payload));
+    }
+
+    public static RtmpMessage audioFrame(int timestamp, Random random) {
+        byte[] payload = new byte[AUDIO_FRAME_SIZE];
+        random.nextBytes(payload);
+        // FLV audio tag header: AAC 44kHz stereo, raw frame
+        payload[0] = (byte) 0xAF;
+        payload[1] = 0x01;
+        return new RtmpMessage(header(AUDIO_CID, RTMP_MSG_USER_CONTROL_TYPE_AUDIO, timestamp, AUDIO_FRAME_SIZE),
+                Unpooled.wrappedBuffer(payload));
+    }
+
+    /*
+    One GOP of interleaved video and audio messages starting at the given timestamp
+     */
+    public static List<RtmpMessage> gop(int startTimestamp) {
+        Random random = new Random(42);
+        List<RtmpMessage> messages = new ArrayList<>(GOP_FRAMES * 2);
+        for (int i = 0; i < GOP_FRAMES; i++) {
+            int timestamp = startTimestamp + i * 1000 / FPS;
+            messages.add(videoFrame(timestamp, i == 0, random));
+            messages.add(audioFrame(timestamp, random));
+        }
+        return messages;
+    }
+
+    /*
+    Chunk stream bytes a publisher using the given chunk size sends for the messages, Set Chunk Size first.
+    The messages are consumed.
+     */
+    public static ByteBuf wire(List<RtmpMessage> messages, int chunkSize) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new ChunkEncoder());
+        encoder.writeOutbound(MessageProvider.setChunkSize(chunkSize));
+        for (RtmpMessage message : messages) {
+            encoder.writeOutbound(message);
+        }
+        ByteBuf wire = Unpooled.buffer();
+        ByteBuf encoded;
+        while ((encoded = encoder.readOutbound()) != null) {
+            wire.writeBytes(encoded);
+            encoded.release();
+        }
+        encoder.finishAndReleaseAll();
+        return wire;
+    }
+
+    private static RtmpHeader header(int cid, int type, int timestamp, int length) {
+        RtmpHeader header = new RtmpHeader();
+        header.setCid(cid);
+        header.setStreamId(STREAM_ID);
+        header.setType((short) type);
+        header.setTimestamp(timestamp);
+        header.setMessageLength(length);
+        return header;
+    }
+}
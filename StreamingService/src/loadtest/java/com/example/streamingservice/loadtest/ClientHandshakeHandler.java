@@ -0,0 +1,48 @@
+package com.example.streamingservice.loadtest;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpConstants;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+Client side of the simple RTMP handshake: sends C0+C1, waits for S0+S1+S2, answers S1 as C2.
+Fires COMPLETED down the pipeline and removes itself, bytes after S2 are passed on.
+ */
+public class ClientHandshakeHandler extends ByteToMessageDecoder {
+
+    public static final Object COMPLETED = new Object();
+
+    private static final int S0S1S2_LENGTH = RtmpConstants.RTMP_HANDSHAKE_VERSION_LENGTH + 2 * RtmpConstants.RTMP_HANDSHAKE_SIZE;
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        ByteBuf c0c1 = ctx.alloc().buffer(RtmpConstants.RTMP_HANDSHAKE_VERSION_LENGTH + RtmpConstants.RTMP_HANDSHAKE_SIZE);
+        c0c1.writeByte(RtmpConstants.RTMP_VERSION);
+        c0c1.writeInt(0);
+        c0c1.writeInt(0);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < RtmpConstants.RTMP_HANDSHAKE_SIZE - 8; i += 8) {
+            c0c1.writeLong(random.nextLong());
+        }
+        ctx.writeAndFlush(c0c1);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (in.readableBytes() < S0S1S2_LENGTH) {
+            return;
+        }
+        in.skipBytes(RtmpConstants.RTMP_HANDSHAKE_VERSION_LENGTH);
+        // C2 echoes S1
+        ctx.writeAndFlush(in.readRetainedSlice(RtmpConstants.RTMP_HANDSHAKE_SIZE));
+        in.skipBytes(RtmpConstants.RTMP_HANDSHAKE_SIZE);
+
+        ctx.fireUserEventTriggered(COMPLETED);
+        ctx.pipeline().remove(this);
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.streamingservice.loadtest;
+
+import com.example.streamingservice.rtmp.amf0.Amf0Rules;
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import com.example.streamingservice.rtmp.model.util.MessageProvider;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
+
+/*
+Command flow shared by publishers and viewers: connect, createStream, then publish or play.
+Transaction ids: 1 connect, 2 createStream, 3 publish/play.
+Publish/play and media go out on the message stream id returned by createStream.
+ */
+public abstract class ClientSession extends SimpleChannelInboundHandler<RtmpMessage> {
+
+    private static final double CONNECT_TRANSACTION = 1;
+    private static final double CREATE_STREAM_TRANSACTION = 2;
+    protected static final double STREAM_TRANSACTION = 3;
+
+    protected final String app;
+    protected final String tcUrl;
+    protected final LoadStats stats;
+    // Set just before the TCP connect, join latency and time-to-first-frame are measured from here
+    protected final long startNanos = System.nanoTime();
+    protected int streamId = RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE;
+
+    protected ClientSession(String app, String tcUrl, LoadStats stats) {
+        this.app = app;
+        this.tcUrl = tcUrl;
+        this.stats = stats;
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt == ClientHandshakeHandler.COMPLETED) {
+            Amf0Rules.Amf0Object cmdObj = new Amf0Rules.Amf0Object();
+            cmdObj.put("app", app);
+            cmdObj.put("type", "nonprivate");
+            cmdObj.put("flashVer", "FMLE/3.0 (compatible; loadtest)");
+            cmdObj.put("tcUrl", tcUrl);
+            command(ctx, "connect", CONNECT_TRANSACTION, cmdObj);
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, RtmpMessage message) {
+        switch (message.header().getType()) {
+            case RTMP_MSG_COMMAND_TYPE_AMF0 -> onCommand(ctx, Amf0Rules.decodeAll(message.payload()));
+            case RTMP_MSG_USER_CONTROL_TYPE_AUDIO, RTMP_MSG_USER_CONTROL_TYPE_VIDEO -> onMedia(ctx, message);
+            default -> {
+            }
+        }
+    }
+
+    private void onCommand(ChannelHandlerContext ctx, List<Object> decoded) {
+        String name = (String) decoded.get(0);
+        if ("_result".equals(name)) {
+            double transaction = (Double) decoded.get(1);
+            if (transaction == CONNECT_TRANSACTION) {
+                command(ctx, "createStream", CREATE_STREAM_TRANSACTION, null);
+            } else if (transaction == CREATE_STREAM_TRANSACTION) {
+                if (decoded.size() > 3 && decoded.get(3) instanceof Double id) {
+                    streamId = id.intValue();
+                }
+                onStreamCreated(ctx);
+            }
+        } else if ("onStatus".equals(name) && decoded.size() > 3 && decoded.get(3) instanceof Map<?, ?> info) {
+            onStatus(ctx, (String) info.get("code"));
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        stats.getFailures().incrementAndGet();
+        ctx.close();
+    }
+
+    protected void command(ChannelHandlerContext ctx, Object... values) {
+        ctx.writeAndFlush(MessageProvider.commandMessage(Arrays.asList(values)));
+    }
+
+    /*
+    Commands of the created stream, sent with its message stream id
+     */
+    protected void streamCommand(ChannelHandlerContext ctx, Object... values) {
+        ctx.writeAndFlush(MessageProvider.withStreamId(MessageProvider.commandMessage(Arrays.asList(values)), streamId));
+    }
+
+    protected abstract void onStreamCreated(ChannelHandlerContext ctx);
+
+    protected abstract void onStatus(ChannelHandlerContext ctx, String code);
+
+    protected void onMedia(ChannelHandlerContext ctx, RtmpMessage message) {
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.streamingservice.loadtest;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Counters and latency samples shared by every session of a run
+ */
+public class LoadStats {
+
+    private final AtomicInteger publishing = new AtomicInteger();
+    private final AtomicInteger joined = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final Samples joinLatency = new Samples();
+    private final Samples timeToFirstFrame = new Samples();
+    private final List<ViewerSession> viewers = new CopyOnWriteArrayList<>();
+
+    public AtomicInteger getPublishing() {
+        return publishing;
+    }
+
+    public AtomicInteger getJoined() {
+        return joined;
+    }
+
+    public AtomicInteger getFailures() {
+        return failures;
+    }
+
+    public Samples getJoinLatency() {
+        return joinLatency;
+    }
+
+    public Samples getTimeToFirstFrame() {
+        return timeToFirstFrame;
+    }
+
+    public List<ViewerSession> getViewers() {
+        return viewers;
+    }
+
+    /*
+    Per-viewer throughput over the viewers that got a frame: min / p5 / avg in kbps
+     */
+    public String throughputSummary() {
+        double[] kbps = viewers.stream().mapToDouble(ViewerSession::throughputKbps).filter(v -> v > 0).sorted().toArray();
+        if (kbps.length == 0) {
+            return "n/a";
+        }
+        double average = Arrays.stream(kbps).average().orElse(0);
+        return String.format("min %.0f / p5 %.0f / avg %.0f kbps", kbps[0], kbps[(int) (kbps.length * 0.05)], average);
+    }
+
+    public static class Samples {
+
+        private long[] values = new long[1024];
+        private int size;
+
+        public synchronized void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        /*
+        p50 / p95 / p99 / max in milliseconds
+         */
+        public synchronized String summary() {
+            if (size == 0) {
+                return "n/a";
+            }
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return String.format("p50 %.1f / p95 %.1f / p99 %.1f / max %.1f ms (n=%d)",
+                    percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99),
+                    sorted[size - 1] / 1e6, size);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            return sorted[Math.min((int) (sorted.length * p), sorted.length - 1)] / 1e6;
+        }
+    }
+}
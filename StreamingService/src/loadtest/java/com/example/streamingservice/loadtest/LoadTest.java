@@ -0,0 +1,218 @@
+package com.example.streamingservice.loadtest;
+
+import com.example.streamingservice.rtmp.handlers.ChunkDecoder;
+import com.example.streamingservice.rtmp.handlers.ChunkEncoder;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import reactor.netty.DisposableServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+Synthetic RTMP load against a running StreamingService:
+N publishers push H.264/AAC shaped traffic, M viewers are spread over the published streams.
+Reports join latency, time-to-first-frame, per-viewer throughput and, when --metrics-url is given,
+server CPU and heap scraped from /actuator/prometheus.
+
+  ./gradlew :StreamingService:loadTest --args="--publishers 10 --viewers 1000 --duration 60"
+
+The server needs auth.server and transcoding.server set to http://localhost:<stub-port> (default 18080).
+With --domain-socket <path> the viewers pull over the server's rtmp.server.domain-socket-path instead of TCP,
+run it on the server host with the same load to compare CPU.
+ */
+public class LoadTest {
+
+    private static final long REPORT_INTERVAL_SECONDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", "1935"));
+        int publishers = Integer.parseInt(options.getOrDefault("publishers", "1"));
+        int viewers = Integer.parseInt(options.getOrDefault("viewers", "10"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int bitrateKbps = Integer.parseInt(options.getOrDefault("bitrate", "2500"));
+        int fps = Integer.parseInt(options.getOrDefault("fps", "30"));
+        int stubPort = Integer.parseInt(options.getOrDefault("stub-port", "18080"));
+        long rampMillis = Long.parseLong(options.getOrDefault("ramp-ms", "5"));
+        String metricsUrl = options.get("metrics-url");
+        String domainSocket = options.get("domain-socket");
+
+        LoadStats stats = new LoadStats();
+        DisposableServer stub = new StubControlPlane().start(stubPort);
+        EventLoopGroup group = new NioEventLoopGroup();
+        // Domain socket channels only register with an epoll loop
+        EventLoopGroup localGroup = domainSocket == null ? null : new EpollEventLoopGroup();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        ServerProbe probe = metricsUrl == null ? null : new ServerProbe(metricsUrl);
+        List<Channel> channels = new ArrayList<>();
+
+        System.out.printf("Load: %d publishers, %d viewers, %d kbps at %d fps for %ds against %s:%d (stub on %d)%n",
+                publishers, viewers, bitrateKbps, fps, durationSeconds, host, port, stubPort);
+        try {
+            for (int i = 0; i < publishers; i++) {
+                String app = streamName(i);
+                channels.add(connect(group, host, port,
+                        () -> new PublisherSession(app, tcUrl(host, port, app), "key-" + app, bitrateKbps, fps, stats)));
+            }
+            // Viewers only find a stream once the publisher is through the control plane
+            awaitPublishers(stats, publishers);
+
+            reporter.scheduleAtFixedRate(() -> report(stats, probe), REPORT_INTERVAL_SECONDS,
+                    REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            for (int i = 0; i < viewers; i++) {
+                String app = streamName(i % Math.max(publishers, 1));
+                Supplier<ClientSession> session = () -> {
+                    ViewerSession viewer = new ViewerSession(app, tcUrl(host, port, app), stats);
+                    stats.getViewers().add(viewer);
+                    return viewer;
+                };
+                channels.add(domainSocket == null
+                        ? connect(group, host, port, session)
+                        : connect(localGroup, domainSocket, session));
+                if (rampMillis > 0) {
+                    Thread.sleep(rampMillis);
+                }
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+            System.out.println("Final:");
+            report(stats, probe);
+        } finally {
+            reporter.shutdownNow();
+            channels.forEach(Channel::close);
+            group.shutdownGracefully().syncUninterruptibly();
+            if (localGroup != null) {
+                localGroup.shutdownGracefully().syncUninterruptibly();
+            }
+            stub.disposeNow();
+        }
+    }
+
+    private static Channel connect(EventLoopGroup group, String host, int port, Supplier<ClientSession> session) {
+        return new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(initializer(session))
+                .connect(host, port)
+                .channel();
+    }
+
+    private static Channel connect(EventLoopGroup group, String domainSocket, Supplier<ClientSession> session) {
+        return new Bootstrap()
+                .group(group)
+                .channel(EpollDomainSocketChannel.class)
+                .handler(initializer(session))
+                .connect(new DomainSocketAddress(domainSocket))
+                .channel();
+    }
+
+    private static ChannelInitializer<Channel> initializer(Supplier<ClientSession> session) {
+        return new ChannelInitializer<>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                // The server's own codec, a viewer decodes what the server encodes
+                ch.pipeline().addLast(new ClientHandshakeHandler(), new ChunkDecoder(),
+                        new ChunkEncoder(), session.get());
+            }
+        };
+    }
+
+    private static void awaitPublishers(LoadStats stats, int publishers) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (stats.getPublishing().get() < publishers && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        if (stats.getPublishing().get() < publishers) {
+            System.out.printf("Only %d of %d publishers started%n", stats.getPublishing().get(), publishers);
+        }
+    }
+
+    private static void report(LoadStats stats, ServerProbe probe) {
+        System.out.printf("  publishing %d, viewers joined %d/%d, failures %d%n",
+                stats.getPublishing().get(), stats.getJoined().get(), stats.getViewers().size(), stats.getFailures().get());
+        System.out.println("  join latency        " + stats.getJoinLatency().summary());
+        System.out.println("  time to first frame " + stats.getTimeToFirstFrame().summary());
+        System.out.println("  viewer throughput   " + stats.throughputSummary());
+        if (probe != null) {
+            System.out.println("  server              " + probe.sample());
+        }
+    }
+
+    private static String streamName(int index) {
+        return "load" + index;
+    }
+
+    private static String tcUrl(String host, int port, String app) {
+        return "rtmp://" + host + ":" + port + "/" + app;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        return options;
+    }
+
+    /*
+    Reads process CPU and heap from the server's Prometheus endpoint
+     */
+    private static class ServerProbe {
+
+        private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        private final URI uri;
+
+        ServerProbe(String url) {
+            this.uri = URI.create(url);
+        }
+
+        String sample() {
+            try {
+                String body = client.send(HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(2)).build(),
+                        HttpResponse.BodyHandlers.ofString()).body();
+                double cpu = 0;
+                double heap = 0;
+                for (String line : body.split("\n")) {
+                    if (line.startsWith("process_cpu_usage ")) {
+                        cpu = value(line);
+                    } else if (line.startsWith("jvm_memory_used_bytes{") && line.contains("area=\"heap\"")) {
+                        heap += value(line);
+                    }
+                }
+                return String.format("cpu %.1f%%, heap %.1f MB", cpu * 100, heap / (1024 * 1024));
+            } catch (IOException e) {
+                return "unavailable (" + e.getMessage() + ")";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "interrupted";
+            }
+        }
+
+        private static double value(String line) {
+            return Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.streamingservice.loadtest;
+
+import com.example.streamingservice.rtmp.amf0.Amf0Rules;
+import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import com.example.streamingservice.rtmp.model.util.MessageProvider;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
+
+/*
+Publishes synthetic H.264/AAC once the server answers NetStream.Publish.Start:
+metadata, both sequence headers, then one video and one audio frame per tick with a keyframe every GOP.
+Frame payloads are allocated once and written as retained duplicates.
+ */
+public class PublisherSession extends ClientSession {
+
+    private static final int VIDEO_CID = 6;
+    private static final int AUDIO_CID = 4;
+    private static final int AUDIO_FRAME_SIZE = 380;
+    private static final int CHUNK_SIZE = 4096;
+
+    private final String streamKey;
+    private final int fps;
+    private final int gopFrames;
+
+    private final ByteBuf keyframe;
+    private final ByteBuf interframe;
+    private final ByteBuf audioFrame;
+
+    private ScheduledFuture<?> ticker;
+    private long publishStartedMillis;
+    private int frame;
+
+    public PublisherSession(String app, String tcUrl, String streamKey, int bitrateKbps, int fps, LoadStats stats) {
+        super(app, tcUrl, stats);
+        this.streamKey = streamKey;
+        this.fps = fps;
+        this.gopFrames = fps * 2;
+        int interframeSize = Math.max(bitrateKbps * 1000 / 8 / fps * 2 / 3, 64);
+        Random random = new Random(app.hashCode());
+        this.keyframe = payload(random, interframeSize * 10, 0x17, 0x01);
+        this.interframe = payload(random, interframeSize, 0x27, 0x01);
+        this.audioFrame = payload(random, AUDIO_FRAME_SIZE, 0xAF, 0x01);
+    }
+
+    @Override
+    protected void onStreamCreated(ChannelHandlerContext ctx) {
+        streamCommand(ctx, "publish", STREAM_TRANSACTION, null, streamKey, "live");
+    }
+
+    @Override
+    protected void onStatus(ChannelHandlerContext ctx, String code) {
+        if (!"NetStream.Publish.Start".equals(code) || ticker != null) {
+            return;
+        }
+        stats.getPublishing().incrementAndGet();
+        ctx.write(MessageProvider.setChunkSize(CHUNK_SIZE));
+
+        Amf0Rules.Amf0Object metadata = new Amf0Rules.Amf0Object();
+        metadata.put("width", 1280.0);
+        metadata.put("height", 720.0);
+        metadata.put("framerate", (double) fps);
+        metadata.put("videocodecid", 7.0);
+        metadata.put("videodatarate", (double) (interframe.readableBytes() * 8 * fps / 1000));
+        metadata.put("audiocodecid", 10.0);
+        metadata.put("audiodatarate", 128.0);
+        metadata.put("encoder", "loadtest");
+        List<Object> setDataFrame = new ArrayList<>();
+        setDataFrame.add("@setDataFrame");
+        setDataFrame.add("onMetaData");
+        setDataFrame.add(metadata);
+        ctx.write(MessageProvider.withStreamId(MessageProvider.dataMessage(setDataFrame), streamId));
+
+        // Sequence headers, the contents are not parsed by the server
+        ctx.write(media(VIDEO_CID, RTMP_MSG_USER_CONTROL_TYPE_VIDEO, 0,
+                Unpooled.wrappedBuffer(new byte[]{0x17, 0x00, 0, 0, 0, 0x01, 0x64, 0x00, 0x1F})));
+        ctx.writeAndFlush(media(AUDIO_CID, RTMP_MSG_USER_CONTROL_TYPE_AUDIO, 0,
+                Unpooled.wrappedBuffer(new byte[]{(byte) 0xAF, 0x00, 0x12, 0x10})));
+
+        publishStartedMillis = System.currentTimeMillis();
+        ticker = ctx.executor().scheduleAtFixedRate(() -> tick(ctx), 0, 1000 / fps, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick(ChannelHandlerContext ctx) {
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        int timestamp = (int) (System.currentTimeMillis() - publishStartedMillis);
+        ByteBuf video = frame++ % gopFrames == 0 ? keyframe : interframe;
+        ctx.write(media(VIDEO_CID, RTMP_MSG_USER_CONTROL_TYPE_VIDEO, timestamp, video.retainedDuplicate()));
+        ctx.writeAndFlush(media(AUDIO_CID, RTMP_MSG_USER_CONTROL_TYPE_AUDIO, timestamp, audioFrame.retainedDuplicate()));
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (ticker != null) {
+            ticker.cancel(false);
+            stats.getPublishing().decrementAndGet();
+        }
+        keyframe.release();
+        interframe.release();
+        audioFrame.release();
+        super.channelInactive(ctx);
+    }
+
+    private RtmpMessage media(int cid, int type, int timestamp, ByteBuf payload) {
+        RtmpHeader header = new RtmpHeader();
+        header.setCid(cid);
+        header.setType((short) type);
+        header.setStreamId(streamId);
+        header.setTimestamp(timestamp);
+        header.setMessageLength(payload.readableBytes());
+        return new RtmpMessage(header, payload);
+    }
+
+    private static ByteBuf payload(Random random, int length, int first, int second) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        bytes[0] = (byte) first;
+        bytes[1] = (byte) second;
+        return Unpooled.wrappedBuffer(bytes);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.streamingservice.loadtest;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Stands in for ContentService and TranscodingService during a load run.
+Every stream key is accepted, on air/off air is acknowledged and transcoding hands out fake pids.
+Start the server with auth.server and transcoding.server both pointing here.
+ */
+public class StubControlPlane {
+
+    private final AtomicLong pids = new AtomicLong(10_000);
+
+    public DisposableServer start(int port) {
+        return HttpServer.create()
+                .port(port)
+                .route(routes -> routes
+                        .post("/broadcasts/{name}/check", (request, response) -> json(request, response, "true"))
+                        .post("/broadcasts/{name}/onair", (request, response) -> json(request, response, "true"))
+                        .post("/broadcasts/{name}/offair", (request, response) -> json(request, response, "true"))
+                        .post("/broadcasts/states", (request, response) -> json(request, response, "true"))
+                        .get("/ffmpeg/{name}", (request, response) ->
+                                json(request, response, Long.toString(pids.incrementAndGet()))))
+                .bindNow();
+    }
+
+    private static Publisher<Void> json(HttpServerRequest request, HttpServerResponse response, String body) {
+        // The request body is drained before answering so the connection can be kept alive
+        return request.receive().then()
+                .then(response
+                        .header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                        .sendString(Mono.just(body))
+                        .then());
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.streamingservice.loadtest;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import io.netty.channel.ChannelHandlerContext;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+
+/*
+Plays a stream and records join latency (connect to NetStream.Play.Start),
+time-to-first-frame (connect to the first video message) and the media bytes received.
+ */
+public class ViewerSession extends ClientSession {
+
+    private volatile long firstFrameNanos;
+    private volatile long mediaBytes;
+    private boolean joined;
+
+    public ViewerSession(String app, String tcUrl, LoadStats stats) {
+        super(app, tcUrl, stats);
+    }
+
+    @Override
+    protected void onStreamCreated(ChannelHandlerContext ctx) {
+        streamCommand(ctx, "play", STREAM_TRANSACTION, null, app);
+    }
+
+    @Override
+    protected void onStatus(ChannelHandlerContext ctx, String code) {
+        if ("NetStream.Play.Start".equals(code) && !joined) {
+            joined = true;
+            stats.getJoined().incrementAndGet();
+            stats.getJoinLatency().add(System.nanoTime() - startNanos);
+        } else if ("NetStream.Play.StreamNotFound".equals(code)) {
+            stats.getFailures().incrementAndGet();
+            ctx.close();
+        }
+    }
+
+    @Override
+    protected void onMedia(ChannelHandlerContext ctx, RtmpMessage message) {
+        // Only this channel's event loop writes, the reporter reads
+        mediaBytes = mediaBytes + message.header().getMessageLength();
+        if (firstFrameNanos == 0 && message.header().getType() == RTMP_MSG_USER_CONTROL_TYPE_VIDEO) {
+            firstFrameNanos = System.nanoTime();
+            stats.getTimeToFirstFrame().add(firstFrameNanos - startNanos);
+        }
+    }
+
+    /*
+    Received media bitrate since the first frame, 0 before it
+     */
+    public double throughputKbps() {
+        long first = firstFrameNanos;
+        if (first == 0) {
+            return 0;
+        }
+        double seconds = (System.nanoTime() - first) / 1e9;
+        return seconds <= 0 ? 0 : mediaBytes * 8 / 1000.0 / seconds;
+    }
+}
@@ -3,11 +3,17 @@ package com.example.streamingservice;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import java.util.Map;
+
 @SpringBootApplication
 public class StreamingServiceApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(StreamingServiceApplication.class, args);
+        SpringApplication application = new SpringApplication(StreamingServiceApplication.class);
+        // RTMP metrics are served by the actuator, application.properties can still override these
+        application.setDefaultProperties(Map.of(
+                "management.endpoints.web.exposure.include", "health,prometheus"));
+        application.run(args);
     }
 
 }
@@ -1,9 +1,16 @@
 package com.example.streamingservice.rtmp;
 
-import com.example.streamingservice.rtmp.entity.StreamKey;
+import com.example.streamingservice.rtmp.control.ControlPlaneClient;
 import com.example.streamingservice.rtmp.handlers.*;
+import com.example.streamingservice.rtmp.hls.HlsPackagerFactory;
 import com.example.streamingservice.rtmp.model.context.Stream;
+import com.example.streamingservice.rtmp.record.FlvRecorderFactory;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.unix.DomainSocketAddress;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -11,16 +18,16 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 import reactor.netty.DisposableServer;
+import reactor.netty.resources.LoopResources;
 import reactor.netty.tcp.TcpServer;
-import reactor.util.retry.Retry;
 
-import java.time.Duration;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 @NoArgsConstructor
 @Getter
@@ -39,102 +46,190 @@ public abstract class RtmpServer implements CommandLineRunner {
     protected abstract ChunkEncoder getChunkEncoder();
 
     @Autowired
-    private WebClient webClient;
+    private ControlPlaneClient controlPlaneClient;
 
-    @Value("${transcoding.server}")
-    private String transcodingAddress;
+    // Passthrough HLS packaged in process, the transcoding server only has to produce the other renditions
+    @Autowired
+    private HlsPackagerFactory hlsPackagerFactory = HlsPackagerFactory.disabled();
+
+    @Autowired
+    private FlvRecorderFactory flvRecorderFactory = FlvRecorderFactory.disabled();
+
+    // Subscribers above the high watermark are treated as slow and get frames dropped (see DeliveryPolicy)
+    @Value("${rtmp.server.write-buffer-low-watermark:1048576}")
+    private int writeBufferLowWatermark;
+
+    @Value("${rtmp.server.write-buffer-high-watermark:4194304}")
+    private int writeBufferHighWatermark;
+
+    @Value("${rtmp.egress.flush-mode:LOOP}")
+    private EgressFlushMode flushMode;
+
+    // Only used by the WINDOW flush mode
+    @Value("${rtmp.egress.flush-window-ms:5}")
+    private long flushWindowMillis;
+
+    @Value("${rtmp.server.port:1935}")
+    private int port;
+
+    @Value("${rtmp.server.backlog:1024}")
+    private int backlog;
+
+    // Use epoll instead of NIO when available
+    @Value("${rtmp.server.prefer-native:true}")
+    private boolean preferNative;
+
+    // Acceptor threads, 0 lets the worker threads accept connections as well. Raised to rtmp.server.acceptors.
+    @Value("${rtmp.server.select-threads:1}")
+    private int selectThreads;
+
+    // I/O worker threads, 0 means one per core
+    @Value("${rtmp.server.worker-threads:0}")
+    private int workerThreads;
 
-    @Value("${auth.server}")
-    private String authAddress;
+    // Number of listening sockets bound with SO_REUSEPORT, only honoured on the epoll transport
+    @Value("${rtmp.server.acceptors:1}")
+    private int acceptors;
+
+    @Value("${rtmp.server.tcp-no-delay:true}")
+    private boolean tcpNoDelay;
+
+    // 0 keeps the OS default
+    @Value("${rtmp.server.send-buffer-size:0}")
+    private int sendBufferSize;
+
+    @Value("${rtmp.server.receive-buffer-size:0}")
+    private int receiveBufferSize;
+
+    // Unix domain socket for co-located consumers, same pipeline as the TCP port. Empty disables it, needs epoll.
+    @Value("${rtmp.server.domain-socket-path:}")
+    private String domainSocketPath;
 
     @Override
     public void run(String... args) {
-        DisposableServer server = TcpServer.create()
-                        .port(1935)
-                        .doOnBound(disposableServer ->
-                                log.info("RTMP 서버가 포트 {} 에서 시작됩니다.", disposableServer.port()))
-                        .doOnConnection(connection -> connection
-                                .addHandlerLast(getInboundConnectionLogger())
-                                .addHandlerLast(getHandshakeHandler())
-                                .addHandlerLast(getChunkDecoder())
-                                .addHandlerLast(getChunkEncoder())
-                                .addHandlerLast(getRtmpMessageHandler()))
-                        .option(ChannelOption.SO_BACKLOG, 128)
-                        .childOption(ChannelOption.SO_KEEPALIVE, true)
+        boolean nativeTransport = preferNative && Epoll.isAvailable();
+        int acceptorCount = Math.max(acceptors, 1);
+        if (acceptorCount > 1 && !nativeTransport) {
+            log.info("SO_REUSEPORT needs the epoll transport, binding a single acceptor");
+            acceptorCount = 1;
+        }
+        // Listening sockets are registered round robin, one select thread per acceptor keeps accepts on separate cores
+        int selectCount = selectThreads > 0 ? Math.max(selectThreads, acceptorCount) : -1;
+        LoopResources loops = LoopResources.create("rtmp", selectCount,
+                workerThreads > 0 ? workerThreads : LoopResources.DEFAULT_IO_WORKER_COUNT,
+                true);
+        log.info("RTMP transport: {}, acceptors: {}, select threads: {}", nativeTransport ? "native" : "nio", acceptorCount,
+                selectCount > 0 ? selectCount : "shared with workers");
+
+        // Transport independent part, shared by the TCP port and the domain socket
+        TcpServer rtmpServer = TcpServer.create()
+                        .runOn(loops, preferNative)
+                        .doOnConnection(connection -> {
+                            // Closest to the socket, so it batches the flushes of every handler and of the fan-out
+                            ChannelHandler flushHandler = flushMode == null ? null : flushMode.newHandler(flushWindowMillis);
+                            if (flushHandler != null) {
+                                connection.addHandlerLast(flushHandler);
+                            }
+                            connection
+                                    .addHandlerLast(getInboundConnectionLogger())
+                                    .addHandlerLast(getHandshakeHandler())
+                                    .addHandlerLast(getChunkDecoder())
+                                    .addHandlerLast(getChunkEncoder())
+                                    .addHandlerLast(getRtmpMessageHandler());
+                        })
+                        .option(ChannelOption.SO_BACKLOG, backlog)
+                        .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                                new WriteBufferWaterMark(writeBufferLowWatermark, writeBufferHighWatermark))
                         .handle((in, out) -> in
                                 .receiveObject()
                                 .cast(Stream.class)
-                        .flatMap(stream -> {
-                            return webClient
-                                    .post()
-                                    .uri(authAddress + "/broadcasts/" + stream.getStreamName() + "/check")
-                                    .body(Mono.just(new StreamKey(stream.getStreamKey())), StreamKey.class)
-                                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                                    .retrieve()
-                                    .bodyToMono(Boolean.class).log()
-                                    .retryWhen(Retry.fixedDelay(3, Duration.ofMillis(500)))
-                                    .doOnError(error -> log.info(error.getMessage()))
-                                    .onErrorReturn(Boolean.FALSE)
-                                    .flatMap(ans -> {
-                                        if (ans) {
-                                            log.info("스트리머 {} 의 stream key가 유효합니다.", stream.getStreamName());
-                                            stream.sendPublishMessage();
-                                            stream.getReadyToBroadcast().thenRun(() -> webClient
-                                                    .get()
-                                                    .uri(transcodingAddress + "/ffmpeg/" + stream.getStreamName())
-                                                    .retrieve()
-                                                    .bodyToMono(Long.class)
-                                                    .retryWhen(Retry.fixedDelay(3, Duration.ofMillis(1000)))
-                                                    .doOnError(error -> {
-                                                        log.info("Transcoding 서버에서 다음의 에러가 발생했습니다 : " + error.getMessage());
-                                                        webClient
-                                                                .post()
-                                                                .uri(authAddress + "/broadcasts/" + stream.getStreamName() + "/offair")
-                                                                .retrieve()
-                                                                .bodyToMono(Boolean.class)
-                                                                .retryWhen(Retry.fixedDelay(3, Duration.ofMillis(500)))
-                                                                .doOnError(e -> log.info(e.getMessage()))
-                                                                .onErrorReturn(Boolean.FALSE)
-                                                                .subscribeOn(Schedulers.parallel())
-                                                                .subscribe((s) -> {
-                                                                    log.info("방송 송출이 끊어집니다.");
-                                                                    if (s) {
-                                                                        log.info("방송이 종료됩니다.");
-                                                                    } else {
-                                                                        log.info("ContentService 서버와 통신 에러 발생");
-                                                                    }
-                                                                });
-                                                        stream.closeStream();
-                                                        stream.getPublisher().disconnect();
-                                                    })
-                                                    .onErrorComplete()
-                                                    .subscribe((s) -> {
-                                                        log.info("Transcoding server started ffmpeg with pid " + s.toString());
-                                                        webClient
-                                                                .post()
-                                                                .uri(authAddress + "/broadcasts/" + stream.getStreamName() + "/onair")
-                                                                .retrieve()
-                                                                .bodyToMono(Boolean.class)
-                                                                .retryWhen(Retry.fixedDelay(3, Duration.ofMillis(500)))
-                                                                .doOnError(e -> log.info(e.getMessage()))
-                                                                .onErrorReturn(Boolean.FALSE)
-                                                                .subscribeOn(Schedulers.parallel())
-                                                                .subscribe((t) -> {
-                                                                    if (t) {
-                                                                        log.info("방송이 시작됩니다.");
-                                                                    } else {
-                                                                        log.info("ContentService 서버와 통신 에러 발생");
-                                                                    }
-                                                                });
-                                                    }));
-                                        } else {
-                                            stream.getPublisher().disconnect();
+                        .flatMap(stream -> controlPlaneClient
+                                .checkStreamKey(stream.getOwner(), stream.getStreamKey())
+                                .flatMap(ans -> {
+                                    if (ans) {
+                                        log.info("스트리머 {} 의 stream key가 유효합니다.", stream.getStreamName());
+                                        stream.sendPublishMessage();
+                                        hlsPackagerFactory.attach(stream);
+                                        // The recording starts with onMetaData, which the encoder sends before the first frame.
+                                        // Queued behind that frame on the publisher loop, so the sink doesn't get it twice.
+                                        stream.getReadyToBroadcast().thenRunAsync(() -> flvRecorderFactory.attach(stream),
+                                                stream.getPublisher().eventLoop());
+                                        // Renditions published next to the main stream are neither transcoded nor put on air
+                                        if (!stream.getStreamName().equals(stream.getOwner())) {
+                                            return Mono.empty();
                                         }
-                                        return Mono.empty();
-                                    });
-                        })
-                        .then())
+                                        stream.getReadyToBroadcast().thenRun(() -> controlPlaneClient
+                                                .startTranscoding(stream.getStreamName(), hlsPackagerFactory.passthroughVariant(stream))
+                                                .subscribe(pid -> {
+                                                    log.info("Transcoding server started ffmpeg with pid " + pid);
+                                                    controlPlaneClient.onAir(stream.getStreamName());
+                                                }, error -> {
+                                                    log.info("Transcoding 서버에서 다음의 에러가 발생했습니다 : " + error.getMessage());
+                                                    log.info("방송 송출이 끊어집니다.");
+                                                    controlPlaneClient.offAir(stream.getStreamName());
+                                                    stream.closeStream();
+                                                    stream.getPublisher().disconnect();
+                                                }));
+                                    } else {
+                                        stream.getPublisher().disconnect();
+                                    }
+                                    return Mono.empty();
+                                }))
+                        .then());
+
+        TcpServer tcpServer = rtmpServer
+                .port(port)
+                .doOnBound(disposableServer ->
+                        log.info("RTMP 서버가 포트 {} 에서 시작됩니다.", disposableServer.port()))
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        if (acceptorCount > 1) {
+            tcpServer = tcpServer.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        if (sendBufferSize > 0) {
+            tcpServer = tcpServer.childOption(ChannelOption.SO_SNDBUF, sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            tcpServer = tcpServer.childOption(ChannelOption.SO_RCVBUF, receiveBufferSize);
+        }
+
+        // With SO_REUSEPORT the kernel spreads incoming connections over every acceptor socket
+        List<DisposableServer> servers = new ArrayList<>();
+        for (int i = 0; i < acceptorCount; i++) {
+            servers.add(tcpServer.bindNow());
+        }
+        if (domainSocketPath != null && !domainSocketPath.isBlank()) {
+            if (nativeTransport) {
+                servers.add(bindDomainSocket(rtmpServer, Path.of(domainSocketPath)));
+            } else {
+                log.info("Unix domain sockets need the epoll transport, {} is not bound", domainSocketPath);
+            }
+        }
+        Mono.when(servers.stream().map(DisposableServer::onDispose).toList())
+                .doFinally(signal -> loops.dispose())
+                .block();
+    }
+
+    /*
+    Local consumers skip the loopback TCP stack. A socket file left behind by a previous run is replaced.
+     */
+    private DisposableServer bindDomainSocket(TcpServer rtmpServer, Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.info("Stale domain socket {} could not be removed: {}", path, e.getMessage());
+        }
+        DisposableServer server = rtmpServer
+                .bindAddress(() -> new DomainSocketAddress(path.toFile()))
+                .doOnBound(disposableServer -> log.info("RTMP 서버가 domain socket {} 에서 시작됩니다.", path))
                 .bindNow();
-        server.onDispose().block();
+        server.onDispose().doFinally(signal -> {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // The next start removes it
+            }
+        }).subscribe();
+        return server;
     }
 }
@@ -0,0 +1,83 @@
+package com.example.streamingservice.rtmp.amf0;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+Streaming AMF0 decoder which reports values to an Amf0Visitor instead of building maps and lists.
+Nothing is allocated apart from strings which are not well known, see Amf0Strings.
+ */
+public final class Amf0Reader {
+
+    private static final int OBJECT_END_MARKER = 0x000009;
+
+    private Amf0Reader() {
+    }
+
+    public static void readAll(ByteBuf buf, Amf0Visitor visitor) {
+        while (buf.isReadable()) {
+            readValue(buf, visitor);
+        }
+    }
+
+    /*
+    Returns the string the payload starts with without consuming it, null if it doesn't start with a string
+     */
+    public static String peekString(ByteBuf buf) {
+        int index = buf.readerIndex();
+        if (buf.readableBytes() < 3 || buf.getByte(index) != Amf0Rules.Type.STRING.getValue()) {
+            return null;
+        }
+        int length = buf.getUnsignedShort(index + 1);
+        if (buf.readableBytes() < 3 + length) {
+            return null;
+        }
+        String string = Amf0Strings.lookup(buf, index + 3, length);
+        return string != null ? string : buf.toString(index + 3, length, StandardCharsets.UTF_8);
+    }
+
+    public static void readValue(ByteBuf buf, Amf0Visitor visitor) {
+        int marker = buf.readUnsignedByte();
+        switch (marker) {
+            case 0x00 -> visitor.number(buf.readDouble());
+            case 0x01 -> visitor.bool(buf.readByte() != 0x00);
+            case 0x02 -> visitor.string(Amf0Strings.read(buf, buf.readUnsignedShort()));
+            case 0x03 -> readProperties(buf, visitor);
+            case 0x05, 0x06, 0x0D -> visitor.nullValue();
+            case 0x08 -> {
+                // The count is only a hint, the properties are terminated by the end marker
+                buf.skipBytes(4);
+                readProperties(buf, visitor);
+            }
+            case 0x0A -> {
+                int length = buf.readInt();
+                visitor.arrayStart(length);
+                for (int i = 0; i < length; i++) {
+                    readValue(buf, visitor);
+                }
+                visitor.arrayEnd();
+            }
+            case 0x0B -> {
+                visitor.date(buf.readDouble());
+                // Time zone, reserved
+                buf.skipBytes(2);
+            }
+            case 0x0C -> visitor.string(Amf0Strings.read(buf, buf.readInt()));
+            default -> throw new RuntimeException("Unsupported type: " + marker);
+        }
+    }
+
+    private static void readProperties(ByteBuf buf, Amf0Visitor visitor) {
+        visitor.objectStart();
+        while (buf.isReadable()) {
+            if (buf.readableBytes() >= 3 && buf.getUnsignedMedium(buf.readerIndex()) == OBJECT_END_MARKER) {
+                buf.skipBytes(3);
+                break;
+            }
+            visitor.key(Amf0Strings.read(buf, buf.readUnsignedShort()));
+            readValue(buf, visitor);
+        }
+        visitor.objectEnd();
+    }
+}
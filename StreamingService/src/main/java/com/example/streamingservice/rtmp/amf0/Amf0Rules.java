@@ -1,6 +1,7 @@
 package com.example.streamingservice.rtmp.amf0;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.Serial;
@@ -38,6 +39,7 @@ public class Amf0Rules {
 
         // 0x09 end marker
         private static final byte[] OBJECT_END_MARKER = new byte[]{0x00, 0x00, 0x09};
+        private static final int OBJECT_END_MARKER_VALUE = 0x000009;
         private final int value;
 
         Type(int value) {
@@ -114,9 +116,8 @@ public class Amf0Rules {
     }
 
     private static void encodeString(ByteBuf buf, String string) {
-        byte[] bytes = string.getBytes();
-        buf.writeShort((short) bytes.length); // 주어진 string의 길이
-        buf.writeBytes(bytes);
+        buf.writeShort(ByteBufUtil.utf8Bytes(string)); // 주어진 string의 UTF-8 길이
+        ByteBufUtil.writeUtf8(buf, string);
     }
 
     private static void encodeBoolean(ByteBuf buf, Boolean bool) {
@@ -195,18 +196,13 @@ public class Amf0Rules {
     }
 
     public static String decodeString(ByteBuf buf) {
-        short size = buf.readShort();
-        byte[] bytes = new byte[size];
-        buf.readBytes(bytes);
-        return new String(bytes);
+        return Amf0Strings.read(buf, buf.readUnsignedShort());
     }
 
     public static Object decodeAmf0Object(ByteBuf buf) {
         Map<String, Object> map = new Amf0Object();
-        byte[] endMarker = new byte[3];
         while (buf.isReadable()) {
-            buf.getBytes(buf.readerIndex(), endMarker);
-            if (Arrays.equals(endMarker, Type.OBJECT_END_MARKER)) {
+            if (buf.readableBytes() >= 3 && buf.getUnsignedMedium(buf.readerIndex()) == Type.OBJECT_END_MARKER_VALUE) {
                 buf.skipBytes(3);
                 break;
             }
@@ -235,9 +231,6 @@ public class Amf0Rules {
     }
 
     public static String decodeLongString(ByteBuf buf) {
-        int size = buf.readInt();
-        byte[] bytes = new byte[size];
-        buf.readBytes(bytes);
-        return new String(bytes);
+        return Amf0Strings.read(buf, buf.readInt());
     }
 }
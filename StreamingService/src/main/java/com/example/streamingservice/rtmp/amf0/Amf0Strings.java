@@ -0,0 +1,96 @@
+package com.example.streamingservice.rtmp.amf0;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+UTF-8 string decoding with a table of well-known command names, property keys and values.
+A well-known string is matched in place and the canonical instance is returned without allocating.
+ */
+public final class Amf0Strings {
+
+    private static final String[] WELL_KNOWN = {
+            // Commands and data messages
+            "connect", "createStream", "publish", "play", "closeStream", "deleteStream", "releaseStream",
+            "FCPublish", "FCUnpublish", "getStreamLength", "_checkbw", "_result", "_error", "onStatus",
+            "@setDataFrame", "onMetaData", "|RtmpSampleAccess", "live", "record", "append",
+            // connect command object
+            "app", "type", "flashVer", "swfUrl", "tcUrl", "fpad", "capabilities", "audioCodecs", "videoCodecs",
+            "videoFunction", "pageUrl", "objectEncoding", "nonprivate",
+            // onMetaData
+            "duration", "fileSize", "filesize", "width", "height", "videocodecid", "videodatarate", "framerate",
+            "audiocodecid", "audiodatarate", "audiosamplerate", "audiosamplesize", "audiochannels", "stereo",
+            "2.1", "3.1", "4.0", "4.1", "5.1", "7.1", "encoder", "avc1", "mp4a",
+            // onStatus info object
+            "level", "code", "description", "status", "error"
+    };
+
+    // Well-known strings bucketed by encoded length, only equal-length candidates are compared
+    private static final String[][] BY_LENGTH;
+    private static final byte[][][] BYTES_BY_LENGTH;
+
+    static {
+        int maxLength = 0;
+        for (String string : WELL_KNOWN) {
+            maxLength = Math.max(maxLength, string.getBytes(StandardCharsets.UTF_8).length);
+        }
+        int[] counts = new int[maxLength + 1];
+        for (String string : WELL_KNOWN) {
+            counts[string.getBytes(StandardCharsets.UTF_8).length]++;
+        }
+        BY_LENGTH = new String[maxLength + 1][];
+        BYTES_BY_LENGTH = new byte[maxLength + 1][][];
+        for (int length = 0; length <= maxLength; length++) {
+            BY_LENGTH[length] = new String[counts[length]];
+            BYTES_BY_LENGTH[length] = new byte[counts[length]][];
+            counts[length] = 0;
+        }
+        for (String string : WELL_KNOWN) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            BY_LENGTH[bytes.length][counts[bytes.length]] = string;
+            BYTES_BY_LENGTH[bytes.length][counts[bytes.length]++] = bytes;
+        }
+    }
+
+    private Amf0Strings() {
+    }
+
+    /*
+    Reads length bytes as a UTF-8 string and advances the reader index
+     */
+    public static String read(ByteBuf buf, int length) {
+        int index = buf.readerIndex();
+        String string = lookup(buf, index, length);
+        if (string == null) {
+            string = buf.toString(index, length, StandardCharsets.UTF_8);
+        }
+        buf.skipBytes(length);
+        return string;
+    }
+
+    /*
+    Returns the canonical instance when the bytes are a well-known string, null otherwise
+     */
+    public static String lookup(ByteBuf buf, int index, int length) {
+        if (length >= BY_LENGTH.length) {
+            return null;
+        }
+        byte[][] candidates = BYTES_BY_LENGTH[length];
+        for (int i = 0; i < candidates.length; i++) {
+            if (matches(buf, index, candidates[i])) {
+                return BY_LENGTH[length][i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(ByteBuf buf, int index, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buf.getByte(index + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.streamingservice.rtmp.amf0;
+
+/*
+Callbacks of the streaming AMF0 reader, values are reported in payload order.
+Numbers stay primitive and strings are canonical instances when well known.
+Object and ECMA array properties are reported as key() followed by the value.
+ */
+public interface Amf0Visitor {
+
+    default void number(double value) {
+    }
+
+    default void bool(boolean value) {
+    }
+
+    default void string(String value) {
+    }
+
+    // null, undefined and unsupported markers
+    default void nullValue() {
+    }
+
+    default void date(double epochMillis) {
+    }
+
+    // Object or ECMA array
+    default void objectStart() {
+    }
+
+    default void key(String key) {
+    }
+
+    default void objectEnd() {
+    }
+
+    default void arrayStart(int length) {
+    }
+
+    default void arrayEnd() {
+    }
+}
@@ -1,32 +1,230 @@
 package com.example.streamingservice.rtmp.config;
 
 import com.example.streamingservice.rtmp.RtmpServer;
+import com.example.streamingservice.rtmp.control.ControlChannel;
+import com.example.streamingservice.rtmp.control.ControlCommandHandler;
+import com.example.streamingservice.rtmp.control.ControlPlaneClient;
+import com.example.streamingservice.rtmp.flv.FlvServer;
 import com.example.streamingservice.rtmp.handlers.*;
+import com.example.streamingservice.rtmp.hls.HlsPackagerFactory;
+import com.example.streamingservice.rtmp.record.FlvRecorderFactory;
+import com.example.streamingservice.rtmp.metrics.RtmpMetrics;
+import com.example.streamingservice.rtmp.model.context.DeliveryPolicy;
+import com.example.streamingservice.rtmp.model.context.GopCacheBudget;
 import com.example.streamingservice.rtmp.model.context.StreamContext;
+import com.example.streamingservice.rtmp.model.context.SubscriberPlacement;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
 import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
 
 @Configuration
 @NoArgsConstructor
 public class HandlerConfig {
 
+    // POOLED copies each message once into an exact-size buffer, COMPOSITE slices the read buffers (see ChunkDecoder)
+    @Value("${rtmp.decoder.reassembly-mode:POOLED}")
+    private ChunkDecoder.ReassemblyMode reassemblyMode;
+
+    // Node-wide ceiling for all GOP caches together, 512MB by default
+    @Value("${rtmp.gop.memory-budget:536870912}")
+    private long gopMemoryBudget;
+
+    @Value("${rtmp.gop.max-bytes-per-stream:67108864}")
+    private long maxGopBytesPerStream;
+
+    @Value("${rtmp.gop.max-gops-per-stream:1}")
+    private int maxGopsPerStream;
+
+    @Value("${rtmp.subscriber.delivery-policy:DROP_UNTIL_KEYFRAME}")
+    private DeliveryPolicy deliveryPolicy;
+
+    // Consecutive dropped frames before a slow subscriber is disconnected, 0 keeps it connected
+    @Value("${rtmp.subscriber.disconnect-threshold:0}")
+    private int disconnectThreshold;
+
+    // PUBLISHER_LOOP moves RTMP viewers onto the event loop of the stream's publisher
+    @Value("${rtmp.subscriber.placement:ACCEPTING_LOOP}")
+    private SubscriberPlacement subscriberPlacement;
+
+    // Handshakes in flight per node, connections above it are refused
+    @Value("${rtmp.handshake.max-in-flight:512}")
+    private int maxHandshakesInFlight;
+
+    @Value("${rtmp.handshake.timeout-ms:5000}")
+    private long handshakeTimeoutMillis;
+
+    // Source-quality HLS remuxed in process instead of by ffmpeg
+    @Value("${rtmp.hls.enabled:false}")
+    private boolean hlsEnabled;
+
+    @Value("${stream.directory:/home/streams}")
+    private String hlsDirectory;
+
+    @Value("${rtmp.hls.variant:src}")
+    private String hlsVariant;
+
+    @Value("${rtmp.hls.target-duration-ms:2000}")
+    private long hlsTargetDurationMillis;
+
+    @Value("${rtmp.hls.playlist-size:6}")
+    private int hlsPlaylistSize;
+
+    // Partial segment duration for LL-HLS, 0 keeps plain HLS
+    @Value("${rtmp.hls.part-target-ms:0}")
+    private long hlsPartTargetMillis;
+
+    // DVR: every broadcast is appended to a memory-mapped FLV file with a keyframe index
+    @Value("${rtmp.record.enabled:false}")
+    private boolean recordEnabled;
+
+    @Value("${rtmp.record.directory:/home/records}")
+    private String recordDirectory;
+
+    // File size set up front, about an hour at 5 Mbps
+    @Value("${rtmp.record.preallocate-mb:2048}")
+    private long recordPreallocateMegabytes;
+
+    @Value("${rtmp.record.map-region-mb:64}")
+    private int recordMapRegionMegabytes;
+
+    @Value("${auth.server}")
+    private String authAddress;
+
+    @Value("${transcoding.server}")
+    private String transcodingAddress;
+
+    // Connections to the control plane, requests above them wait for a free one
+    @Value("${control-plane.max-connections:64}")
+    private int controlPlaneMaxConnections;
+
+    @Value("${control-plane.pending-acquire-max:1024}")
+    private int controlPlanePendingAcquireMax;
+
+    @Value("${control-plane.pending-acquire-timeout-ms:5000}")
+    private long controlPlanePendingAcquireTimeoutMillis;
+
+    @Value("${control-plane.max-idle-ms:30000}")
+    private long controlPlaneMaxIdleMillis;
+
+    @Value("${control-plane.connect-timeout-ms:2000}")
+    private int controlPlaneConnectTimeoutMillis;
+
+    @Value("${control-plane.response-timeout-ms:5000}")
+    private long controlPlaneResponseTimeoutMillis;
+
+    // How long a valid stream key is trusted without asking ContentService again
+    @Value("${control-plane.stream-key-ttl-ms:30000}")
+    private long streamKeyTtlMillis;
+
+    // On/off air states are coalesced and sent in batches on this interval
+    @Value("${control-plane.state-flush-ms:500}")
+    private long stateFlushMillis;
+
+    @Value("${control-plane.state-batch-size:200}")
+    private int stateBatchSize;
+
+    // Key checks and broadcast states over one RSocket connection to ContentService, HTTP stays as the fallback
+    @Value("${control-plane.rsocket.enabled:true}")
+    private boolean controlChannelEnabled;
+
+    // Empty uses the host of auth.server
+    @Value("${control-plane.rsocket.host:}")
+    private String controlChannelHost;
+
+    @Value("${control-plane.rsocket.port:6565}")
+    private int controlChannelPort;
+
+    @Value("${control-plane.rsocket.resume-session-ms:60000}")
+    private long controlChannelResumeSessionMillis;
+
+    @Value("${control-plane.node-id:streaming}")
+    private String nodeId;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RSocketRequester.Builder rSocketRequesterBuilder;
+
+    @Autowired
+    private RSocketStrategies rSocketStrategies;
+
     @Bean
     public WebClient getWebClient() {
-        return WebClient.create();
+        ConnectionProvider provider = ConnectionProvider.builder("control-plane")
+                .maxConnections(controlPlaneMaxConnections)
+                .pendingAcquireMaxCount(controlPlanePendingAcquireMax)
+                .pendingAcquireTimeout(Duration.ofMillis(controlPlanePendingAcquireTimeoutMillis))
+                .maxIdleTime(Duration.ofMillis(controlPlaneMaxIdleMillis))
+                .evictInBackground(Duration.ofMillis(controlPlaneMaxIdleMillis))
+                .build();
+        HttpClient httpClient = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, controlPlaneConnectTimeoutMillis)
+                .responseTimeout(Duration.ofMillis(controlPlaneResponseTimeoutMillis))
+                .keepAlive(true);
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+    @Bean
+    public ControlPlaneClient controlPlaneClient() {
+        ControlChannel controlChannel = null;
+        if (controlChannelEnabled) {
+            String host = controlChannelHost.isEmpty() ? URI.create(authAddress).getHost() : controlChannelHost;
+            controlChannel = new ControlChannel(rSocketRequesterBuilder, rSocketStrategies, host, controlChannelPort, nodeId,
+                    Duration.ofMillis(controlChannelResumeSessionMillis), Duration.ofMillis(controlPlaneResponseTimeoutMillis),
+                    new ControlCommandHandler(streamContext()));
+        }
+        return new ControlPlaneClient(getWebClient(), controlChannel, authAddress, transcodingAddress,
+                Duration.ofMillis(streamKeyTtlMillis), Duration.ofMillis(stateFlushMillis), stateBatchSize);
+    }
+
+    @Bean
+    public RtmpMetrics rtmpMetrics() {
+        return new RtmpMetrics(meterRegistry);
     }
 
     @Bean
     public StreamContext streamContext() {
-        return new StreamContext();
+        StreamContext context = new StreamContext(new GopCacheBudget(gopMemoryBudget), maxGopBytesPerStream, maxGopsPerStream);
+        context.setDeliveryPolicy(deliveryPolicy, disconnectThreshold);
+        context.setSubscriberPlacement(subscriberPlacement);
+        context.setMetrics(rtmpMetrics());
+        return context;
+    }
+
+    @Bean
+    public HlsPackagerFactory hlsPackagerFactory() {
+        return new HlsPackagerFactory(hlsEnabled, Path.of(hlsDirectory), hlsVariant, hlsTargetDurationMillis, hlsPlaylistSize,
+                hlsPartTargetMillis);
+    }
+
+    @Bean
+    public FlvRecorderFactory flvRecorderFactory() {
+        return new FlvRecorderFactory(recordEnabled, Path.of(recordDirectory), recordPreallocateMegabytes * 1024 * 1024,
+                recordMapRegionMegabytes * 1024 * 1024);
     }
 
     @Bean
     @Scope(value = "prototype")
     public ChunkDecoder chunkDecoder() {
-        return new ChunkDecoder();
+        return new ChunkDecoder(reassemblyMode, rtmpMetrics());
     }
 
     @Bean
@@ -35,10 +233,17 @@ public class HandlerConfig {
         return new ChunkEncoder();
     }
 
+    @Bean
+    public HandshakeLimiter handshakeLimiter() {
+        HandshakeLimiter limiter = new HandshakeLimiter(maxHandshakesInFlight, handshakeTimeoutMillis);
+        rtmpMetrics().bindHandshakeLimiter(limiter);
+        return limiter;
+    }
+
     @Bean
     @Scope(value = "prototype")
     public HandshakeHandler handshakeHandler() {
-        return new HandshakeHandler();
+        return new HandshakeHandler(handshakeLimiter());
     }
 
     @Bean
@@ -50,7 +255,12 @@ public class HandlerConfig {
     @Bean
     @Scope(value = "prototype")
     public RtmpMessageHandler rtmpMessageHandler() {
-        return new RtmpMessageHandler(streamContext());
+        return new RtmpMessageHandler(streamContext(), rtmpMetrics());
+    }
+
+    @Bean
+    public FlvServer flvServer() {
+        return new FlvServer(streamContext(), flvRecorderFactory());
     }
 
     // Injection of prototypes to singleton
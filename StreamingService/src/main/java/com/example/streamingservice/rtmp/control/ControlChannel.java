@@ -0,0 +1,95 @@
+package com.example.streamingservice.rtmp.control;
+
+import com.example.streamingservice.rtmp.entity.BroadcastState;
+import com.example.streamingservice.rtmp.entity.StreamCheck;
+import io.rsocket.RSocket;
+import io.rsocket.core.Resume;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+
+/*
+One multiplexed RSocket connection to ContentService, shared by every publish on the node.
+Key checks are request-response and broadcast states fire-and-forget, ContentService pushes commands
+back over the same connection. Resumption carries the session over short network blips,
+after a longer outage the connection is set up again with backoff.
+ */
+@Slf4j
+public class ControlChannel implements AutoCloseable {
+
+    private static final Duration MAX_RECONNECT_BACKOFF = Duration.ofSeconds(10);
+
+    private final RSocketRequester requester;
+    private final Duration timeout;
+    private final Disposable connection;
+    private volatile boolean connected;
+
+    public ControlChannel(RSocketRequester.Builder builder, RSocketStrategies strategies, String host, int port,
+                          String nodeId, Duration resumeSession, Duration timeout, Object commandHandler) {
+        this.timeout = timeout;
+        this.requester = builder
+                .setupRoute("streaming")
+                .setupData(nodeId)
+                .rsocketStrategies(strategies)
+                .dataMimeType(MimeTypeUtils.APPLICATION_JSON)
+                .rsocketConnector(connector -> connector
+                        .acceptor(RSocketMessageHandler.responder(strategies, commandHandler))
+                        .resume(new Resume()
+                                .sessionDuration(resumeSession)
+                                .retry(Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(500)).maxBackoff(MAX_RECONNECT_BACKOFF)))
+                        .reconnect(Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(500)).maxBackoff(MAX_RECONNECT_BACKOFF)))
+                .tcp(host, port);
+        // Connected up front and again whenever the session ends, commands can only arrive on a live connection
+        this.connection = requester.rsocketClient()
+                .source()
+                .doOnNext(rsocket -> {
+                    connected = true;
+                    log.info("ContentService 제어 채널이 {}:{} 에 연결되었습니다.", host, port);
+                })
+                .flatMap(RSocket::onClose)
+                .doFinally(signal -> connected = false)
+                .onErrorResume(error -> {
+                    log.info("ContentService 제어 채널 에러 : {}", error.getMessage());
+                    return Mono.empty();
+                })
+                .repeatWhen(closed -> closed.delayElements(Duration.ofMillis(500)))
+                .subscribe();
+    }
+
+    /*
+    Requests made while it is down would wait for the reconnect, callers go elsewhere instead
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public Mono<Boolean> checkStreamKey(String streamName, String streamKey) {
+        return requester
+                .route("streams.check")
+                .data(new StreamCheck(streamName, streamKey))
+                .retrieveMono(Boolean.class)
+                .timeout(timeout);
+    }
+
+    public Mono<Void> sendStates(List<BroadcastState> states) {
+        return requester
+                .route("streams.states")
+                .data(states)
+                .send()
+                .timeout(timeout);
+    }
+
+    @Override
+    public void close() {
+        connection.dispose();
+        requester.dispose();
+    }
+}
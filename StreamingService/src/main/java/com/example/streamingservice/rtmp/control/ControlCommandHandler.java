@@ -0,0 +1,43 @@
+package com.example.streamingservice.rtmp.control;
+
+import com.example.streamingservice.rtmp.model.context.Stream;
+import com.example.streamingservice.rtmp.model.context.StreamContext;
+import com.example.streamingservice.rtmp.model.util.MessageProvider;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import reactor.core.publisher.Mono;
+
+/*
+Commands pushed by ContentService over the control channel
+ */
+@Slf4j
+public class ControlCommandHandler {
+
+    private final StreamContext context;
+
+    public ControlCommandHandler(StreamContext context) {
+        this.context = context;
+    }
+
+    /*
+    Closing the publisher tears its streams down through RtmpMessageHandler like any other unpublish.
+    Renditions of the streamer go with the main stream.
+     */
+    @MessageMapping("streams.kill")
+    public Mono<Void> kill(String streamer) {
+        for (Stream stream : context.context.values()) {
+            Channel publisher = stream.getPublisher();
+            if (publisher == null || !streamer.equals(stream.getOwner())) {
+                continue;
+            }
+            log.info("ContentService 요청으로 스트림 {} 의 방송을 종료합니다.", stream.getStreamName());
+            publisher.writeAndFlush(MessageProvider.withStreamId(
+                            MessageProvider.onStatus("status", "NetStream.Unpublish.Success", "Stop publishing"),
+                            stream.getPublisherStreamId()))
+                    .addListener(ChannelFutureListener.CLOSE);
+        }
+        return Mono.empty();
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.streamingservice.rtmp.control;
+
+import com.example.streamingservice.rtmp.entity.BroadcastState;
+import com.example.streamingservice.rtmp.entity.StreamKey;
+import com.example.streamingservice.rtmp.hls.HlsVariant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/*
+Calls from the streaming server to ContentService and the transcoding server.
+Valid stream keys are cached for a short TTL and concurrent checks of the same key share one request,
+so a wave of publishers reconnecting after an outage costs one check per stream.
+On/off air states are coalesced per stream (the last one wins) and sent in batches on a fixed interval.
+With a control channel both go over the node's RSocket connection, HTTP is the fallback while it is down.
+Retries back off with jitter instead of firing in lockstep.
+ */
+@Slf4j
+public class ControlPlaneClient implements AutoCloseable {
+
+    private record CachedKey(String streamKey, long expiresAt) {
+    }
+
+    private final WebClient webClient;
+    // Null keeps everything on HTTP
+    private final ControlChannel controlChannel;
+    private final String authAddress;
+    private final String transcodingAddress;
+    private final long keyTtlNanos;
+    private final int maxBatchSize;
+
+    private final Map<String, CachedKey> validKeys = new ConcurrentHashMap<>();
+    private final Map<String, Mono<Boolean>> checksInFlight = new ConcurrentHashMap<>();
+    // Last state of every stream that was not sent yet
+    private final Map<String, Boolean> pendingStates = new ConcurrentHashMap<>();
+    private final Disposable flusher;
+
+    public ControlPlaneClient(WebClient webClient, String authAddress, String transcodingAddress,
+                              Duration keyTtl, Duration flushInterval, int maxBatchSize) {
+        this(webClient, null, authAddress, transcodingAddress, keyTtl, flushInterval, maxBatchSize);
+    }
+
+    public ControlPlaneClient(WebClient webClient, ControlChannel controlChannel, String authAddress, String transcodingAddress,
+                              Duration keyTtl, Duration flushInterval, int maxBatchSize) {
+        this.webClient = webClient;
+        this.controlChannel = controlChannel;
+        this.authAddress = authAddress;
+        this.transcodingAddress = transcodingAddress;
+        this.keyTtlNanos = keyTtl.toNanos();
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+        // One batch in flight at a time, ticks during a slow request are dropped
+        this.flusher = Flux.interval(flushInterval)
+                .onBackpressureDrop()
+                .concatMap(tick -> flush(), 1)
+                .subscribe();
+    }
+
+    /*
+    Never errors, an unreachable ContentService counts as an invalid key like before
+     */
+    public Mono<Boolean> checkStreamKey(String streamName, String streamKey) {
+        CachedKey cached = validKeys.get(streamName);
+        if (cached != null && Objects.equals(cached.streamKey(), streamKey) && cached.expiresAt() - System.nanoTime() > 0) {
+            return Mono.just(true);
+        }
+        String flight = streamName + "/" + streamKey;
+        return checksInFlight.computeIfAbsent(flight, key -> overChannel(
+                        channel -> channel.checkStreamKey(streamName, streamKey),
+                        webClient
+                                .post()
+                                .uri(authAddress + "/broadcasts/" + streamName + "/check")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .bodyValue(new StreamKey(streamKey))
+                                .retrieve()
+                                .bodyToMono(Boolean.class))
+                .retryWhen(backoff(Duration.ofMillis(250)))
+                .doOnError(error -> log.info(error.getMessage()))
+                .onErrorReturn(Boolean.FALSE)
+                .doOnNext(valid -> {
+                    if (valid) {
+                        validKeys.put(streamName, new CachedKey(streamKey, System.nanoTime() + keyTtlNanos));
+                    } else {
+                        validKeys.remove(streamName);
+                    }
+                })
+                .doFinally(signal -> checksInFlight.remove(key))
+                .cache());
+    }
+
+    /*
+    Pid of the ffmpeg process started for the stream
+     */
+    public Mono<Long> startTranscoding(String streamName) {
+        return startTranscoding(streamName, null);
+    }
+
+    /*
+    With a passthrough variant ffmpeg skips the source rendition, which this node packages itself
+     */
+    public Mono<Long> startTranscoding(String streamName, HlsVariant passthrough) {
+        UriComponentsBuilder uri = UriComponentsBuilder.fromHttpUrl(transcodingAddress).path("/ffmpeg/{owner}");
+        if (passthrough != null) {
+            uri.queryParam("passthrough", passthrough.name())
+                    .queryParam("bandwidth", passthrough.bandwidth())
+                    .queryParam("resolution", passthrough.resolution());
+        }
+        return webClient
+                .get()
+                .uri(uri.buildAndExpand(streamName).encode().toUri())
+                .retrieve()
+                .bodyToMono(Long.class)
+                .retryWhen(backoff(Duration.ofMillis(500)));
+    }
+
+    public void onAir(String streamName) {
+        pendingStates.put(streamName, Boolean.TRUE);
+    }
+
+    public void offAir(String streamName) {
+        pendingStates.put(streamName, Boolean.FALSE);
+    }
+
+    /*
+    Sends up to one batch of pending states. States of a failed batch go back unless a newer one arrived meanwhile.
+     */
+    Mono<Void> flush() {
+        if (pendingStates.isEmpty()) {
+            return Mono.empty();
+        }
+        List<BroadcastState> batch = new ArrayList<>(Math.min(pendingStates.size(), maxBatchSize));
+        for (Map.Entry<String, Boolean> entry : pendingStates.entrySet()) {
+            if (batch.size() == maxBatchSize) {
+                break;
+            }
+            if (pendingStates.remove(entry.getKey(), entry.getValue())) {
+                batch.add(new BroadcastState(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (batch.isEmpty()) {
+            return Mono.empty();
+        }
+        return overChannel(
+                        channel -> channel.sendStates(batch),
+                        webClient
+                                .post()
+                                .uri(authAddress + "/broadcasts/states")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .bodyValue(batch)
+                                .retrieve()
+                                .bodyToMono(Boolean.class)
+                                .then())
+                .doOnSuccess(done -> log.info("방송 상태 {}건을 전송했습니다.", batch.size()))
+                .doOnError(error -> {
+                    log.info("ContentService 서버와 통신 에러 발생 : {}", error.getMessage());
+                    batch.forEach(state -> pendingStates.putIfAbsent(state.getStreamer(), state.isOnAir()));
+                })
+                .onErrorComplete()
+                .then();
+    }
+
+    private <T> Mono<T> overChannel(Function<ControlChannel, Mono<T>> request, Mono<T> fallback) {
+        if (controlChannel == null || !controlChannel.isConnected()) {
+            return fallback;
+        }
+        return request.apply(controlChannel)
+                .onErrorResume(error -> {
+                    log.info("제어 채널 요청 실패, HTTP로 전송합니다 : {}", error.getMessage());
+                    return fallback;
+                });
+    }
+
+    private static RetryBackoffSpec backoff(Duration first) {
+        return Retry.backoff(3, first).jitter(0.5);
+    }
+
+    /*
+    Last chance for the states of streams that ended during shutdown
+     */
+    @Override
+    public void close() {
+        flusher.dispose();
+        flush().block();
+        if (controlChannel != null) {
+            controlChannel.close();
+        }
+    }
+}
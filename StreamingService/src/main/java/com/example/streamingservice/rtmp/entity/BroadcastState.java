@@ -0,0 +1,15 @@
+package com.example.streamingservice.rtmp.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class BroadcastState {
+    String streamer;
+    boolean onAir;
+}
@@ -0,0 +1,169 @@
+package com.example.streamingservice.rtmp.flv;
+
+import com.example.streamingservice.rtmp.model.context.Stream;
+import com.example.streamingservice.rtmp.model.context.StreamContext;
+import com.example.streamingservice.rtmp.model.messages.RtmpConstants;
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import com.example.streamingservice.rtmp.record.FlvRecorderFactory;
+import com.example.streamingservice.rtmp.record.FlvRecording;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http.websocketx.*;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/*
+Serves GET /live/{stream}.flv as a chunked HTTP-FLV response, or as WebSocket-FLV when the request is an upgrade.
+After the FLV header and onMetaData the viewer joins the stream like an RTMP viewer: configs, cached GOP, then live.
+GET /vod/{stream}.flv?start={millis} serves the latest recording from the keyframe at or before start,
+as the recording's header part plus the rest of the file, both sent with zero-copy file regions.
+ */
+@Slf4j
+public class FlvEgressHandler extends ChannelInboundHandlerAdapter {
+
+    private static final String PATH_PREFIX = "/live/";
+    private static final String VOD_PREFIX = "/vod/";
+    private static final String PATH_SUFFIX = ".flv";
+
+    private final StreamContext context;
+    // Null when recordings are not served
+    private final FlvRecorderFactory recorderFactory;
+
+    public FlvEgressHandler(StreamContext context) {
+        this(context, null);
+    }
+
+    public FlvEgressHandler(StreamContext context, FlvRecorderFactory recorderFactory) {
+        this.context = context;
+        this.recorderFactory = recorderFactory;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        try {
+            if (msg instanceof FullHttpRequest request) {
+                handleRequest(ctx, request);
+            } else if (msg instanceof CloseWebSocketFrame) {
+                ctx.close();
+            } else if (msg instanceof PingWebSocketFrame ping) {
+                ctx.writeAndFlush(new PongWebSocketFrame(ping.content().retain()));
+            }
+            // Anything else a viewer sends is ignored
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private void handleRequest(ChannelHandlerContext ctx, FullHttpRequest request) {
+        QueryStringDecoder query = new QueryStringDecoder(request.uri());
+        String path = query.path();
+        if (request.method() == HttpMethod.GET && path.startsWith(VOD_PREFIX) && path.endsWith(PATH_SUFFIX)) {
+            serveRecording(ctx, path.substring(VOD_PREFIX.length(), path.length() - PATH_SUFFIX.length()), query);
+            return;
+        }
+        if (request.method() != HttpMethod.GET || !path.startsWith(PATH_PREFIX) || !path.endsWith(PATH_SUFFIX)) {
+            sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        String streamName = path.substring(PATH_PREFIX.length(), path.length() - PATH_SUFFIX.length());
+        Stream stream = context.getStream(streamName);
+        if (stream == null) {
+            log.info("FLV viewer asked for missing stream {}", streamName);
+            sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+
+        if (request.headers().containsValue(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET, true)) {
+            String location = "ws://" + request.headers().get(HttpHeaderNames.HOST) + path;
+            WebSocketServerHandshaker handshaker = new WebSocketServerHandshakerFactory(location, null, false)
+                    .newHandshaker(request);
+            if (handshaker == null) {
+                WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel());
+                return;
+            }
+            handshaker.handshake(ctx.channel(), request).addListener(future -> {
+                if (future.isSuccess()) {
+                    join(ctx, stream, BinaryWebSocketFrame::new,
+                            () -> new CloseWebSocketFrame(WebSocketCloseStatus.NORMAL_CLOSURE));
+                } else {
+                    ctx.close();
+                }
+            });
+            return;
+        }
+
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers()
+                .set(HttpHeaderNames.CONTENT_TYPE, "video/x-flv")
+                .set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED)
+                .set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE)
+                .set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        ctx.write(response);
+        join(ctx, stream, DefaultHttpContent::new, () -> LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    private void join(ChannelHandlerContext ctx, Stream stream, Function<ByteBuf, Object> framing, Supplier<Object> ending) {
+        log.info("FLV viewer {} joined stream {}", ctx.channel().remoteAddress(), stream.getStreamName());
+        ctx.write(framing.apply(FlvTags.fileHeader()));
+        RtmpMessage metadata = stream.metadataMessage();
+        try {
+            ctx.write(framing.apply(FlvTags.tag(ctx.alloc(), RtmpConstants.RTMP_MSG_DATA_TYPE_AMF0, 0, metadata.payload())));
+        } finally {
+            metadata.release();
+        }
+        // Flushes the header together with the configs and the GOP
+        stream.addSubscriber(new FlvSubscriber(ctx.channel(), stream.getDeliveryPolicy(),
+                stream.getDisconnectThreshold(), stream.getMetrics(), framing, ending));
+    }
+
+    private void serveRecording(ChannelHandlerContext ctx, String streamName, QueryStringDecoder query) {
+        FlvRecording recording = recorderFactory == null ? null : recorderFactory.recording(streamName);
+        if (recording == null) {
+            sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        long start;
+        try {
+            List<String> values = query.parameters().get("start");
+            start = values == null || values.isEmpty() ? 0 : Long.parseLong(values.get(0));
+        } catch (NumberFormatException e) {
+            sendStatus(ctx, HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+        // A live recording is served up to what was written so far
+        long length = recording.length();
+        long headerLength = Math.min(recording.headerLength(), length);
+        long offset = Math.min(Math.max(start > 0 ? recording.seek(start) : headerLength, headerLength), length);
+
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers()
+                .set(HttpHeaderNames.CONTENT_TYPE, "video/x-flv")
+                .set(HttpHeaderNames.CONTENT_LENGTH, headerLength + length - offset)
+                .set(HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        ctx.write(response);
+        File file = recording.getFile().toFile();
+        if (headerLength > 0) {
+            ctx.write(new DefaultFileRegion(file, 0, headerLength));
+        }
+        if (length > offset) {
+            ctx.write(new DefaultFileRegion(file, offset, length - offset));
+        }
+        log.info("Serving recording {} of stream {} from offset {}", file, streamName, offset);
+        ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private static void sendStatus(ChannelHandlerContext ctx, HttpResponseStatus status) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.streamingservice.rtmp.flv;
+
+import com.example.streamingservice.rtmp.model.context.StreamContext;
+import com.example.streamingservice.rtmp.record.FlvRecorderFactory;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import reactor.netty.tcp.TcpServer;
+
+/*
+HTTP-FLV and WebSocket-FLV egress, for browsers (flv.js / mpegts.js) that want sub-second latency without HLS.
+Recordings are served from the same port.
+Kept on its own port with a plain Netty HTTP pipeline so viewers are written to like RTMP viewers.
+ */
+@Slf4j
+// Bound before RtmpServer, whose runner blocks until shutdown
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class FlvServer implements CommandLineRunner {
+
+    // Requests are a single GET or an upgrade, nothing larger is expected
+    private static final int MAX_REQUEST_SIZE = 8192;
+
+    private final StreamContext context;
+    private final FlvRecorderFactory recorderFactory;
+
+    @Value("${flv.server.enabled:true}")
+    private boolean enabled;
+
+    @Value("${flv.server.port:8088}")
+    private int port;
+
+    // Same watermarks as RTMP viewers, they drive the delivery policy for slow subscribers
+    @Value("${rtmp.server.write-buffer-low-watermark:1048576}")
+    private int writeBufferLowWatermark;
+
+    @Value("${rtmp.server.write-buffer-high-watermark:4194304}")
+    private int writeBufferHighWatermark;
+
+    public FlvServer(StreamContext context, FlvRecorderFactory recorderFactory) {
+        this.context = context;
+        this.recorderFactory = recorderFactory;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            return;
+        }
+        TcpServer.create()
+                .port(port)
+                .doOnBound(server -> log.info("FLV server listening on port {}", server.port()))
+                .doOnConnection(connection -> connection
+                        .addHandlerLast(new HttpServerCodec())
+                        .addHandlerLast(new HttpObjectAggregator(MAX_REQUEST_SIZE))
+                        .addHandlerLast(new FlvEgressHandler(context, recorderFactory)))
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(writeBufferLowWatermark, writeBufferHighWatermark))
+                .handle((in, out) -> out.neverComplete())
+                .bindNow();
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.streamingservice.rtmp.flv;
+
+import com.example.streamingservice.rtmp.metrics.StreamMetrics;
+import com.example.streamingservice.rtmp.model.context.DeliveryPolicy;
+import com.example.streamingservice.rtmp.model.context.Subscriber;
+import com.example.streamingservice.rtmp.model.messages.EncodedMediaMessage;
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/*
+Viewer of a Stream over HTTP-FLV or WebSocket-FLV. It rides the same fan-out and delivery policy as RTMP viewers,
+live frames are written as views of the tag shared by every FLV viewer, framed per transport
+(a chunked HttpContent or a binary WebSocket frame).
+The connection serves this one stream, when it ends the transport's own end marker is written and the connection closed.
+ */
+public class FlvSubscriber extends Subscriber {
+
+    private final Function<ByteBuf, Object> framing;
+    // The last HTTP chunk or a WebSocket close frame
+    private final Supplier<Object> ending;
+
+    public FlvSubscriber(Channel channel, DeliveryPolicy policy, int disconnectThreshold, StreamMetrics metrics,
+                         Function<ByteBuf, Object> framing, Supplier<Object> ending) {
+        super(channel, policy, disconnectThreshold, metrics);
+        this.framing = framing;
+        this.ending = ending;
+    }
+
+    @Override
+    public void endOfStream() {
+        getChannel().writeAndFlush(ending.get()).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    @Override
+    public void writeCached(RtmpMediaMessage message) {
+        getChannel().write(framing.apply(FlvTags.tag(getChannel().alloc(), message.header().getType(),
+                message.header().getTimestamp(), message.payload())));
+    }
+
+    @Override
+    protected void write(EncodedMediaMessage encoded) {
+        ByteBuf tag = encoded.retainedFlvTag();
+        getMetrics().getEgressBytes().increment(tag.readableBytes());
+        getChannel().writeAndFlush(framing.apply(tag));
+    }
+}
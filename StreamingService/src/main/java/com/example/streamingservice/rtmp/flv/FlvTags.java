@@ -0,0 +1,67 @@
+package com.example.streamingservice.rtmp.flv;
+
+import com.example.streamingservice.rtmp.model.util.MessageProvider;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+
+/*
+FLV framing of RTMP media. RTMP message type ids double as FLV tag types (8 audio, 9 video, 18 script data),
+so a tag is the RTMP payload between an 11 byte tag header and the 4 byte previous tag size.
+ */
+public final class FlvTags {
+
+    public static final int TAG_HEADER_SIZE = 11;
+    // Tag header in front of the payload plus the previous tag size behind it
+    public static final int TAG_OVERHEAD = TAG_HEADER_SIZE + 4;
+
+    // "FLV", version 1, audio and video present, header size 9, then PreviousTagSize0
+    private static final ByteBuf FILE_HEADER = MessageProvider.template(Unpooled.wrappedBuffer(new byte[]{
+            'F', 'L', 'V', 1, 0x05, 0, 0, 0, 9, 0, 0, 0, 0}));
+
+    private FlvTags() {
+    }
+
+    public static ByteBuf fileHeader() {
+        return FILE_HEADER.duplicate();
+    }
+
+    /*
+    The payload is not copied, the tag holds its own reference to a view of it
+     */
+    public static ByteBuf tag(ByteBufAllocator allocator, int type, int timestamp, ByteBuf payload) {
+        int size = payload.readableBytes();
+        ByteBuf header = allocator.buffer(TAG_HEADER_SIZE);
+        header.writeByte(type);
+        header.writeMedium(size);
+        header.writeMedium(timestamp & 0xFFFFFF);
+        header.writeByte(timestamp >>> 24); // extended timestamp
+        header.writeMedium(0); // stream id
+        ByteBuf previousTagSize = allocator.buffer(4).writeInt(TAG_HEADER_SIZE + size);
+        return allocator.compositeBuffer(3).addComponents(true, header, payload.retainedDuplicate(), previousTagSize);
+    }
+
+    /*
+    Copies the tag into the buffer (a file mapping), which has room for the payload plus TAG_OVERHEAD bytes
+     */
+    public static void writeTag(ByteBuffer target, int type, int timestamp, ByteBuf payload) {
+        int size = payload.readableBytes();
+        target.put((byte) type);
+        putMedium(target, size);
+        putMedium(target, timestamp & 0xFFFFFF);
+        target.put((byte) (timestamp >>> 24)); // extended timestamp
+        putMedium(target, 0); // stream id
+        int limit = target.limit();
+        target.limit(target.position() + size);
+        payload.getBytes(payload.readerIndex(), target);
+        target.limit(limit);
+        target.putInt(TAG_HEADER_SIZE + size);
+    }
+
+    private static void putMedium(ByteBuffer target, int value) {
+        target.put((byte) (value >>> 16));
+        target.putShort((short) value);
+    }
+}
@@ -1,22 +1,24 @@
 package com.example.streamingservice.rtmp.handlers;
 
+import com.example.streamingservice.rtmp.metrics.RtmpMetrics;
 import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
 import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
 import com.example.streamingservice.rtmp.model.util.MessageProvider;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
 
 @Slf4j
-public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
+public class ChunkDecoder extends ByteToMessageDecoder {
 
     private int clientChunkSize = RTMP_DEFAULT_CHUNK_SIZE;
     private int ackSize;
@@ -25,54 +27,91 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
 
     private final Map<Integer, RtmpHeader> completeHeaders = new HashMap<>();
     private final Map<Integer, ByteBuf> payloadParts = new HashMap<>(4);
+    // When the first chunk of the message in progress on each cid arrived
+    private final Map<Integer, Long> messageStarts = new HashMap<>(4);
 
+    private final ReassemblyMode reassemblyMode;
+    private final RtmpMetrics metrics;
+
+    private DecodeState state = DecodeState.READ_HEADER;
     private RtmpHeader currentHeader;
     private ByteBuf currentPayload;
 
     public enum DecodeState {
-        READ_HEADER, PROCESS_HEADER, PROCESS_PAYLOAD
+        READ_HEADER, PROCESS_PAYLOAD
     }
 
-    @Override
-    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> out) throws Exception {
-        //log.info("In decode");
-        DecodeState state = state();
-        if (state == null) {
-            state = DecodeState.READ_HEADER;
+    /*
+    POOLED    : message is copied once, straight from the inbound buffer into an exact-size pooled buffer
+    COMPOSITE : message is built from retained slices of the inbound buffers. The cumulation is a composite too,
+                since the default merge cumulator copies whatever a retained slice leaves behind. Every message
+                pins the whole read buffers it was sliced from, so kept messages cost more than their length.
+     */
+    public enum ReassemblyMode {
+        COMPOSITE, POOLED
+    }
+
+    public ChunkDecoder() {
+        this(ReassemblyMode.POOLED);
+    }
+
+    public ChunkDecoder(ReassemblyMode reassemblyMode) {
+        this(reassemblyMode, RtmpMetrics.noop());
+    }
+
+    public ChunkDecoder(ReassemblyMode reassemblyMode, RtmpMetrics metrics) {
+        this.reassemblyMode = reassemblyMode;
+        this.metrics = metrics;
+        if (reassemblyMode == ReassemblyMode.COMPOSITE) {
+            setCumulator(COMPOSITE_CUMULATOR);
         }
+    }
 
+    @Override
+    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> out) {
         switch (state) {
             case READ_HEADER -> {
+                // Wait until the whole chunk header is available instead of replaying the read
+                int headerLength = peekHeaderLength(byteBuf);
+                if (headerLength < 0 || byteBuf.readableBytes() < headerLength) {
+                    return;
+                }
                 currentHeader = readHeader(byteBuf);
-                restoreHeader(currentHeader);
-                checkpoint(DecodeState.PROCESS_HEADER);
-            }
-            case PROCESS_HEADER -> {
-                int messageLength = currentHeader.getMessageLength();
+                boolean continuation = currentHeader.getFmt() == RTMP_CHUNK_TYPE_3
+                        && payloadParts.containsKey(currentHeader.getCid());
+                restoreHeader(currentHeader, continuation);
 
+                int cid = currentHeader.getCid();
                 if (currentHeader.getFmt() != RTMP_CHUNK_TYPE_3) {
-                    ByteBuf buf = Unpooled.buffer(messageLength, messageLength);
-                    payloadParts.put(currentHeader.getCid(), buf);
-                    completeHeaders.put(currentHeader.getCid(), currentHeader);
+                    releasePayloadPart(cid);
+                }
+                if (!continuation) {
+                    completeHeaders.put(cid, currentHeader);
+                }
+                // Also the rare case when format 3 encoding is used and body completely read
+                currentPayload = payloadParts.get(cid);
+                if (currentPayload == null) {
+                    currentPayload = allocatePayload(channelHandlerContext, currentHeader.getMessageLength());
+                    payloadParts.put(cid, currentPayload);
+                    messageStarts.put(cid, System.nanoTime());
                 }
-                // Rare case when format 3 encoding is used and body completely read
-                payloadParts.putIfAbsent(currentHeader.getCid(), Unpooled.buffer(messageLength, messageLength));
-
-                currentPayload = payloadParts.get(currentHeader.getCid());
 
-                checkpoint(DecodeState.PROCESS_PAYLOAD);
+                state = DecodeState.PROCESS_PAYLOAD;
             }
             case PROCESS_PAYLOAD -> {
-                byte[] bytes = new byte[Math.min(clientChunkSize, currentPayload.writableBytes())];
-                byteBuf.readBytes(bytes);
-                currentPayload.writeBytes(bytes);
-                checkpoint(DecodeState.READ_HEADER);
+                int chunkLength = Math.min(clientChunkSize, currentHeader.getMessageLength() - currentPayload.readableBytes());
+                if (byteBuf.readableBytes() < chunkLength) {
+                    return;
+                }
+                appendChunk(byteBuf, chunkLength);
+                state = DecodeState.READ_HEADER;
 
-                if (currentPayload.isWritable()) {
+                if (currentPayload.readableBytes() < currentHeader.getMessageLength()) {
                     return;
                 }
 
                 payloadParts.remove(currentHeader.getCid());
+                Long started = messageStarts.remove(currentHeader.getCid());
 
                 RtmpMessage message = new RtmpMessage(currentHeader, currentPayload);
 
@@ -85,10 +124,90 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
                     case RTMP_MSG_CONTROL_TYPE_ABORT -> handleAbort(currentPayload);
                     default -> out.add(message);
                 }
+                currentPayload = null;
+                if (started != null) {
+                    metrics.getDecodeLatency().record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
             }
         }
     }
 
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) {
+        // Messages that never completed still hold slices of the inbound buffers
+        for (ByteBuf part : payloadParts.values()) {
+            part.release();
+        }
+        payloadParts.clear();
+        messageStarts.clear();
+        currentPayload = null;
+    }
+
+    private ByteBuf allocatePayload(ChannelHandlerContext ctx, int messageLength) {
+        if (reassemblyMode == ReassemblyMode.POOLED) {
+            return ctx.alloc().buffer(messageLength, messageLength);
+        }
+        // One component per chunk, so the composite never consolidates (copies) on its own
+        int components = messageLength / clientChunkSize + 1;
+        return ctx.alloc().compositeBuffer(Math.max(components, 2));
+    }
+
+    private void appendChunk(ByteBuf in, int chunkLength) {
+        if (chunkLength == 0) {
+            return;
+        }
+        if (currentPayload instanceof CompositeByteBuf composite) {
+            composite.addComponent(true, in.readRetainedSlice(chunkLength));
+        } else {
+            currentPayload.writeBytes(in, chunkLength);
+        }
+    }
+
+    private void releasePayloadPart(int cid) {
+        ByteBuf previous = payloadParts.remove(cid);
+        if (previous != null) {
+            log.debug("Chunk stream {} started a new message before the previous one completed", cid);
+            previous.release();
+        }
+    }
+
+    /*
+    Returns the number of bytes the next chunk header occupies, or -1 if not enough bytes are buffered to tell
+     */
+    private int peekHeaderLength(ByteBuf buf) {
+        int readable = buf.readableBytes();
+        if (readable < 1) {
+            return -1;
+        }
+        int firstByte = buf.getByte(buf.readerIndex()) & 0xff;
+        int fmt = firstByte >> 6;
+        int basicHeaderLength = switch (firstByte & 0x3f) {
+            case 0 -> 2;
+            case 1 -> 3;
+            default -> 1;
+        };
+
+        int messageHeaderLength = switch (fmt) {
+            case RTMP_CHUNK_TYPE_0 -> 11;
+            case RTMP_CHUNK_TYPE_1 -> 7;
+            case RTMP_CHUNK_TYPE_2 -> 3;
+            default -> 0;
+        };
+
+        int headerLength = basicHeaderLength + messageHeaderLength;
+        if (messageHeaderLength == 0) {
+            return headerLength;
+        }
+        if (readable < basicHeaderLength + 3) {
+            return -1;
+        }
+        // Extended timestamp is present when the 24 bit timestamp field is saturated
+        if (buf.getUnsignedMedium(buf.readerIndex() + basicHeaderLength) == RTMP_MAX_TIMESTAMP) {
+            headerLength += 4;
+        }
+        return headerLength;
+    }
+
     private RtmpHeader readHeader(ByteBuf buf) {
 
         RtmpHeader header = new RtmpHeader();
@@ -102,7 +221,7 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
 
         if (cid == 0) {
             // 2 byte form
-            cid = buf.readByte() & 0xff + 64;
+            cid = (buf.readByte() & 0xff) + 64;
             headerLength++;
         } else if (cid == 1) {
             // 3 byte form
@@ -119,8 +238,8 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
         switch (fmt) {
             case RTMP_CHUNK_TYPE_0 -> {
                 // Read 24 bits
-                int timestamp = buf.readMedium();
-                int messageLength = buf.readMedium();
+                int timestamp = buf.readUnsignedMedium();
+                int messageLength = buf.readUnsignedMedium();
                 short type = (short) (buf.readByte() & 0xff);
                 // This field occupies 4 bytes in the chunk header in little endian format.
                 int messageStreamId = buf.readIntLE();
@@ -132,14 +251,14 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
                     headerLength += 4;
                 }
 
-                header.setTimestamp(timestamp);
+                header.setTimestamp(timestamp == RTMP_MAX_TIMESTAMP ? (int) header.getExtendedTimestamp() : timestamp);
                 header.setMessageLength(messageLength);
                 header.setType(type);
                 header.setStreamId(messageStreamId);
             }
             case RTMP_CHUNK_TYPE_1 -> {
-                int timestampDelta = buf.readMedium();
-                int messageLength = buf.readMedium();
+                int timestampDelta = buf.readUnsignedMedium();
+                int messageLength = buf.readUnsignedMedium();
                 short type = (short) (buf.readByte() & 0xff);
 
                 headerLength += 7;
@@ -150,12 +269,12 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
                     headerLength += 4;
                 }
 
-                header.setTimestampDelta(timestampDelta);
+                header.setTimestampDelta(timestampDelta == RTMP_MAX_TIMESTAMP ? (int) header.getExtendedTimestamp() : timestampDelta);
                 header.setMessageLength(messageLength);
                 header.setType(type);
             }
             case RTMP_CHUNK_TYPE_2 -> {
-                int timestampDelta = buf.readMedium();
+                int timestampDelta = buf.readUnsignedMedium();
                 headerLength += 3;
                 // Presence of extended timestamp
                 if (timestampDelta == RTMP_MAX_TIMESTAMP) {
@@ -163,7 +282,7 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
                     header.setExtendedTimestamp(extendedTimestamp);
                     headerLength += 4;
                 }
-                header.setTimestampDelta(timestampDelta);
+                header.setTimestampDelta(timestampDelta == RTMP_MAX_TIMESTAMP ? (int) header.getExtendedTimestamp() : timestampDelta);
 
             }
             /*
@@ -179,7 +298,12 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
         return header;
     }
 
-    private void restoreHeader(RtmpHeader header) {
+    /*
+    Fills in the fields a compressed header inherits and keeps the timestamp absolute:
+    fmt 1/2 and a fmt 3 chunk starting a new message add their delta to the previous message timestamp,
+    a fmt 3 chunk continuing a message keeps the message timestamp
+    */
+    private void restoreHeader(RtmpHeader header, boolean continuation) {
         int cid = header.getCid();
         RtmpHeader completeHeader = completeHeaders.get(cid);
         if (completeHeader == null) {
@@ -188,20 +312,22 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
         switch (header.getFmt()) {
             case RTMP_CHUNK_TYPE_3 -> {
                 header.setStreamId(completeHeader.getStreamId());
-                header.setTimestamp(completeHeader.getTimestamp());
                 header.setTimestampDelta(completeHeader.getTimestampDelta());
+                header.setTimestamp(continuation
+                        ? completeHeader.getTimestamp()
+                        : completeHeader.getTimestamp() + completeHeader.getTimestampDelta());
                 header.setMessageLength(completeHeader.getMessageLength());
                 header.setType(completeHeader.getType());
             }
             case RTMP_CHUNK_TYPE_2 -> {
                 header.setStreamId(completeHeader.getStreamId());
-                header.setTimestamp(completeHeader.getTimestamp());
+                header.setTimestamp(completeHeader.getTimestamp() + header.getTimestampDelta());
                 header.setMessageLength(completeHeader.getMessageLength());
                 header.setType(completeHeader.getType());
             }
             case RTMP_CHUNK_TYPE_1 -> {
                 header.setStreamId(completeHeader.getStreamId());
-                header.setTimestamp(completeHeader.getTimestamp());
+                header.setTimestamp(completeHeader.getTimestamp() + header.getTimestampDelta());
             }
         }
     }
@@ -214,9 +340,11 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
     */
     private void sendAcknowledgement(ChannelHandlerContext channelHandlerContext, int inSize) {
         bytesReceived += inSize;
+        metrics.getIngestBytes().increment(inSize);
         // handle overflow
         if (bytesReceived > 0x70000000) {
             channelHandlerContext.writeAndFlush(MessageProvider.acknowledgement(bytesReceived));
+            metrics.getAcknowledgementsSent().increment();
             bytesReceived = 0;
             lastResponseSize = 0;
             return;
@@ -225,11 +353,13 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
         if (ackSize > 0 && bytesReceived - lastResponseSize >= ackSize) {
             lastResponseSize = bytesReceived;
             channelHandlerContext.writeAndFlush(MessageProvider.acknowledgement(lastResponseSize));
+            metrics.getAcknowledgementsSent().increment();
         }
     }
 
     private void handleWindowAckSize(ByteBuf payload) {
         ackSize = payload.readInt();
+        metrics.getPeerWindowSize().record(ackSize);
         payload.release();
     }
 
@@ -245,4 +375,4 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
     private void handleAbort(ByteBuf payload) {
         payload.release();
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,12 @@
 package com.example.streamingservice.rtmp.handlers;
 
+import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
 import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 
 import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
@@ -11,119 +14,104 @@ import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
 @Slf4j
 public class ChunkEncoder extends MessageToByteEncoder<RtmpMessage> {
 
-    private final long start = System.currentTimeMillis();
-    private int chunkSize = RTMP_DEFAULT_CHUNK_SIZE;
+    // Outbound chunk stream state of a connection, shared with the fan-out path which bypasses this encoder
+    public static final AttributeKey<OutboundChunkState> OUTBOUND_STATE = AttributeKey.valueOf("rtmpOutboundChunkState");
 
-    private boolean videoFirstMessage = true;
-    private boolean audioFirstMessage = true;
+    private final OutboundChunkState state = new OutboundChunkState();
 
-    @Override
-    protected void encode(ChannelHandlerContext channelHandlerContext, RtmpMessage message, ByteBuf byteBuf) {
-        switch (message.header().getType()) {
-            case RTMP_MSG_CONTROL_TYPE_SET_CHUNK_SIZE -> handleSetChunkSize(message, byteBuf);
-            case RTMP_MSG_USER_CONTROL_TYPE_AUDIO -> handleAudioMessage(message, byteBuf);
-            case RTMP_MSG_USER_CONTROL_TYPE_VIDEO -> handleVideoMessage(message, byteBuf);
-            default -> handleDefault(message, byteBuf);
-        }
+    public static OutboundChunkState outboundState(Channel channel) {
+        OutboundChunkState state = channel.attr(OUTBOUND_STATE).get();
+        // Without an encoder in the pipeline every message starts a fresh fmt 0 header
+        return state == null ? new OutboundChunkState() : state;
     }
 
-    private void handleDefault(RtmpMessage message, ByteBuf buf) {
-        encodeFmt0(message, buf);
-        encodeFmt3(message, buf);
+    public static int outboundChunkSize(Channel channel) {
+        return outboundState(channel).getChunkSize();
     }
 
-    private void handleAudioMessage(RtmpMessage message, ByteBuf buf) {
-        if (audioFirstMessage) {
-            log.info("Audio config is sent");
-            handleDefault(message, buf);
-            audioFirstMessage = false;
-        } else {
-            encodeFmt1(message, buf);
-            encodeFmt3(message, buf);
+    /*
+    Encodes a whole message with the given first chunk header format followed by fmt 3 chunks.
+    timestampField is the absolute timestamp for fmt 0 and the delta for fmt 1 and 2, it is ignored for fmt 3.
+    Continuation chunks repeat the extended timestamp when the first chunk carried one.
+    The payload reader index is left untouched, so one payload can be encoded for many connections.
+     */
+    public static void encodeMessage(RtmpHeader header, ByteBuf payload, int fmt, int timestampField, int streamId,
+                                     int chunkSize, ByteBuf buf) {
+        int cid = header.getCid();
+        boolean extendedTimestamp = fmt != RTMP_CHUNK_TYPE_3 && timestampField >= RTMP_MAX_TIMESTAMP;
+
+        writeFmtAndChunkId(buf, fmt, cid);
+        if (fmt != RTMP_CHUNK_TYPE_3) {
+            buf.writeMedium(extendedTimestamp ? RTMP_MAX_TIMESTAMP : timestampField);
         }
-    }
-
-    private void handleVideoMessage(RtmpMessage message, ByteBuf buf) {
-        if (videoFirstMessage) {
-            log.info("Video config is sent");
-            handleDefault(message, buf);
-            videoFirstMessage = false;
-        } else {
-            encodeFmt1(message, buf);
-            encodeFmt3(message, buf);
+        if (fmt == RTMP_CHUNK_TYPE_0 || fmt == RTMP_CHUNK_TYPE_1) {
+            buf.writeMedium(header.getMessageLength());
+            buf.writeByte(header.getType());
         }
-    }
-
-    private void handleSetChunkSize(RtmpMessage message, ByteBuf buf) {
-        chunkSize = message.payload().copy().readInt();
-        handleDefault(message, buf);
-    }
-
-    private void encodeFmt0(RtmpMessage message, ByteBuf buf) {
-        boolean extendedTimestamp = false;
-
-        int cid = message.header().getCid();
-        byte[] basicHeader = encodeFmtAndChunkId(RTMP_CHUNK_TYPE_0, cid);
-        buf.writeBytes(basicHeader);
-
-        long timestamp = System.currentTimeMillis() - start;
-
-        if (timestamp >= RTMP_MAX_TIMESTAMP) {
-            extendedTimestamp = true;
-            buf.writeMedium(RTMP_MAX_TIMESTAMP);
-        } else {
-            buf.writeMedium((int) timestamp);
+        if (fmt == RTMP_CHUNK_TYPE_0) {
+            buf.writeIntLE(streamId);
         }
-
-        buf.writeMedium(message.header().getMessageLength());
-        buf.writeByte(message.header().getType());
-        buf.writeIntLE(message.header().getStreamId());
-
         if (extendedTimestamp) {
-            buf.writeInt((int) timestamp);
+            buf.writeInt(timestampField);
         }
 
-        int min = Math.min(chunkSize, message.payload().readableBytes());
-        buf.writeBytes(message.payload(), min);
+        int index = payload.readerIndex();
+        int end = payload.writerIndex();
+        while (index < end) {
+            if (index != payload.readerIndex()) {
+                writeFmtAndChunkId(buf, RTMP_CHUNK_TYPE_3, cid);
+                if (extendedTimestamp) {
+                    buf.writeInt(timestampField);
+                }
+            }
+            int min = Math.min(chunkSize, end - index);
+            buf.writeBytes(payload, index, min);
+            index += min;
+        }
     }
 
-    private void encodeFmt1(RtmpMessage message, ByteBuf buf) {
-        int cid = message.header().getCid();
-        byte[] basicHeader = encodeFmtAndChunkId(RTMP_CHUNK_TYPE_1, cid);
-        buf.writeBytes(basicHeader);
-
-        buf.writeMedium(message.header().getTimestampDelta());
-        buf.writeMedium(message.header().getMessageLength());
-        buf.writeByte(message.header().getType());
-
-        int min = Math.min(chunkSize, message.payload().readableBytes());
-        buf.writeBytes(message.payload(), min);
+    /*
+    Upper bound of the encoded size of a message, used to size the shared buffer in one allocation
+     */
+    public static int maxEncodedSize(int messageLength, int chunkSize) {
+        return messageLength + 18 + (messageLength / chunkSize) * 7;
     }
 
-    private void encodeFmt3(RtmpMessage message, ByteBuf buf) {
-        int cid = message.header().getCid();
-        byte[] basicHeader = encodeFmtAndChunkId(RTMP_CHUNK_TYPE_3, cid);
-        while (message.payload().isReadable()) {
-            buf.writeBytes(basicHeader);
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        ctx.channel().attr(OUTBOUND_STATE).set(state);
+    }
 
-            int min = Math.min(chunkSize, message.payload().readableBytes());
-            buf.writeBytes(message.payload(), min);
+    @Override
+    protected void encode(ChannelHandlerContext channelHandlerContext, RtmpMessage message, ByteBuf byteBuf) {
+        RtmpHeader header = message.header();
+        ByteBuf payload = message.payload();
+        int cid = header.getCid();
+        int streamId = header.getStreamId();
+        int timestamp = header.getTimestamp();
+
+        int fmt = state.selectFmt(cid, streamId, header.getType(), header.getMessageLength(), timestamp);
+        encodeMessage(header, payload, fmt, state.timestampField(fmt, cid, timestamp), streamId,
+                state.getChunkSize(), byteBuf);
+        state.update(fmt, cid, streamId, header.getType(), header.getMessageLength(), timestamp);
+
+        // The new size applies to the chunks after the Set Chunk Size message itself
+        if (header.getType() == RTMP_MSG_CONTROL_TYPE_SET_CHUNK_SIZE) {
+            state.setChunkSize(payload.getInt(payload.readerIndex()));
         }
+        payload.skipBytes(payload.readableBytes());
     }
 
-    private byte[] encodeFmtAndChunkId(int fmt, int cid) {
+    private static void writeFmtAndChunkId(ByteBuf buf, int fmt, int cid) {
         if (cid >= 64 + 255) {
-            return new byte[]{
-                    (byte) ((fmt << 6) | 1),
-                    (byte) ((cid - 64) & 0xff),
-                    (byte) (((cid - 64) >> 8) & 0xff)};
+            buf.writeByte((fmt << 6) | 1);
+            buf.writeByte((cid - 64) & 0xff);
+            buf.writeByte(((cid - 64) >> 8) & 0xff);
         } else if (cid >= 64) {
-            return new byte[]{
-                    (byte) ((fmt << 6)),
-                    (byte) ((cid - 64) & 0xff)
-            };
+            buf.writeByte(fmt << 6);
+            buf.writeByte((cid - 64) & 0xff);
         } else {
-            return new byte[]{(byte) ((fmt << 6) | cid)};
+            buf.writeByte((fmt << 6) | cid);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,27 @@
+package com.example.streamingservice.rtmp.handlers;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.flush.FlushConsolidationHandler;
+
+/*
+How outbound flushes of an RTMP connection are batched
+ */
+public enum EgressFlushMode {
+    // Every flush goes to the socket
+    IMMEDIATE,
+    // Flushes are coalesced into one per event-loop iteration
+    LOOP,
+    // Flushes are coalesced into one per configured time window
+    WINDOW;
+
+    // Upper bound of writes held back by LOOP mode before a flush is forced
+    private static final int EXPLICIT_FLUSH_AFTER_FLUSHES = 256;
+
+    public ChannelHandler newHandler(long windowMillis) {
+        return switch (this) {
+            case IMMEDIATE -> null;
+            case LOOP -> new FlushConsolidationHandler(EXPLICIT_FLUSH_AFTER_FLUSHES, true);
+            case WINDOW -> new WindowedFlushHandler(windowMillis);
+        };
+    }
+}
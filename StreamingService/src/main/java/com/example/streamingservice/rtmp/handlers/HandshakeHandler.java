@@ -2,68 +2,100 @@ package com.example.streamingservice.rtmp.handlers;
 
 import com.example.streamingservice.rtmp.model.messages.RtmpConstants;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.concurrent.ScheduledFuture;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+/*
+Simple (non-digest) RTMP handshake.
+S0/S1/S2 are written from one pooled buffer, S1 is filled from ThreadLocalRandom and S2 echoes C1.
+Admission is bounded by the shared HandshakeLimiter, a handshake not completed in time closes the connection.
+ */
 @Slf4j
 public class HandshakeHandler extends ByteToMessageDecoder {
 
+    private static final int C0C1_LENGTH = RtmpConstants.RTMP_HANDSHAKE_VERSION_LENGTH + RtmpConstants.RTMP_HANDSHAKE_SIZE;
+    private static final int RANDOM_LENGTH = RtmpConstants.RTMP_HANDSHAKE_SIZE - 8;
+
+    private final HandshakeLimiter limiter;
+
     private boolean C0C1;
     private boolean completed;
-    private int timestamp;
+    private boolean admitted;
+    private ScheduledFuture<?> timeout;
+
+    public HandshakeHandler() {
+        this(HandshakeLimiter.unlimited());
+    }
+
+    public HandshakeHandler(HandshakeLimiter limiter) {
+        this.limiter = limiter;
+    }
 
-    private byte[] clientBytes = new byte[RtmpConstants.RTMP_HANDSHAKE_SIZE - 8];
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        if (!limiter.tryAcquire()) {
+            log.debug("Handshake limit of {} reached, refusing {}", limiter.getMaxInFlight(), ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        admitted = true;
+        if (limiter.getTimeoutMillis() > 0) {
+            timeout = ctx.executor().schedule(() -> {
+                log.info("Handshake with {} timed out", ctx.channel().remoteAddress());
+                ctx.close();
+            }, limiter.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
 
     @Override
-    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) throws Exception {
+    protected void handlerRemoved0(ChannelHandlerContext ctx) {
+        finish();
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) {
         if (completed) {
             // Continue pipeline
-            channelHandlerContext.fireChannelRead(byteBuf);
+            channelHandlerContext.fireChannelRead(byteBuf.readRetainedSlice(byteBuf.readableBytes()));
             return;
         }
 
         // client 0 client 1
         if (!C0C1) {
+            if (byteBuf.readableBytes() < C0C1_LENGTH) {
+                return;
+            }
             // C0
             //read version
             byte version = byteBuf.readByte();
             if (!(version == RtmpConstants.RTMP_VERSION)) {
                 log.info("Client requests unsupported version: " + version);
             }
-            // C1
-            // read timestamp
-            timestamp = byteBuf.readInt();
-            // read zero
-            byteBuf.readInt();
-            // read random bytes
-            byteBuf.readBytes(clientBytes);
-
-            generateS0S1S2(channelHandlerContext);
+            // C1 is echoed back as S2
+            generateS0S1S2(channelHandlerContext, byteBuf);
             C0C1 = true;
         } else /* Read C2 */ {
-            // C2
-            // read timestamp
-            byteBuf.readInt();
-            // read zero
-            byteBuf.readInt();
-            // read random bytes
-            byteBuf.readBytes(clientBytes);
-
-            // Clear buffer
-            clientBytes = null;
+            if (byteBuf.readableBytes() < RtmpConstants.RTMP_HANDSHAKE_SIZE) {
+                return;
+            }
+            // C2 echoes S1, nothing to check in the simple handshake
+            byteBuf.skipBytes(RtmpConstants.RTMP_HANDSHAKE_SIZE);
+
             completed = true;
-            // Handshake is completed. Remove this handler from the pipeline
+            finish();
+            // Handshake is completed. Remove this handler from the pipeline, remaining bytes are passed on
             channelHandlerContext.channel().pipeline().remove(this);
         }
     }
 
-    private void generateS0S1S2(ChannelHandlerContext channelHandlerContext) {
-        ByteBuf resp = Unpooled.buffer(RtmpConstants.RTMP_HANDSHAKE_VERSION_LENGTH
+    private void generateS0S1S2(ChannelHandlerContext channelHandlerContext, ByteBuf c1) {
+        ByteBuf resp = channelHandlerContext.alloc().buffer(RtmpConstants.RTMP_HANDSHAKE_VERSION_LENGTH
                 + RtmpConstants.RTMP_HANDSHAKE_SIZE + RtmpConstants.RTMP_HANDSHAKE_SIZE);
 
         // S0
@@ -74,24 +106,35 @@ public class HandshakeHandler extends ByteToMessageDecoder {
         resp.writeInt(0);
         // Write zero
         resp.writeInt(0);
-        // Write random 1528 bytes
-        resp.writeBytes(randomBytes(RtmpConstants.RTMP_HANDSHAKE_SIZE - 8));
+        // Write random 1528 bytes, 1528 is a multiple of 8
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < RANDOM_LENGTH; i += 8) {
+            resp.writeLong(random.nextLong());
+        }
 
         // S2
-        // Write timestamp
-        resp.writeInt(timestamp);
-        // Write zero
+        // Write C1 timestamp
+        resp.writeInt(c1.readInt());
+        // Write time C1 was read, zero
+        c1.skipBytes(4);
         resp.writeInt(0);
-        // Write random 1528 bytes
-        resp.writeBytes(randomBytes(RtmpConstants.RTMP_HANDSHAKE_SIZE - 8));
+        // Write C1 random bytes
+        resp.writeBytes(c1, RANDOM_LENGTH);
 
         channelHandlerContext.writeAndFlush(resp);
     }
 
-    // Placeholder method. For production use java.security.SecureRandom
-    private byte[] randomBytes(int length) {
-        byte[] bytes = new byte[length];
-        new Random().nextBytes(bytes);
-        return bytes;
+    /*
+    Gives the admission permit back and stops the timeout, once
+     */
+    private void finish() {
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+        if (admitted) {
+            admitted = false;
+            limiter.release();
+        }
     }
 }
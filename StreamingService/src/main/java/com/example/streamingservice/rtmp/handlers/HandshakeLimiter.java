@@ -0,0 +1,56 @@
+package com.example.streamingservice.rtmp.handlers;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Node-wide bound on handshakes in flight.
+Connections above the limit are refused right away, so a reconnect storm costs a few accepts
+instead of handshake work on the event loops that serve established streams.
+ */
+public class HandshakeLimiter {
+
+    @Getter
+    private final int maxInFlight;
+    @Getter
+    private final long timeoutMillis;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong refused = new AtomicLong();
+
+    public HandshakeLimiter(int maxInFlight, long timeoutMillis) {
+        this.maxInFlight = maxInFlight;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static HandshakeLimiter unlimited() {
+        return new HandshakeLimiter(Integer.MAX_VALUE, 0);
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= maxInFlight) {
+                refused.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRefused() {
+        return refused.get();
+    }
+}
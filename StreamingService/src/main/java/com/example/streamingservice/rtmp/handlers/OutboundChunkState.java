@@ -0,0 +1,73 @@
+package com.example.streamingservice.rtmp.handlers;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
+
+/*
+Outbound chunk stream state of one connection: the chunk size and the last message header sent on each chunk stream id.
+It picks the smallest legal chunk header for the next message:
+    fmt 0 : first message on the cid, another message stream id, or the timestamp went backwards
+    fmt 1 : same message stream id, length or type changed
+    fmt 2 : same length and type, delta changed
+    fmt 3 : same length, type and delta as the previous message
+Only touched from the channel's event loop.
+ */
+public class OutboundChunkState {
+
+    @Getter
+    @Setter
+    private int chunkSize = RTMP_DEFAULT_CHUNK_SIZE;
+
+    private final Map<Integer, LastHeader> lastHeaders = new HashMap<>();
+
+    private static final class LastHeader {
+        int streamId;
+        int messageLength;
+        short type;
+        int timestamp;
+        // -1 after a fmt 0 header, a fmt 3 header would then repeat the absolute timestamp as delta
+        int timestampDelta = -1;
+    }
+
+    public int selectFmt(int cid, int streamId, short type, int messageLength, int timestamp) {
+        LastHeader last = lastHeaders.get(cid);
+        if (last == null || last.streamId != streamId || timestamp < last.timestamp) {
+            return RTMP_CHUNK_TYPE_0;
+        }
+        int delta = timestamp - last.timestamp;
+        if (delta >= RTMP_MAX_TIMESTAMP) {
+            return RTMP_CHUNK_TYPE_0;
+        }
+        if (last.messageLength != messageLength || last.type != type) {
+            return RTMP_CHUNK_TYPE_1;
+        }
+        if (last.timestampDelta != delta) {
+            return RTMP_CHUNK_TYPE_2;
+        }
+        return RTMP_CHUNK_TYPE_3;
+    }
+
+    /*
+    Value of the timestamp field for the selected format: absolute for fmt 0, delta otherwise
+     */
+    public int timestampField(int fmt, int cid, int timestamp) {
+        if (fmt == RTMP_CHUNK_TYPE_0) {
+            return timestamp;
+        }
+        return timestamp - lastHeaders.get(cid).timestamp;
+    }
+
+    public void update(int fmt, int cid, int streamId, short type, int messageLength, int timestamp) {
+        LastHeader last = lastHeaders.computeIfAbsent(cid, key -> new LastHeader());
+        last.timestampDelta = fmt == RTMP_CHUNK_TYPE_0 ? -1 : timestamp - last.timestamp;
+        last.streamId = streamId;
+        last.type = type;
+        last.messageLength = messageLength;
+        last.timestamp = timestamp;
+    }
+}
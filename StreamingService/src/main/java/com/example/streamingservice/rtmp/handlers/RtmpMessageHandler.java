@@ -1,10 +1,16 @@
 package com.example.streamingservice.rtmp.handlers;
 
+import com.example.streamingservice.rtmp.amf0.Amf0Reader;
 import com.example.streamingservice.rtmp.amf0.Amf0Rules;
+import com.example.streamingservice.rtmp.control.ControlPlaneClient;
+import com.example.streamingservice.rtmp.metrics.RtmpMetrics;
 import com.example.streamingservice.rtmp.model.context.Stream;
 import com.example.streamingservice.rtmp.model.context.StreamContext;
+import com.example.streamingservice.rtmp.model.context.Subscriber;
+import com.example.streamingservice.rtmp.model.messages.RtmpCommand;
 import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
 import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import com.example.streamingservice.rtmp.model.util.ChunkSizeNegotiator;
 import com.example.streamingservice.rtmp.model.util.MessageProvider;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -12,12 +18,11 @@ import io.netty.handler.codec.MessageToMessageDecoder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.scheduler.Schedulers;
-import reactor.util.retry.Retry;
 
-import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -26,28 +31,61 @@ import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
 @Slf4j
 public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 
-    private String currentSessionStream;
+    // Publishing "{name}?key={key}" names the stream, a bare publish name is the key of the main stream "{app}"
+    private static final String KEY_PARAMETER = "key=";
+
+    private record Playback(Stream stream, Subscriber subscriber) {
+    }
+
+    // The streamer, every stream of the connection belongs to it
+    private String app;
+    private int lastStreamId;
+    // Message streams handed out by createStream that carry no publish or play yet
+    private final Deque<Integer> idleStreamIds = new ArrayDeque<>();
+    private final Map<Integer, String> published = new HashMap<>();
+    private final Map<Integer, Playback> played = new HashMap<>();
+    // Plays that arrived while the connection is being moved to another event loop, null when no move is in flight
+    private List<Runnable> afterPlacement;
+
     private final StreamContext context;
+    private final RtmpMetrics metrics;
+    // Reused for every command of the connection
+    private final RtmpCommand command = new RtmpCommand();
+
+    // Chunk size announced on connect, viewers are renegotiated on play from the stream bitrate
+    @Value("${rtmp.egress.chunk-size:" + RTMP_DEFAULT_OUTPUT_CHUNK_SIZE + "}")
+    private int outboundChunkSize = RTMP_DEFAULT_OUTPUT_CHUNK_SIZE;
+
+    @Value("${rtmp.egress.min-chunk-size:" + RTMP_DEFAULT_OUTPUT_CHUNK_SIZE + "}")
+    private int minOutboundChunkSize = RTMP_DEFAULT_OUTPUT_CHUNK_SIZE;
 
-    @Value("${auth.server}")
-    private String authAddress;
+    @Value("${rtmp.egress.max-chunk-size:" + RTMP_MAX_OUTPUT_CHUNK_SIZE + "}")
+    private int maxOutboundChunkSize = RTMP_MAX_OUTPUT_CHUNK_SIZE;
 
     @Autowired
-    WebClient webClient;
+    ControlPlaneClient controlPlaneClient;
 
     public RtmpMessageHandler(StreamContext context) {
+        this(context, RtmpMetrics.noop());
+    }
+
+    public RtmpMessageHandler(StreamContext context, RtmpMetrics metrics) {
         this.context = context;
+        this.metrics = metrics;
     }
 
     @Override
     public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
-        Stream stream = context.getStream(currentSessionStream);
-        if (stream != null) {
-            if (ctx.channel().id().equals(stream.getPublisher().id())) {
+        for (String streamName : published.values()) {
+            Stream stream = context.getStream(streamName);
+            if (stream != null && ctx.channel().id().equals(stream.getPublisher().id())) {
                 stream.closeStream();
-                context.deleteStream(currentSessionStream);
+                context.deleteStream(streamName);
             }
         }
+        published.clear();
+        // Subscribers leave their streams when the channel closes
+        played.clear();
         super.handlerRemoved(ctx);
     }
 
@@ -57,183 +95,241 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
         ByteBuf payload = in.payload();
 
         switch (type) {
-            case RTMP_MSG_COMMAND_TYPE_AMF0 -> handleCommand(channelHandlerContext, payload, out);
-            case RTMP_MSG_DATA_TYPE_AMF0 -> handleData(payload);
+            case RTMP_MSG_COMMAND_TYPE_AMF0 -> handleCommand(channelHandlerContext, payload, in.header().getStreamId(), out);
+            case RTMP_MSG_DATA_TYPE_AMF0 -> handleData(payload, in.header().getStreamId());
             case RTMP_MSG_USER_CONTROL_TYPE_AUDIO,
                     RTMP_MSG_USER_CONTROL_TYPE_VIDEO -> handleMedia(in);
             case RTMP_MSG_USER_CONTROL_TYPE_EVENT -> handleEvent(in);
-            default -> log.info("Unsupported message/ Type id: {}", type);
+            default -> log.debug("Unsupported message/ Type id: {}", type);
         }
-        // Clear ByteBUf
-        payload.release();
+        // The message itself is released by MessageToMessageDecoder, media keeps its own reference
     }
 
-    private void handleCommand(ChannelHandlerContext ctx, ByteBuf payload, List<Object> out) {
-        List<Object> decoded = Amf0Rules.decodeAll(payload);
-        String command = (String) decoded.get(0);
-        log.info(command + ">>>" + decoded);
-        switch (command) {
-            case "connect" -> onConnect(ctx, decoded);
-            case "createStream" -> onCreate(ctx, decoded);
-            case "publish" -> onPublish(ctx, decoded, out);
-            case "play" -> onPlay(ctx, decoded);
-            case "closeStream" -> onClose(ctx);
-            case "deleteStream" -> onDelete(ctx);
-            default -> log.info("Unsupported command type {}", command);
+    private void handleCommand(ChannelHandlerContext ctx, ByteBuf payload, int streamId, List<Object> out) {
+        command.reset();
+        Amf0Reader.readAll(payload, command);
+        log.debug("Command {}", command);
+        if (command.getName() == null) {
+            log.info("Command without a name from {}", ctx.channel().remoteAddress());
+            return;
+        }
+        metrics.command(command.getName());
+        switch (command.getName()) {
+            case "connect" -> onConnect(ctx, command);
+            case "createStream" -> onCreate(ctx, command);
+            case "publish" -> onPublish(ctx, command, streamId, out);
+            case "play" -> onPlay(ctx, command, streamId);
+            case "closeStream" -> onClose(ctx, streamId);
+            case "deleteStream" -> onDelete(ctx, command, streamId);
+            default -> log.debug("Unsupported command type {}", command.getName());
         }
     }
 
-    private void onConnect(ChannelHandlerContext ctx, List<Object> message) {
+    private void onConnect(ChannelHandlerContext ctx, RtmpCommand message) {
         log.info("Client connection from {}, channel id is {}", ctx.channel().remoteAddress(), ctx.channel().id());
 
-        String app = (String) ((Map<String, Object>) message.get(2)).get("app");
-        Integer clientEncodingFormat = (Integer) ((Map<String, Object>) message.get(2)).get("objectEncoding");
-
-        if (clientEncodingFormat != null && clientEncodingFormat == 3) {
+        if (message.getObjectEncoding() == 3) {
             log.error("AMF3 format is not supported. Closing connection to {}", ctx.channel().remoteAddress());
             ctx.close();
             return;
         }
 
-        // app = stream name
-        this.currentSessionStream = app;
+        // app = streamer name
+        this.app = message.getApp();
 
+        // The connect responses are written back to back and leave in a single flush
         // window acknowledgement size
         //log.info("Sending window ack size message");
-        ctx.writeAndFlush(MessageProvider.setWindowAcknowledgement(RTMP_DEFAULT_OUTPUT_ACK_SIZE));
+        ctx.write(MessageProvider.setWindowAcknowledgement(RTMP_DEFAULT_OUTPUT_ACK_SIZE));
 
         // set peer bandwidth
         //log.info("Sending set peer bandwidth message");
-        ctx.writeAndFlush(MessageProvider.setPeerBandwidth(RTMP_DEFAULT_OUTPUT_ACK_SIZE, 2));
+        ctx.write(MessageProvider.setPeerBandwidth(RTMP_DEFAULT_OUTPUT_ACK_SIZE, 2));
 
         // set chunk size
         //log.info("Sending set chunk size message");
-        ctx.writeAndFlush(MessageProvider.setChunkSize(RTMP_DEFAULT_CHUNK_SIZE));
+        ctx.write(MessageProvider.setChunkSize(outboundChunkSize));
 
-        List<Object> result = new ArrayList<>();
-
-        Amf0Rules.Amf0Object cmdObj = new Amf0Rules.Amf0Object();
-        cmdObj.put("fmsVer", "FMS/3,0,1,123");
-        cmdObj.put("capabilities", 31);
-
-        Amf0Rules.Amf0Object info = new Amf0Rules.Amf0Object();
-        info.put("level", "status");
-        info.put("code", "NetConnection.Connect.Success");
-        info.put("description", "Connection succeeded");
-        info.put("objectEncoding", 0);
+        ctx.writeAndFlush(MessageProvider.connectResult(message.getTransactionId()));
+    }
 
-        result.add("_result");
-        result.add(message.get(1)); //transaction id
-        result.add(cmdObj);
-        result.add(info);
+    private void onCreate(ChannelHandlerContext ctx, RtmpCommand message) {
+        int streamId = ++lastStreamId;
+        log.info("Create stream {}", streamId);
+        idleStreamIds.addLast(streamId);
 
-        ctx.writeAndFlush(MessageProvider.commandMessage(result));
+        ctx.writeAndFlush(MessageProvider.createStreamResult(message.getTransactionId(), streamId));
     }
 
-    private void onCreate(ChannelHandlerContext ctx, List<Object> message) {
-        log.info("Create stream");
-
-        List<Object> result = new ArrayList<>();
-        result.add("_result");
-        result.add(message.get(1)); // transaction id
-        result.add(null); // properties
-        result.add(RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE); // stream id
+    /*
+    The message stream a publish or play goes to. Clients that send it on another message stream
+    (0, or an id they never asked for) get the stream they created last.
+     */
+    private int claimStreamId(int requested) {
+        if (idleStreamIds.remove((Object) requested)) {
+            return requested;
+        }
+        Integer newest = idleStreamIds.pollLast();
+        return newest != null ? newest : ++lastStreamId;
+    }
 
-        ctx.writeAndFlush(MessageProvider.commandMessage(result));
+    private String publishedStream(int streamId) {
+        String streamName = published.get(streamId);
+        if (streamName == null && published.size() == 1) {
+            // Clients that ignore the createStream result still publish a single stream
+            streamName = published.values().iterator().next();
+        }
+        return streamName;
     }
 
-    private void onPublish(ChannelHandlerContext ctx, List<Object> message, List<Object> output) {
+    private void onPublish(ChannelHandlerContext ctx, RtmpCommand message, int messageStreamId, List<Object> output) {
         log.info("Stream publishing");
-        String streamType = (String) message.get(4);
+        String streamType = message.getArgument(1);
         if (!"live".equals(streamType)) {
             log.error("Stream type {} is not supported", streamType);
             ctx.channel().disconnect();
         }
 
-        Stream stream = new Stream(currentSessionStream);
-        String secret = (String) message.get(3);
+        String publishName = message.getArgument(0);
+        String streamName = app;
+        String secret = publishName;
+        int query = publishName == null ? -1 : publishName.indexOf('?');
+        if (query >= 0) {
+            streamName = publishName.substring(0, query);
+            secret = null;
+            for (String parameter : publishName.substring(query + 1).split("&")) {
+                if (parameter.startsWith(KEY_PARAMETER)) {
+                    secret = parameter.substring(KEY_PARAMETER.length());
+                }
+            }
+        }
+        // The key is checked against the app, so the streamer can only publish its own names
+        if (streamName == null || streamName.isEmpty() || !(streamName.equals(app) || streamName.startsWith(app + "_"))) {
+            log.info("Publish name {} is not a stream of {}", streamName, app);
+            ctx.writeAndFlush(MessageProvider.withStreamId(
+                    MessageProvider.onStatus("error", "NetStream.Publish.BadName", "Bad stream name"), messageStreamId));
+            ctx.channel().close();
+            return;
+        }
+
+        int streamId = claimStreamId(messageStreamId);
+        Stream stream = context.newStream(streamName);
+        stream.setOwner(app);
         stream.setStreamKey(secret);
         stream.setPublisher(ctx.channel());
+        stream.setPublisherStreamId(streamId);
         context.addStream(stream);
+        published.put(streamId, streamName);
 
         // Push stream further and handle everything(metadata, credentials, etc)
         output.add(stream);
     }
 
-    private void onPlay(ChannelHandlerContext ctx, List<Object> message) {
-        // String secret = (String) message.get(3);
-
-        Stream stream = context.getStream(currentSessionStream);
+    /*
+    The play name is the name the stream was published under, a name nobody publishes is not found
+     */
+    private void onPlay(ChannelHandlerContext ctx, RtmpCommand message, int messageStreamId) {
+        String playName = message.getArgument(0);
+        // Players pass tokens as a query on the play name
+        if (playName != null && playName.indexOf('?') >= 0) {
+            playName = playName.substring(0, playName.indexOf('?'));
+        }
+        Stream stream = playName == null || playName.isEmpty() ? null : context.getStream(playName);
         if (stream != null) {
-            ctx.writeAndFlush(MessageProvider.userControlMessageEvent(STREAM_BEGIN));
-            ctx.writeAndFlush(MessageProvider.onStatus("status", "NetStream.Play.Start", "Strat live"));
-
-            List<Object> args = new ArrayList<>();
-            args.add("|RtmpSampleAccess");
-            args.add(true);
-            args.add(true);
-            ctx.writeAndFlush(MessageProvider.commandMessage(args));
-
-            List<Object> metadata = new ArrayList<>();
-            metadata.add("onMetaData");
-            metadata.add(stream.getMetadata());
-            ctx.writeAndFlush(MessageProvider.dataMessage(metadata));
-
-            stream.addSubscriber(ctx.channel());
-
+            int streamId = claimStreamId(messageStreamId);
+            Stream target = stream;
+            Runnable join = () -> play(ctx, target, streamId);
+            if (afterPlacement != null) {
+                // Joins on the loop the connection is moving to
+                afterPlacement.add(join);
+            } else if (published.isEmpty() && played.isEmpty()) {
+                // Depending on the placement the viewer is moved to the publisher's event loop first
+                afterPlacement = new ArrayList<>();
+                stream.getSubscriberPlacement().place(ctx.channel(), stream.getPublisher(), () -> {
+                    join.run();
+                    List<Runnable> queued = afterPlacement;
+                    afterPlacement = null;
+                    queued.forEach(Runnable::run);
+                });
+            } else {
+                // The subscriptions and the broadcast of the connection are bound to its loop, it is not moved again
+                join.run();
+            }
         } else {
             log.info("Stream doesn't exist");
-            ctx.writeAndFlush(MessageProvider.onStatus("error", "NetStream.Play.StreamNotFound", "No Such Stream"));
+            ctx.writeAndFlush(MessageProvider.withStreamId(
+                    MessageProvider.onStatus("error", "NetStream.Play.StreamNotFound", "No Such Stream"), messageStreamId));
             ctx.channel().close();
         }
     }
 
-    private void onClose(ChannelHandlerContext ctx) {
-        Stream stream = context.getStream(currentSessionStream);
-        if (stream == null) {
-            ctx.writeAndFlush(MessageProvider.onStatus("status", "NetStream.Unpublish.Success", "Stop publishing"));
-        } else if (ctx.channel().id().equals(stream.getPublisher().id())) {
-            ctx.writeAndFlush(MessageProvider.onStatus("status", "NetStream.Unpublish.Success", "Stop publishing"));
-            webClient
-                    .post()
-                    .uri(authAddress + "/broadcasts/" + stream.getStreamName() + "/offair")
-                    .retrieve()
-                    .bodyToMono(Boolean.class)
-                    .retryWhen(Retry.fixedDelay(3, Duration.ofMillis(500)))
-                    .doOnError(e -> log.info(e.getMessage()))
-                    .onErrorReturn(Boolean.FALSE)
-                    .subscribeOn(Schedulers.parallel())
-                    .subscribe((s) -> {
-                        if (s) {
-                            log.info("방송이 종료됩니다.");
-                        } else {
-                            log.info("ContentService 서버와 통신 에러 발생");
-                        }
-                    });
-            stream.closeStream();
-            context.deleteStream(stream.getStreamName());
-            ctx.close();
-        } else {
+    private void play(ChannelHandlerContext ctx, Stream stream, int streamId) {
+        // Bigger chunks for higher bitrates, fewer chunk headers and writes per frame
+        int chunkSize = ChunkSizeNegotiator.negotiate(stream.getMetadata(),
+                minOutboundChunkSize, maxOutboundChunkSize, outboundChunkSize);
+        if (chunkSize != ChunkEncoder.outboundChunkSize(ctx.channel())) {
+            log.info("Outbound chunk size of {} set to {}", ctx.channel().remoteAddress(), chunkSize);
+            ctx.write(MessageProvider.setChunkSize(chunkSize));
+        }
+
+        // Play responses, configs and the GOP go out with one flush in addSubscriber
+        ctx.write(MessageProvider.userControlMessageEvent(STREAM_BEGIN, streamId));
+        ctx.write(MessageProvider.withStreamId(MessageProvider.onStatus("status", "NetStream.Play.Start", "Strat live"), streamId));
+
+        ctx.write(MessageProvider.withStreamId(MessageProvider.sampleAccess(), streamId));
+        ctx.write(MessageProvider.withStreamId(stream.metadataMessage(), streamId));
+
+        played.put(streamId, new Playback(stream, stream.addSubscriber(ctx.channel(), streamId)));
+    }
+
+    private void onClose(ChannelHandlerContext ctx, int streamId) {
+        if (!published.containsKey(streamId) && !played.containsKey(streamId) && published.size() + played.size() == 1) {
+            // Sent on another message stream by a client with a single stream
+            streamId = published.isEmpty() ? played.keySet().iterator().next() : published.keySet().iterator().next();
+        }
+        String streamName = published.remove(streamId);
+        Playback playback = played.remove(streamId);
+        if (playback != null) {
             log.info("Subscriber closed stream");
+            playback.stream().removeSubscriber(playback.subscriber());
+            return;
+        }
+
+        ctx.writeAndFlush(MessageProvider.withStreamId(
+                MessageProvider.onStatus("status", "NetStream.Unpublish.Success", "Stop publishing"), streamId));
+        Stream stream = context.getStream(streamName);
+        if (stream != null && ctx.channel().id().equals(stream.getPublisher().id())) {
+            log.info("방송이 종료됩니다.");
+            // Renditions never went on air on their own
+            if (streamName.equals(stream.getOwner())) {
+                controlPlaneClient.offAir(streamName);
+            }
+            stream.closeStream();
+            context.deleteStream(streamName);
+            if (published.isEmpty() && played.isEmpty()) {
+                ctx.close();
+            }
         }
     }
 
-    private void onDelete(ChannelHandlerContext ctx) {
-        onClose(ctx);
+    private void onDelete(ChannelHandlerContext ctx, RtmpCommand message, int messageStreamId) {
+        // deleteStream is sent on the control stream and names the message stream as its argument
+        int streamId = message.getStreamId() > 0 ? (int) message.getStreamId() : messageStreamId;
+        idleStreamIds.remove((Object) streamId);
+        onClose(ctx, streamId);
     }
 
-    private void handleData(ByteBuf payload) {
-        List<Object> decoded = Amf0Rules.decodeAll(payload);
-        String dataType = (String) decoded.get(0);
-        if ("@setDataFrame".equals(dataType)) {
-            // handle metadata
+    private void handleData(ByteBuf payload, int streamId) {
+        // Only metadata is kept, anything else is skipped without decoding
+        if ("@setDataFrame".equals(Amf0Reader.peekString(payload))) {
+            List<Object> decoded = Amf0Rules.decodeAll(payload);
             Map<String, Object> metadata = (Map<String, Object>) decoded.get(2);
             metadata.remove("filesize");
             String encoder = (String) metadata.get("encoder");
             if (encoder != null && encoder.contains("obs")) {
                 log.info("OBS client detected");
             }
-            Stream stream = context.getStream(this.currentSessionStream);
+            Stream stream = context.getStream(publishedStream(streamId));
             if (stream != null) {
                 log.info("Stream metadata set");
                 stream.setMetadata(metadata);
@@ -242,15 +338,15 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
     }
 
     private void handleMedia(RtmpMessage message) {
-        Stream stream = context.getStream(currentSessionStream);
+        Stream stream = context.getStream(publishedStream(message.header().getStreamId()));
         if (stream != null) {
             stream.addMedia(RtmpMediaMessage.fromRtmpMessage(message));
         } else {
-            log.info("Stream does not exist");
+            log.debug("Stream does not exist");
         }
     }
 
     private void handleEvent(RtmpMessage message) {
-        log.info("User event type {}, value {}", message.payload().readShort(), message.payload().readInt());
+        log.debug("User event type {}, value {}", message.payload().readShort(), message.payload().readInt());
     }
 }
@@ -0,0 +1,70 @@
+package com.example.streamingservice.rtmp.handlers;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+Holds flushes back and issues at most one per time window, so the syscall count follows the window
+rather than the number of frames written. Pending writes are flushed before the channel closes.
+ */
+public class WindowedFlushHandler extends ChannelDuplexHandler {
+
+    private final long windowMillis;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public WindowedFlushHandler(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (windowMillis <= 0) {
+            ctx.flush();
+            return;
+        }
+        if (scheduledFlush == null) {
+            scheduledFlush = ctx.executor().schedule(() -> {
+                scheduledFlush = null;
+                ctx.flush();
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // The buffer is already past the high watermark, holding it back any longer only makes it grow
+        if (!ctx.channel().isWritable()) {
+            flushNow(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushNow(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushNow(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushNow(ctx);
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+            ctx.flush();
+        }
+    }
+}
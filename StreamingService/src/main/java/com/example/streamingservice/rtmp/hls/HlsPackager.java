@@ -0,0 +1,280 @@
+package com.example.streamingservice.rtmp.hls;
+
+import com.example.streamingservice.rtmp.model.context.MediaSink;
+import com.example.streamingservice.rtmp.model.messages.RtmpConstants;
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+Remuxes the FLV-in-RTMP media of one stream into MPEG-TS segments without re-encoding.
+AVC NAL units get Annex B start codes (SPS/PPS repeated before every keyframe), raw AAC frames get ADTS headers.
+Segments are cut on the first keyframe past the target duration, so every segment starts with an IDR frame.
+With a part target (LL-HLS) the segment is written as a run of partial segments, cut on frame boundaries
+before they would outgrow the target. Each part is its own buffer, the segment is their composite.
+ */
+@Slf4j
+public class HlsPackager implements MediaSink {
+
+    private static final int CODEC_AVC = 7;
+    private static final int SOUND_FORMAT_AAC = 10;
+    private static final int AVC_SEQUENCE_HEADER = 0;
+    private static final int AAC_SEQUENCE_HEADER = 0;
+    private static final int NAL_TYPE_AUD = 9;
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+    private static final byte[] ACCESS_UNIT_DELIMITER = {0, 0, 0, 1, NAL_TYPE_AUD, (byte) 0xF0};
+    private static final int INITIAL_SEGMENT_CAPACITY = 256 * 1024;
+    private static final int INITIAL_PART_CAPACITY = 64 * 1024;
+
+    private final TsMuxer muxer = new TsMuxer();
+    private final HlsPlaylist playlist;
+    private final ByteBufAllocator allocator;
+    private final long targetDurationMillis;
+    // 0 disables partial segments
+    private final long partTargetMillis;
+
+    private int naluLengthSize = 4;
+    // SPS and PPS with start codes, written in front of every keyframe
+    private byte[] parameterSets;
+
+    private boolean hasAudioConfig;
+    private int aacProfile;
+    private int aacFrequencyIndex;
+    private int aacChannels;
+
+    // Finished parts of the current segment and the part being written
+    private CompositeByteBuf segment;
+    private ByteBuf part;
+    private long segmentStart;
+    private long partStart;
+    private boolean partIndependent;
+    private long lastFrameTimestamp;
+    private boolean closed;
+
+    public HlsPackager(HlsPlaylist playlist, ByteBufAllocator allocator, long targetDurationMillis) {
+        this(playlist, allocator, targetDurationMillis, 0);
+    }
+
+    public HlsPackager(HlsPlaylist playlist, ByteBufAllocator allocator, long targetDurationMillis, long partTargetMillis) {
+        this.playlist = playlist;
+        this.allocator = allocator;
+        this.targetDurationMillis = targetDurationMillis;
+        this.partTargetMillis = partTargetMillis;
+    }
+
+    @Override
+    public synchronized void onMedia(RtmpMediaMessage message) {
+        if (closed) {
+            return;
+        }
+        short type = message.header().getType();
+        if (type == RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO) {
+            onVideo(message.payload(), message.header().getTimestamp());
+        } else if (type == RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO) {
+            onAudio(message.payload(), message.header().getTimestamp());
+        }
+    }
+
+    @Override
+    public synchronized void onClose() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (part != null) {
+            part.release();
+            segment.release();
+            part = null;
+            segment = null;
+        }
+        playlist.close();
+    }
+
+    private void onVideo(ByteBuf payload, int timestamp) {
+        int index = payload.readerIndex();
+        int end = payload.writerIndex();
+        if (end - index < 5 || (payload.getByte(index) & 0x0F) != CODEC_AVC) {
+            return;
+        }
+        if (payload.getByte(index + 1) == AVC_SEQUENCE_HEADER) {
+            readAvcConfig(payload, index + 5, end);
+            return;
+        }
+        boolean keyframe = (payload.getByte(index) & 0xF0) == 0x10;
+        if (parameterSets == null || !beginFrame(timestamp, keyframe, true)) {
+            return;
+        }
+        // Composition time offset, signed 24 bit
+        int compositionTime = (payload.getMedium(index + 2) << 8) >> 8;
+
+        ByteBuf es = allocator.buffer(end - index + ACCESS_UNIT_DELIMITER.length + (keyframe ? parameterSets.length : 0));
+        try {
+            es.writeBytes(ACCESS_UNIT_DELIMITER);
+            if (keyframe) {
+                es.writeBytes(parameterSets);
+            }
+            int position = index + 5;
+            while (position + naluLengthSize <= end) {
+                int length = readNaluLength(payload, position);
+                position += naluLengthSize;
+                if (length <= 0 || position + length > end) {
+                    break;
+                }
+                // The delimiter is already in place
+                if ((payload.getByte(position) & 0x1F) != NAL_TYPE_AUD) {
+                    es.writeBytes(START_CODE);
+                    es.writeBytes(payload, position, length);
+                }
+                position += length;
+            }
+            muxer.writeVideo(part, es, (timestamp + (long) compositionTime) * 90, timestamp * 90L, keyframe);
+        } finally {
+            es.release();
+        }
+    }
+
+    private void onAudio(ByteBuf payload, int timestamp) {
+        int index = payload.readerIndex();
+        int end = payload.writerIndex();
+        if (end - index < 2 || ((payload.getByte(index) & 0xF0) >> 4) != SOUND_FORMAT_AAC) {
+            return;
+        }
+        if (payload.getByte(index + 1) == AAC_SEQUENCE_HEADER) {
+            readAudioSpecificConfig(payload, index + 2, end);
+            return;
+        }
+        // Without video there are no keyframes, audio-only streams are cut on the duration alone
+        boolean audioOnly = parameterSets == null;
+        if (!hasAudioConfig || !(audioOnly ? beginFrame(timestamp, true, true) : beginFrame(timestamp, false, false))) {
+            return;
+        }
+
+        int rawLength = end - index - 2;
+        int frameLength = rawLength + 7;
+        ByteBuf es = allocator.buffer(frameLength);
+        try {
+            es.writeByte(0xFF);
+            es.writeByte(0xF1); // MPEG-4, no CRC
+            es.writeByte(((aacProfile - 1) & 0x03) << 6 | (aacFrequencyIndex & 0x0F) << 2 | (aacChannels >> 2) & 0x01);
+            es.writeByte((aacChannels & 0x03) << 6 | (frameLength >> 11) & 0x03);
+            es.writeByte(frameLength >> 3);
+            es.writeByte((frameLength & 0x07) << 5 | 0x1F);
+            es.writeByte(0xFC);
+            es.writeBytes(payload, index + 2, rawLength);
+            muxer.writeAudio(part, es, timestamp * 90L);
+        } finally {
+            es.release();
+        }
+    }
+
+    /*
+    Cuts segments and parts in front of the frame. Parts are only cut in front of cut points (video frames,
+    or audio frames of audio-only streams). Returns false while the packager is still waiting for the first keyframe.
+     */
+    private boolean beginFrame(long timestamp, boolean keyframe, boolean cutPoint) {
+        if (part == null) {
+            if (!keyframe || !cutPoint) {
+                return false;
+            }
+            startSegment(timestamp);
+        } else if (cutPoint && keyframe && timestamp - segmentStart >= targetDurationMillis) {
+            finishPart(timestamp);
+            playlist.addSegment(segment, timestamp - segmentStart);
+            startSegment(timestamp);
+        } else if (cutPoint && partTargetMillis > 0 && timestamp > partStart
+                // Cut before the part would outgrow its target with one more frame
+                && timestamp - partStart + (timestamp - lastFrameTimestamp) > partTargetMillis) {
+            finishPart(timestamp);
+            startPart(timestamp, keyframe);
+        }
+        if (cutPoint) {
+            lastFrameTimestamp = timestamp;
+        }
+        return true;
+    }
+
+    private void startSegment(long timestamp) {
+        segment = allocator.compositeBuffer(Integer.MAX_VALUE);
+        segmentStart = timestamp;
+        startPart(timestamp, true);
+        muxer.writeTables(part);
+    }
+
+    private void startPart(long timestamp, boolean independent) {
+        part = allocator.buffer(partTargetMillis > 0 ? INITIAL_PART_CAPACITY : INITIAL_SEGMENT_CAPACITY);
+        partStart = timestamp;
+        partIndependent = independent;
+    }
+
+    /*
+    The part is never written again, so the writer thread can read its own duplicate while the segment keeps the buffer
+     */
+    private void finishPart(long timestamp) {
+        if (partTargetMillis > 0) {
+            playlist.addPart(part.retainedDuplicate(), timestamp - partStart, partIndependent);
+        }
+        segment.addComponent(true, part);
+        part = null;
+    }
+
+    private int readNaluLength(ByteBuf payload, int position) {
+        return switch (naluLengthSize) {
+            case 1 -> payload.getUnsignedByte(position);
+            case 2 -> payload.getUnsignedShort(position);
+            case 3 -> payload.getUnsignedMedium(position);
+            default -> payload.getInt(position);
+        };
+    }
+
+    /*
+    AVCDecoderConfigurationRecord: NALU length size, then the SPS and PPS sets
+     */
+    private void readAvcConfig(ByteBuf payload, int position, int end) {
+        if (end - position < 7) {
+            return;
+        }
+        naluLengthSize = (payload.getByte(position + 4) & 0x03) + 1;
+        ByteBuf sets = allocator.heapBuffer(end - position);
+        try {
+            position += 5;
+            for (int table = 0; table < 2 && position < end; table++) {
+                int count = table == 0 ? payload.getByte(position) & 0x1F : payload.getUnsignedByte(position);
+                position++;
+                for (int i = 0; i < count && position + 2 <= end; i++) {
+                    int length = payload.getUnsignedShort(position);
+                    position += 2;
+                    if (position + length > end) {
+                        return;
+                    }
+                    sets.writeBytes(START_CODE);
+                    sets.writeBytes(payload, position, length);
+                    position += length;
+                }
+            }
+            byte[] bytes = new byte[sets.readableBytes()];
+            sets.readBytes(bytes);
+            parameterSets = bytes;
+            log.debug("AVC config with {} byte parameter sets, NALU length size {}", bytes.length, naluLengthSize);
+        } finally {
+            sets.release();
+        }
+    }
+
+    /*
+    AudioSpecificConfig: 5 bit object type, 4 bit frequency index, 4 bit channel configuration
+     */
+    private void readAudioSpecificConfig(ByteBuf payload, int position, int end) {
+        if (end - position < 2) {
+            return;
+        }
+        int first = payload.getUnsignedByte(position);
+        int second = payload.getUnsignedByte(position + 1);
+        aacProfile = first >> 3;
+        aacFrequencyIndex = (first & 0x07) << 1 | second >> 7;
+        aacChannels = (second >> 3) & 0x0F;
+        hasAudioConfig = true;
+    }
+}
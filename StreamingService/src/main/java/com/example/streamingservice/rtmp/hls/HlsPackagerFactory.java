@@ -0,0 +1,79 @@
+package com.example.streamingservice.rtmp.hls;
+
+import com.example.streamingservice.rtmp.model.context.Stream;
+import io.netty.buffer.ByteBufAllocator;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+Attaches an HlsPackager to every published stream when passthrough HLS is enabled.
+Segment and playlist files of all streams are written by one shared writer thread.
+ */
+@Slf4j
+@Getter
+public class HlsPackagerFactory {
+
+    private final boolean enabled;
+    private final Path directory;
+    private final String variant;
+    private final long targetDurationMillis;
+    private final int playlistSize;
+    // LL-HLS partial segments, 0 keeps plain HLS
+    private final long partTargetMillis;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hls-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public HlsPackagerFactory(boolean enabled, Path directory, String variant, long targetDurationMillis,
+                              int playlistSize, long partTargetMillis) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.variant = variant;
+        this.targetDurationMillis = targetDurationMillis;
+        this.playlistSize = playlistSize;
+        this.partTargetMillis = partTargetMillis;
+    }
+
+    public static HlsPackagerFactory disabled() {
+        return new HlsPackagerFactory(false, Path.of("."), "src", 2000, 6, 0);
+    }
+
+    public void attach(Stream stream) {
+        if (!enabled) {
+            return;
+        }
+        log.info("Packaging HLS of stream {} in process", stream.getStreamName());
+        HlsPlaylist playlist = new HlsPlaylist(directory.resolve(stream.getStreamName()), stream.getStreamName(),
+                variant, targetDurationMillis, partTargetMillis, playlistSize, writer);
+        stream.addSink(new HlsPackager(playlist, ByteBufAllocator.DEFAULT, targetDurationMillis, partTargetMillis));
+    }
+
+    /*
+    The source rendition this node packages for the stream, null when ffmpeg still has to produce it
+     */
+    public HlsVariant passthroughVariant(Stream stream) {
+        if (!enabled) {
+            return null;
+        }
+        Map<String, Object> metadata = stream.getMetadata();
+        if (metadata == null) {
+            return new HlsVariant(variant, 0, "");
+        }
+        long bandwidth = (long) ((number(metadata.get("videodatarate")) + number(metadata.get("audiodatarate"))) * 1000);
+        long width = (long) number(metadata.get("width"));
+        long height = (long) number(metadata.get("height"));
+        return new HlsVariant(variant, bandwidth, width > 0 && height > 0 ? width + "x" + height : "");
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number number ? number.doubleValue() : 0;
+    }
+}
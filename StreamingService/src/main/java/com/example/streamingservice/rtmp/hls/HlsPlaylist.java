@@ -0,0 +1,207 @@
+package com.example.streamingservice.rtmp.hls;
+
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/*
+Sliding-window live playlist laid out like the ffmpeg output it replaces:
+{directory}/{stream}_{variant}.m3u8 pointing at {directory}/{stream}_{variant}/data{n}.ts.
+With a part target the playlist is LL-HLS: parts are data{n}_{p}.ts, listed for the newest segments,
+followed by a preload hint for the next part. Players block on _HLS_msn/_HLS_part at the HTTP server.
+All file work runs on the writer executor, so the event loop only hands over finished buffers.
+ */
+@Slf4j
+public class HlsPlaylist {
+
+    private record Part(long durationMillis, boolean independent) {
+    }
+
+    private record Segment(long sequence, long durationMillis, List<Part> parts) {
+    }
+
+    // Segments that left the playlist stay on disk a little longer for players still fetching them
+    private static final int RETAINED_AFTER_WINDOW = 2;
+    // Parts are only listed for the newest segments, older ones are fetched whole
+    private static final int SEGMENTS_WITH_PARTS = 2;
+
+    private final Path directory;
+    private final Path segmentDirectory;
+    private final Path playlist;
+    private final String segmentPrefix;
+    private final int windowSize;
+    private final long partTargetMillis;
+    private final Executor writer;
+
+    // Only touched on the writer executor
+    private final Deque<Segment> window = new ArrayDeque<>();
+    private final List<Part> parts = new ArrayList<>();
+    private long nextSequence;
+    // Only grows, when a GOP runs longer than the target segments follow the keyframes
+    private long targetDuration;
+
+    public HlsPlaylist(Path directory, String streamName, String variant, long targetDurationMillis,
+                       int windowSize, Executor writer) {
+        this(directory, streamName, variant, targetDurationMillis, 0, windowSize, writer);
+    }
+
+    public HlsPlaylist(Path directory, String streamName, String variant, long targetDurationMillis,
+                       long partTargetMillis, int windowSize, Executor writer) {
+        String name = streamName + "_" + variant;
+        this.directory = directory;
+        this.segmentDirectory = directory.resolve(name);
+        this.playlist = directory.resolve(name + ".m3u8");
+        this.segmentPrefix = name + "/data";
+        this.windowSize = Math.max(windowSize, 1);
+        this.partTargetMillis = partTargetMillis;
+        this.targetDuration = seconds(targetDurationMillis);
+        this.writer = writer;
+    }
+
+    /*
+    Takes ownership of the part buffer. Parts belong to the segment added next.
+     */
+    public void addPart(ByteBuf part, long durationMillis, boolean independent) {
+        writer.execute(() -> {
+            try {
+                write(part, segmentDirectory.resolve("data" + nextSequence + "_" + parts.size() + ".ts"));
+                parts.add(new Part(durationMillis, independent));
+                writePlaylist();
+            } catch (IOException e) {
+                log.error("Failed to write HLS part to {}", segmentDirectory, e);
+            } finally {
+                part.release();
+            }
+        });
+    }
+
+    /*
+    Takes ownership of the segment buffer
+     */
+    public void addSegment(ByteBuf segment, long durationMillis) {
+        writer.execute(() -> {
+            try {
+                long sequence = nextSequence++;
+                write(segment, segmentDirectory.resolve("data" + sequence + ".ts"));
+                window.addLast(new Segment(sequence, durationMillis, List.copyOf(parts)));
+                parts.clear();
+                targetDuration = Math.max(targetDuration, seconds(durationMillis));
+                while (window.size() > windowSize) {
+                    window.removeFirst();
+                }
+                writePlaylist();
+                delete(sequence - windowSize - RETAINED_AFTER_WINDOW);
+            } catch (IOException e) {
+                log.error("Failed to write HLS segment to {}", segmentDirectory, e);
+            } finally {
+                segment.release();
+            }
+        });
+    }
+
+    /*
+    Removes what the stream left on disk, as the ffmpeg exit handler did
+     */
+    public void close() {
+        writer.execute(() -> {
+            try {
+                Files.deleteIfExists(playlist);
+                if (Files.isDirectory(segmentDirectory)) {
+                    try (var files = Files.list(segmentDirectory)) {
+                        for (Path file : (Iterable<Path>) files::iterator) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Failed to clean up HLS files in {}", directory, e);
+            }
+        });
+    }
+
+    private void delete(long sequence) throws IOException {
+        if (sequence < 0) {
+            return;
+        }
+        Files.deleteIfExists(segmentDirectory.resolve("data" + sequence + ".ts"));
+        int part = 0;
+        while (Files.deleteIfExists(segmentDirectory.resolve("data" + sequence + "_" + part + ".ts"))) {
+            part++;
+        }
+    }
+
+    private void write(ByteBuf buffer, Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.isReadable()) {
+                buffer.readBytes(channel, buffer.readableBytes());
+            }
+        }
+    }
+
+    private void writePlaylist() throws IOException {
+        boolean lowLatency = partTargetMillis > 0;
+        StringBuilder m3u8 = new StringBuilder(256 + window.size() * 48 + parts.size() * 64)
+                .append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:").append(lowLatency ? 6 : 3).append('\n')
+                .append("#EXT-X-TARGETDURATION:").append(targetDuration).append('\n');
+        if (lowLatency) {
+            m3u8.append("#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=")
+                    .append(seconds3(partTargetMillis * 3)).append('\n')
+                    .append("#EXT-X-PART-INF:PART-TARGET=").append(seconds3(partTargetMillis)).append('\n');
+        }
+        m3u8.append("#EXT-X-MEDIA-SEQUENCE:").append(window.isEmpty() ? nextSequence : window.peekFirst().sequence()).append('\n');
+
+        int index = 0;
+        for (Segment segment : window) {
+            if (lowLatency && index++ >= window.size() - SEGMENTS_WITH_PARTS) {
+                appendParts(m3u8, segment.sequence(), segment.parts());
+            }
+            m3u8.append("#EXTINF:").append(seconds3(segment.durationMillis())).append(",\n")
+                    .append(segmentPrefix).append(segment.sequence()).append(".ts\n");
+        }
+        if (lowLatency) {
+            appendParts(m3u8, nextSequence, parts);
+            m3u8.append("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"")
+                    .append(segmentPrefix).append(nextSequence).append('_').append(parts.size()).append(".ts\"\n");
+        }
+        // Players must never see a half written playlist
+        Path temporary = directory.resolve(playlist.getFileName() + ".tmp");
+        Files.writeString(temporary, m3u8, StandardCharsets.UTF_8);
+        Files.move(temporary, playlist, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void appendParts(StringBuilder m3u8, long sequence, List<Part> segmentParts) {
+        for (int i = 0; i < segmentParts.size(); i++) {
+            Part part = segmentParts.get(i);
+            m3u8.append("#EXT-X-PART:DURATION=").append(seconds3(part.durationMillis()))
+                    .append(",URI=\"").append(segmentPrefix).append(sequence).append('_').append(i).append(".ts\"");
+            if (part.independent()) {
+                m3u8.append(",INDEPENDENT=YES");
+            }
+            m3u8.append('\n');
+        }
+    }
+
+    private static long seconds(long millis) {
+        return Math.max((millis + 999) / 1000, 1);
+    }
+
+    private static String seconds3(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+}
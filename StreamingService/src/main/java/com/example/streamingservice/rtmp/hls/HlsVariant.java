@@ -0,0 +1,8 @@
+package com.example.streamingservice.rtmp.hls;
+
+/*
+Rendition packaged in process, announced to the transcoding server so ffmpeg leaves it out
+and the master playlist points at it. Bandwidth in bits per second, 0 and empty resolution when the metadata had none.
+ */
+public record HlsVariant(String name, long bandwidth, String resolution) {
+}
@@ -0,0 +1,209 @@
+package com.example.streamingservice.rtmp.hls;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
+/*
+Minimal MPEG-TS writer for one program with an H.264 and an AAC (ADTS) elementary stream.
+PES packets are split into 188 byte TS packets straight into the segment buffer,
+the PCR rides on the adaptation field of every video PES.
+ */
+public class TsMuxer {
+
+    public static final int PACKET_SIZE = 188;
+
+    private static final int PAT_PID = 0x0000;
+    private static final int PMT_PID = 0x1000;
+    static final int VIDEO_PID = 0x0100;
+    static final int AUDIO_PID = 0x0101;
+
+    private static final int STREAM_TYPE_H264 = 0x1B;
+    private static final int STREAM_TYPE_AAC = 0x0F;
+
+    private static final int VIDEO_STREAM_ID = 0xE0;
+    private static final int AUDIO_STREAM_ID = 0xC0;
+
+    private static final int[] CRC_TABLE = new int[256];
+    private static final byte[] STUFFING = new byte[PACKET_SIZE];
+
+    static {
+        Arrays.fill(STUFFING, (byte) 0xFF);
+        // CRC-32/MPEG-2: polynomial 0x04C11DB7, not reflected, no final xor
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            }
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private int patCounter;
+    private int pmtCounter;
+    private int videoCounter;
+    private int audioCounter;
+
+    /*
+    PAT and PMT, written at the start of every segment so each one can be decoded on its own
+     */
+    public void writeTables(ByteBuf out) {
+        int start = out.writerIndex();
+        writePacketHeader(out, PAT_PID, true, false, patCounter);
+        patCounter = (patCounter + 1) & 0x0F;
+        out.writeByte(0); // pointer field
+        int section = out.writerIndex();
+        out.writeByte(0x00); // table id
+        out.writeShort(0xB000 | 13);
+        out.writeShort(0x0001); // transport stream id
+        out.writeByte(0xC1); // version 0, current
+        out.writeByte(0);
+        out.writeByte(0);
+        out.writeShort(0x0001); // program number
+        out.writeShort(0xE000 | PMT_PID);
+        out.writeInt(crc32(out, section, out.writerIndex() - section));
+        pad(out, start);
+
+        start = out.writerIndex();
+        writePacketHeader(out, PMT_PID, true, false, pmtCounter);
+        pmtCounter = (pmtCounter + 1) & 0x0F;
+        out.writeByte(0);
+        section = out.writerIndex();
+        out.writeByte(0x02);
+        out.writeShort(0xB000 | 23);
+        out.writeShort(0x0001);
+        out.writeByte(0xC1);
+        out.writeByte(0);
+        out.writeByte(0);
+        out.writeShort(0xE000 | VIDEO_PID); // PCR pid
+        out.writeShort(0xF000); // no program info
+        out.writeByte(STREAM_TYPE_H264);
+        out.writeShort(0xE000 | VIDEO_PID);
+        out.writeShort(0xF000);
+        out.writeByte(STREAM_TYPE_AAC);
+        out.writeShort(0xE000 | AUDIO_PID);
+        out.writeShort(0xF000);
+        out.writeInt(crc32(out, section, out.writerIndex() - section));
+        pad(out, start);
+    }
+
+    /*
+    Timestamps are in the 90kHz clock. The elementary stream is read from its reader index to the end.
+     */
+    public void writeVideo(ByteBuf out, ByteBuf es, long pts, long dts, boolean keyframe) {
+        boolean withDts = pts != dts;
+        int headerLength = withDts ? 10 : 5;
+        byte[] header = new byte[9 + headerLength];
+        writePesHeader(header, VIDEO_STREAM_ID, 0, headerLength); // unbounded length is allowed for video
+        writeTimestamp(header, 9, withDts ? 0x3 : 0x2, pts);
+        if (withDts) {
+            writeTimestamp(header, 14, 0x1, dts);
+        }
+        videoCounter = writePes(out, VIDEO_PID, videoCounter, header, es, dts * 300, keyframe);
+    }
+
+    public void writeAudio(ByteBuf out, ByteBuf es, long pts) {
+        byte[] header = new byte[14];
+        writePesHeader(header, AUDIO_STREAM_ID, 3 + 5 + es.readableBytes(), 5);
+        writeTimestamp(header, 9, 0x2, pts);
+        audioCounter = writePes(out, AUDIO_PID, audioCounter, header, es, -1, false);
+    }
+
+    /*
+    Returns the next continuity counter of the pid
+     */
+    private static int writePes(ByteBuf out, int pid, int counter, byte[] header, ByteBuf es, long pcr, boolean randomAccess) {
+        int headerOffset = 0;
+        boolean first = true;
+        while (headerOffset < header.length || es.isReadable()) {
+            int remaining = header.length - headerOffset + es.readableBytes();
+            // Adaptation field bytes after its length byte: flags and PCR on the first packet only
+            int adaptation = first && (pcr >= 0 || randomAccess) ? 1 + (pcr >= 0 ? 6 : 0) : -1;
+            int space = PACKET_SIZE - 4 - (adaptation >= 0 ? 1 + adaptation : 0);
+            if (remaining < space) {
+                // The tail is stuffed through the adaptation field, a new one spends a stuffing byte on its length
+                adaptation = adaptation < 0 ? space - remaining - 1 : adaptation + space - remaining;
+            }
+
+            writePacketHeader(out, pid, first, adaptation >= 0, counter);
+            counter = (counter + 1) & 0x0F;
+            if (adaptation >= 0) {
+                out.writeByte(adaptation);
+                if (adaptation > 0) {
+                    int flags = 0;
+                    if (first && randomAccess) {
+                        flags |= 0x40;
+                    }
+                    if (first && pcr >= 0) {
+                        flags |= 0x10;
+                    }
+                    out.writeByte(flags);
+                    int filled = 1;
+                    if (first && pcr >= 0) {
+                        writePcr(out, pcr);
+                        filled += 6;
+                    }
+                    out.writeBytes(STUFFING, 0, adaptation - filled);
+                }
+            }
+
+            int payload = PACKET_SIZE - 4 - (adaptation >= 0 ? 1 + adaptation : 0);
+            int fromHeader = Math.min(payload, header.length - headerOffset);
+            out.writeBytes(header, headerOffset, fromHeader);
+            headerOffset += fromHeader;
+            out.writeBytes(es, payload - fromHeader);
+            first = false;
+        }
+        return counter;
+    }
+
+    private static void writePacketHeader(ByteBuf out, int pid, boolean unitStart, boolean adaptation, int counter) {
+        out.writeByte(0x47);
+        out.writeByte((unitStart ? 0x40 : 0) | (pid >> 8));
+        out.writeByte(pid & 0xFF);
+        out.writeByte((adaptation ? 0x30 : 0x10) | counter);
+    }
+
+    private static void writePesHeader(byte[] header, int streamId, int packetLength, int headerLength) {
+        header[2] = 0x01;
+        header[3] = (byte) streamId;
+        if (packetLength <= 0xFFFF) {
+            header[4] = (byte) (packetLength >> 8);
+            header[5] = (byte) packetLength;
+        }
+        header[6] = (byte) 0x80;
+        header[7] = (byte) (headerLength == 10 ? 0xC0 : 0x80);
+        header[8] = (byte) headerLength;
+    }
+
+    private static void writeTimestamp(byte[] header, int offset, int prefix, long timestamp) {
+        header[offset] = (byte) ((prefix << 4) | ((timestamp >> 29) & 0x0E) | 1);
+        header[offset + 1] = (byte) (timestamp >> 22);
+        header[offset + 2] = (byte) (((timestamp >> 14) & 0xFE) | 1);
+        header[offset + 3] = (byte) (timestamp >> 7);
+        header[offset + 4] = (byte) (((timestamp << 1) & 0xFE) | 1);
+    }
+
+    private static void writePcr(ByteBuf out, long pcr) {
+        long base = pcr / 300;
+        int extension = (int) (pcr % 300);
+        out.writeByte((int) (base >> 25));
+        out.writeByte((int) (base >> 17));
+        out.writeByte((int) (base >> 9));
+        out.writeByte((int) (base >> 1));
+        out.writeByte((int) ((base & 1) << 7) | 0x7E | (extension >> 8));
+        out.writeByte(extension);
+    }
+
+    private static void pad(ByteBuf out, int packetStart) {
+        out.writeBytes(STUFFING, 0, PACKET_SIZE - (out.writerIndex() - packetStart));
+    }
+
+    static int crc32(ByteBuf buf, int offset, int length) {
+        int crc = 0xFFFFFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ buf.getByte(i)) & 0xFF];
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.streamingservice.rtmp.metrics;
+
+import com.example.streamingservice.rtmp.handlers.HandshakeLimiter;
+import com.example.streamingservice.rtmp.model.context.Stream;
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Node-wide meters of the RTMP pipeline. Per-stream meters live in StreamMetrics and are removed with the stream.
+Exposed through the actuator prometheus endpoint.
+ */
+@Getter
+public class RtmpMetrics {
+
+    // Command names come from the client, only these get their own tag
+    private static final List<String> COMMANDS = List.of("connect", "createStream", "publish", "play", "closeStream",
+            "deleteStream");
+
+    private final MeterRegistry registry;
+    private final boolean enabled;
+
+    private final Timer decodeLatency;
+    private final Counter ingestBytes;
+    private final Counter acknowledgementsSent;
+    private final DistributionSummary peerWindowSize;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Counter> commands = new HashMap<>();
+    @Getter(AccessLevel.NONE)
+    private final Counter otherCommands;
+
+    public RtmpMetrics(MeterRegistry registry) {
+        this(registry, true);
+    }
+
+    private RtmpMetrics(MeterRegistry registry, boolean enabled) {
+        this.registry = registry;
+        this.enabled = enabled;
+        this.decodeLatency = Timer.builder("rtmp.decode.latency")
+                .description("Time from the first chunk of a message to its last, reassembly included")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.ingestBytes = Counter.builder("rtmp.ingest.bytes")
+                .description("Bytes of complete messages received, headers included")
+                .baseUnit("bytes")
+                .register(registry);
+        this.acknowledgementsSent = Counter.builder("rtmp.ack.sent")
+                .description("Acknowledgements sent to peers")
+                .register(registry);
+        this.peerWindowSize = DistributionSummary.builder("rtmp.ack.window.size")
+                .description("Window acknowledgement sizes announced by peers")
+                .baseUnit("bytes")
+                .register(registry);
+        for (String command : COMMANDS) {
+            commands.put(command, registry.counter("rtmp.commands", "command", command));
+        }
+        this.otherCommands = registry.counter("rtmp.commands", "command", "other");
+    }
+
+    /*
+    Meters go nowhere, for handlers and streams created outside the Spring context
+     */
+    public static RtmpMetrics noop() {
+        return new RtmpMetrics(new CompositeMeterRegistry(), false);
+    }
+
+    public void command(String name) {
+        commands.getOrDefault(name, otherCommands).increment();
+    }
+
+    public StreamMetrics forStream(Stream stream) {
+        return enabled ? new StreamMetrics(registry, stream) : StreamMetrics.NOOP;
+    }
+
+    public void bindHandshakeLimiter(HandshakeLimiter limiter) {
+        Gauge.builder("rtmp.handshake.in-flight", limiter, HandshakeLimiter::getInFlight)
+                .description("Handshakes in progress")
+                .register(registry);
+        FunctionCounter.builder("rtmp.handshake.refused", limiter, HandshakeLimiter::getRefused)
+                .description("Connections refused by the handshake admission limit")
+                .register(registry);
+    }
+}
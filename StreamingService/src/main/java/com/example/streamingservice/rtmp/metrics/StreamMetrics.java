@@ -0,0 +1,78 @@
+package com.example.streamingservice.rtmp.metrics;
+
+import com.example.streamingservice.rtmp.model.context.Stream;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Meters of one stream, tagged with the stream name and a publish id.
+Bitrate and fps are the rates of the byte and frame counters, the gauges are read at scrape time.
+The publish id keeps a republish under the same name apart: the registry would otherwise hand the new stream
+the old stream's meters, and the old stream's close would remove them.
+ */
+@Getter
+public class StreamMetrics {
+
+    public static final StreamMetrics NOOP = new StreamMetrics();
+
+    private static final AtomicLong PUBLISHES = new AtomicLong();
+
+    private final MeterRegistry registry;
+    private final List<Meter> meters = new ArrayList<>();
+
+    private final Counter ingestBytes;
+    private final Counter videoFrames;
+    private final Counter audioFrames;
+    private final Counter egressBytes;
+    private final Counter droppedFrames;
+
+    private StreamMetrics() {
+        this.registry = new CompositeMeterRegistry();
+        Tags tags = Tags.empty();
+        this.ingestBytes = counter("rtmp.stream.ingest.bytes", tags);
+        this.videoFrames = counter("rtmp.stream.frames", tags.and("type", "video"));
+        this.audioFrames = counter("rtmp.stream.frames", tags.and("type", "audio"));
+        this.egressBytes = counter("rtmp.stream.egress.bytes", tags);
+        this.droppedFrames = counter("rtmp.stream.dropped.frames", tags);
+    }
+
+    StreamMetrics(MeterRegistry registry, Stream stream) {
+        this.registry = registry;
+        Tags tags = Tags.of("stream", stream.getStreamName(), "publish", Long.toString(PUBLISHES.incrementAndGet()));
+        this.ingestBytes = counter("rtmp.stream.ingest.bytes", tags);
+        this.videoFrames = counter("rtmp.stream.frames", tags.and("type", "video"));
+        this.audioFrames = counter("rtmp.stream.frames", tags.and("type", "audio"));
+        this.egressBytes = counter("rtmp.stream.egress.bytes", tags);
+        this.droppedFrames = counter("rtmp.stream.dropped.frames", tags);
+
+        meters.add(Gauge.builder("rtmp.stream.subscribers", stream, s -> s.getSubscribers().size())
+                .tags(tags).register(registry));
+        meters.add(Gauge.builder("rtmp.stream.gop.frames", stream, s -> s.getGopCache().size())
+                .tags(tags).register(registry));
+        meters.add(Gauge.builder("rtmp.stream.gop.bytes", stream, s -> s.getGopCache().bytes())
+                .tags(tags).baseUnit("bytes").register(registry));
+    }
+
+    private Counter counter(String name, Tags tags) {
+        Counter counter = Counter.builder(name).tags(tags).register(registry);
+        meters.add(counter);
+        return counter;
+    }
+
+    public void close() {
+        if (this == NOOP) {
+            return;
+        }
+        meters.forEach(registry::remove);
+        meters.clear();
+    }
+}
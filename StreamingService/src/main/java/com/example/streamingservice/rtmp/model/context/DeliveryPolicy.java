@@ -0,0 +1,13 @@
+package com.example.streamingservice.rtmp.model.context;
+
+/*
+What a subscriber gets while its channel is above the write-buffer high watermark
+ */
+public enum DeliveryPolicy {
+    // Drop everything while unwritable, then skip video until the next keyframe
+    DROP_UNTIL_KEYFRAME,
+    // Keep sending audio, drop video until writable again and the next keyframe arrives
+    AUDIO_ONLY,
+    // Close the connection once the drop threshold is reached, frames are dropped until then
+    DISCONNECT
+}
@@ -0,0 +1,208 @@
+package com.example.streamingservice.rtmp.model.context;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.function.Consumer;
+
+/*
+Ring buffer of the last GOPs of a stream, bounded by bytes instead of frames.
+Every cached byte is reserved from the node-wide GopCacheBudget. When the budget is exhausted the
+StreamContext reclaims memory from the largest caches, oldest GOP first. A cache that loses its
+current GOP stays empty until the next keyframe, so new viewers never start in the middle of a GOP.
+Frames sliced from inbound read buffers (COMPOSITE reassembly) are copied into an exact-size buffer first,
+otherwise a cached frame would pin whole read buffers the budget never sees.
+ */
+@Slf4j
+public class GopCache {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final long maxBytes;
+    private final int maxGops;
+    private final GopCacheBudget budget;
+    private final GopCacheReclaimer reclaimer;
+
+    private RtmpMediaMessage[] ring = new RtmpMediaMessage[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+    private int gops;
+    private long bytes;
+    // Set when frames of the current GOP were dropped, cleared by the next keyframe
+    private boolean overflowed;
+
+    public interface GopCacheReclaimer {
+        /*
+        Frees at least the given amount of budget from caches other than the requester, returns false if it could not
+         */
+        boolean reclaim(GopCache requester, long bytes);
+    }
+
+    public GopCache(long maxBytes, int maxGops, GopCacheBudget budget, GopCacheReclaimer reclaimer) {
+        this.maxBytes = maxBytes;
+        this.maxGops = Math.max(maxGops, 1);
+        this.budget = budget;
+        this.reclaimer = reclaimer;
+    }
+
+    public static GopCache unbounded() {
+        return new GopCache(Long.MAX_VALUE, 1, GopCacheBudget.unlimited(), (requester, bytes) -> false);
+    }
+
+    /*
+    Caches the message (retaining its own reference) and returns false when it had to be dropped
+     */
+    public boolean add(RtmpMediaMessage message, boolean keyframe) {
+        long length = message.payload().readableBytes();
+
+        synchronized (this) {
+            if (keyframe) {
+                overflowed = false;
+                gops++;
+                while (gops > maxGops) {
+                    dropOldestGop();
+                }
+            } else if (overflowed || gops == 0) {
+                // Frames before the first keyframe belong to no GOP, the cache always starts at a keyframe
+                return false;
+            }
+            // Make room inside the per-stream limit by giving up older GOPs first
+            while (bytes + length > maxBytes && gops > 1) {
+                dropOldestGop();
+            }
+            if (bytes + length > maxBytes) {
+                log.info("GOP exceeds {} bytes, caching stops until the next keyframe", maxBytes);
+                overflow();
+                return false;
+            }
+        }
+
+        // Reclaiming locks other caches, so it must not happen while this one is locked
+        if (!budget.tryReserve(length) && !(reclaimer.reclaim(this, length) && budget.tryReserve(length))) {
+            synchronized (this) {
+                boolean reserved = false;
+                while (gops > 1 && !(reserved = budget.tryReserve(length))) {
+                    dropOldestGop();
+                }
+                if (!reserved) {
+                    log.info("GOP cache memory budget exhausted, caching stops until the next keyframe");
+                    overflow();
+                    return false;
+                }
+            }
+        }
+
+        RtmpMediaMessage cached = exactSize(message);
+        synchronized (this) {
+            // Evicted by another stream while the budget was being reserved
+            if (overflowed) {
+                budget.release(length);
+                cached.release();
+                return false;
+            }
+            push(cached);
+            bytes += length;
+            return true;
+        }
+    }
+
+    /*
+    A new reference to the message, or to a copy of it when its payload holds on to more memory than its length
+     */
+    private static RtmpMediaMessage exactSize(RtmpMediaMessage message) {
+        ByteBuf payload = message.payload();
+        if (!(payload instanceof CompositeByteBuf) && payload.unwrap() == null) {
+            return message.retain();
+        }
+        int length = payload.readableBytes();
+        ByteBuf copy = payload.alloc().buffer(length, length).writeBytes(payload, payload.readerIndex(), length);
+        return new RtmpMediaMessage(message.header(), copy);
+    }
+
+    /*
+    Gives memory back to the budget, oldest GOP first. Returns the number of bytes freed.
+     */
+    public synchronized long evictOldestGop() {
+        long before = bytes;
+        if (gops > 1) {
+            dropOldestGop();
+        } else if (size > 0) {
+            overflow();
+        }
+        return before - bytes;
+    }
+
+    public synchronized void forEach(Consumer<RtmpMediaMessage> consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(ring[(head + i) & (ring.length - 1)]);
+        }
+    }
+
+    public synchronized void clear() {
+        while (size > 0) {
+            release(poll());
+        }
+        gops = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private void overflow() {
+        clear();
+        overflowed = true;
+    }
+
+    // Drops frames from the head up to (not including) the keyframe that starts the next GOP
+    private void dropOldestGop() {
+        if (size > 0) {
+            release(poll());
+        }
+        while (size > 0 && !isGopStart(ring[head])) {
+            release(poll());
+        }
+        gops = Math.max(gops - 1, 0);
+    }
+
+    private static boolean isGopStart(RtmpMediaMessage message) {
+        return message.isKeyframe() && !message.isVideoConfig();
+    }
+
+    private void push(RtmpMediaMessage message) {
+        if (size == ring.length) {
+            grow();
+        }
+        ring[(head + size) & (ring.length - 1)] = message;
+        size++;
+    }
+
+    private RtmpMediaMessage poll() {
+        RtmpMediaMessage message = ring[head];
+        ring[head] = null;
+        head = (head + 1) & (ring.length - 1);
+        size--;
+        return message;
+    }
+
+    private void release(RtmpMediaMessage message) {
+        bytes -= message.payload().readableBytes();
+        budget.release(message.payload().readableBytes());
+        message.release();
+    }
+
+    private void grow() {
+        RtmpMediaMessage[] grown = new RtmpMediaMessage[ring.length << 1];
+        for (int i = 0; i < size; i++) {
+            grown[i] = ring[(head + i) & (ring.length - 1)];
+        }
+        ring = grown;
+        head = 0;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.streamingservice.rtmp.model.context;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Node-wide ceiling on the bytes all GOP caches may hold together
+ */
+public class GopCacheBudget {
+
+    private final long limit;
+    private final AtomicLong used = new AtomicLong();
+
+    public GopCacheBudget(long limit) {
+        this.limit = limit;
+    }
+
+    public static GopCacheBudget unlimited() {
+        return new GopCacheBudget(Long.MAX_VALUE);
+    }
+
+    public boolean tryReserve(long bytes) {
+        while (true) {
+            long current = used.get();
+            if (current + bytes > limit) {
+                return false;
+            }
+            if (used.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+}
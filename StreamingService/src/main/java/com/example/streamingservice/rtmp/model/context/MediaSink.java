@@ -0,0 +1,15 @@
+package com.example.streamingservice.rtmp.model.context;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+
+/*
+In-process consumer of a stream's media, fed on the publisher's event loop right after the viewers.
+The message is only borrowed for the call: a sink that keeps it retains its own reference
+and reads the payload by index, since viewers share the same buffer.
+ */
+public interface MediaSink {
+
+    void onMedia(RtmpMediaMessage message);
+
+    void onClose();
+}
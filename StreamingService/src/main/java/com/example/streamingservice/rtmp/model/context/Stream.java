@@ -1,22 +1,27 @@
 package com.example.streamingservice.rtmp.model.context;
 
+import com.example.streamingservice.rtmp.amf0.Amf0Rules;
+import com.example.streamingservice.rtmp.metrics.StreamMetrics;
+import com.example.streamingservice.rtmp.model.messages.EncodedMediaMessage;
 import com.example.streamingservice.rtmp.model.messages.RtmpConstants;
 import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
 import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
 import com.example.streamingservice.rtmp.model.util.MessageProvider;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFutureListener;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Getter
 @Setter
@@ -24,92 +29,264 @@ import java.util.concurrent.CompletableFuture;
 public class Stream {
 
     private Map<String, Object> metadata;
+    // onMetaData encoded once when the publisher sets it, every viewer gets a view of it
+    @Getter(AccessLevel.NONE)
+    private volatile ByteBuf metadataPayload;
 
     private Channel publisher;
+    // Message stream the publisher sends on
+    private int publisherStreamId = RtmpConstants.RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE;
+    // Streamer the stream belongs to, renditions published next to the main stream share it
+    @Getter(AccessLevel.NONE)
+    private String owner;
 
-    private final Set<Channel> subscribers;
+    private final SubscriberRegistry subscribers;
+    private final List<MediaSink> sinks = new CopyOnWriteArrayList<>();
+
+    private DeliveryPolicy deliveryPolicy = DeliveryPolicy.DROP_UNTIL_KEYFRAME;
+    private SubscriberPlacement subscriberPlacement = SubscriberPlacement.ACCEPTING_LOOP;
+    private int disconnectThreshold;
     private final String streamName;
     private String streamKey;
 
-    private final BlockingQueue<RtmpMediaMessage> rtmpGopCache;
+    private final GopCache gopCache;
 
     private RtmpMediaMessage videoConfig;
     private RtmpMediaMessage audioConfig;
 
     private CompletableFuture<Boolean> readyToBroadcast;
 
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private StreamMetrics metrics = StreamMetrics.NOOP;
+
     public Stream(String streamName) {
+        this(streamName, GopCache.unbounded());
+    }
+
+    public Stream(String streamName, GopCache gopCache) {
         this.streamName = streamName;
-        this.subscribers = new LinkedHashSet<>();
-        this.rtmpGopCache = new ArrayBlockingQueue<>(1024);
+        this.subscribers = new SubscriberRegistry();
+        this.gopCache = gopCache;
         this.readyToBroadcast = new CompletableFuture<>();
     }
 
+    public void setMetadata(Map<String, Object> metadata) {
+        List<Object> onMetaData = new ArrayList<>();
+        onMetaData.add("onMetaData");
+        onMetaData.add(metadata);
+        ByteBuf payload = Unpooled.buffer();
+        Amf0Rules.encodeList(payload, onMetaData);
+
+        this.metadata = metadata;
+        this.metadataPayload = MessageProvider.template(payload);
+    }
+
+    public RtmpMessage metadataMessage() {
+        ByteBuf payload = metadataPayload;
+        if (payload == null) {
+            return MessageProvider.dataMessage(List.<Object>of("onMetaData", new Amf0Rules.Amf0Object()));
+        }
+        return MessageProvider.dataMessage(payload.duplicate());
+    }
+
+    /*
+    Takes ownership of one reference to the message. The config slots and the GOP cache keep their own references.
+     */
     public void addMedia(RtmpMediaMessage message) {
-        short type = message.header().getType();
+        try {
+            if (closed.get()) {
+                return;
+            }
+            short type = message.header().getType();
+            metrics.getIngestBytes().increment(message.header().getMessageLength());
+            boolean config = false;
+            boolean keyframe = false;
 
-        if (type == (short) RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO) {
-            if (message.isAudioConfig()) {
-                log.info("Audio config is set");
-                audioConfig = message;
+            if (type == (short) RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO) {
+                metrics.getAudioFrames().increment();
+                if (message.isAudioConfig()) {
+                    log.debug("Audio config is set");
+                    replaceAudioConfig(message.retain());
+                    config = true;
+                }
+            } else if (type == (short) RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO) {
+                metrics.getVideoFrames().increment();
+                if (message.isVideoConfig()) {
+                    log.debug("Video config is set");
+                    replaceVideoConfig(message.retain());
+                    config = true;
+                } else if (message.isKeyframe()) {
+                    // a keyframe starts a new GOP in the cache
+                    log.debug("Keyframe added. {} frames cached", gopCache.size());
+                    keyframe = true;
+                }
             }
-        } else if (type == (short) RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO) {
-            if (message.isVideoConfig()) {
-                log.info("Video config is set");
-                videoConfig = message;
+            // Configs are sent on their own when a subscriber joins
+            if (!config) {
+                gopCache.add(message, keyframe);
             }
-            // clear interFrames queue
-            if (message.isKeyframe()) {
-                log.info("Keyframe added. {} frames cleared", rtmpGopCache.size());
-                rtmpGopCache.clear();
+            broadcastMessage(message);
+            for (MediaSink sink : sinks) {
+                sink.onMedia(message);
             }
+        } finally {
+            message.release();
+        }
+    }
+
+    private synchronized void replaceAudioConfig(RtmpMediaMessage message) {
+        if (audioConfig != null) {
+            audioConfig.release();
         }
-        rtmpGopCache.add(message);
-        broadcastMessage(message);
+        audioConfig = message;
+    }
+
+    private synchronized void replaceVideoConfig(RtmpMediaMessage message) {
+        if (videoConfig != null) {
+            videoConfig.release();
+        }
+        videoConfig = message;
     }
 
     public void broadcastMessage(RtmpMediaMessage message) {
         if (!readyToBroadcast.isDone()) {
             readyToBroadcast.complete(Boolean.TRUE);
         }
-        Iterator<Channel> channelIterator = subscribers.iterator();
-        while (channelIterator.hasNext()) {
-            Channel next = channelIterator.next();
-            if (next.isActive()) {
-                next.writeAndFlush(RtmpMediaMessage.toRtmpMessage(message));
+        // Chunk-encode once, every subscriber gets a view of the same buffer
+        EncodedMediaMessage encoded = new EncodedMediaMessage(message, ByteBufAllocator.DEFAULT);
+        try {
+            // One task per event loop instead of one cross-thread write per subscriber
+            for (SubscriberRegistry.LoopGroup group : subscribers.snapshot()) {
+                if (group.eventLoop().inEventLoop()) {
+                    deliver(group, encoded);
+                } else {
+                    encoded.retain();
+                    group.eventLoop().execute(() -> {
+                        try {
+                            deliver(group, encoded);
+                        } finally {
+                            encoded.release();
+                        }
+                    });
+                }
+            }
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private void deliver(SubscriberRegistry.LoopGroup group, EncodedMediaMessage encoded) {
+        for (Subscriber subscriber : group.subscribers()) {
+            if (subscriber.getChannel().isActive()) {
+                subscriber.deliver(encoded);
             } else {
-                log.info("Inactive channel detected");
-                channelIterator.remove();
+                removeSubscriber(subscriber);
             }
         }
     }
 
+    public String getOwner() {
+        return owner != null ? owner : streamName;
+    }
+
     public void addSubscriber(Channel channel) {
+        addSubscriber(channel, RtmpConstants.RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE);
+    }
+
+    public Subscriber addSubscriber(Channel channel, int streamId) {
+        Subscriber subscriber = new Subscriber(channel, deliveryPolicy, disconnectThreshold, metrics, streamId);
+        addSubscriber(subscriber);
+        return subscriber;
+    }
+
+    /*
+    The viewer stopped playing but keeps its connection
+     */
+    public void removeSubscriber(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            // Per-viewer counts, the stream meters only show the sum
+            log.info("Subscriber {} left stream {}, {} frames delivered, {} dropped", subscriber.getChannel().remoteAddress(),
+                    streamName, subscriber.getDeliveredFrames().get(), subscriber.getDroppedFrames().get());
+        }
+    }
+
+    /*
+    Must be called on the subscriber channel's event loop, so no live frame is delivered before the GOP
+     */
+    public void addSubscriber(Subscriber subscriber) {
+        Channel channel = subscriber.getChannel();
         log.info("Subscriber {} added to stream {}", channel.remoteAddress(), streamName);
-        subscribers.add(channel);
+        subscribers.add(subscriber);
+        channel.closeFuture().addListener(future -> removeSubscriber(subscriber));
 
-        channel.writeAndFlush(RtmpMediaMessage.toRtmpMessage(videoConfig));
-        channel.writeAndFlush(RtmpMediaMessage.toRtmpMessage(audioConfig));
+        // Configs and the whole GOP are written back to back and flushed once
+        synchronized (this) {
+            if (videoConfig != null) {
+                subscriber.writeCached(videoConfig);
+            }
+            if (audioConfig != null) {
+                subscriber.writeCached(audioConfig);
+            }
+        }
+
+        log.debug("Sending group of pictures to client");
+        gopCache.forEach(subscriber::writeCached);
+        channel.flush();
+    }
 
-        log.info("Sending group of pictures to client");
-        for (RtmpMediaMessage message : rtmpGopCache) {
-            channel.writeAndFlush(RtmpMediaMessage.toRtmpMessage(message));
+    /*
+    Replays the configs and the cached GOP to the sink, then feeds it live media.
+    Runs on the publisher's event loop so no frame is missed or seen twice in between.
+     */
+    public void addSink(MediaSink sink) {
+        if (publisher != null && !publisher.eventLoop().inEventLoop()) {
+            publisher.eventLoop().execute(() -> addSink(sink));
+            return;
+        }
+        if (closed.get()) {
+            sink.onClose();
+            return;
+        }
+        synchronized (this) {
+            if (videoConfig != null) {
+                sink.onMedia(videoConfig);
+            }
+            if (audioConfig != null) {
+                sink.onMedia(audioConfig);
+            }
+        }
+        gopCache.forEach(sink::onMedia);
+        sinks.add(sink);
+        // closeStream may have run on another thread in between
+        if (closed.get() && sinks.remove(sink)) {
+            sink.onClose();
         }
     }
 
     public void closeStream() {
-        log.info("Closing stream");
-        RtmpMessage eof = MessageProvider.userControlMessageEvent(RtmpConstants.STREAM_EOF);
-        for (Channel channel : subscribers) {
-            channel.writeAndFlush(eof).addListener(ChannelFutureListener.CLOSE);
+        if (!closed.compareAndSet(false, true)) {
+            return;
         }
+        log.info("Closing stream");
+        // Viewers leave this stream only, their connections may carry other streams
+        subscribers.forEach(subscriber -> {
+            subscriber.endOfStream();
+            removeSubscriber(subscriber);
+        });
+        sinks.forEach(MediaSink::onClose);
+        sinks.clear();
+        gopCache.clear();
+        replaceVideoConfig(null);
+        replaceAudioConfig(null);
+        metrics.close();
     }
 
     public void sendPublishMessage() {
-        publisher.writeAndFlush(MessageProvider.onStatus(
+        publisher.writeAndFlush(MessageProvider.withStreamId(MessageProvider.onStatus(
                 "status",
                 "NetStream.Publish.Start",
-                "Start publishing"));
+                "Start publishing"), publisherStreamId));
     }
 
 }
@@ -1,13 +1,56 @@
 package com.example.streamingservice.rtmp.model.context;
 
+import com.example.streamingservice.rtmp.metrics.RtmpMetrics;
+
 import java.util.concurrent.ConcurrentHashMap;
 
-public class StreamContext {
+public class StreamContext implements GopCache.GopCacheReclaimer {
 
     public final ConcurrentHashMap<String, Stream> context;
 
+    private final GopCacheBudget gopCacheBudget;
+    private final long maxGopBytesPerStream;
+    private final int maxGopsPerStream;
+
+    private DeliveryPolicy deliveryPolicy = DeliveryPolicy.DROP_UNTIL_KEYFRAME;
+    private int disconnectThreshold;
+    private SubscriberPlacement subscriberPlacement = SubscriberPlacement.ACCEPTING_LOOP;
+
+    private RtmpMetrics metrics = RtmpMetrics.noop();
+
     public StreamContext() {
+        this(GopCacheBudget.unlimited(), Long.MAX_VALUE, 1);
+    }
+
+    public StreamContext(GopCacheBudget gopCacheBudget, long maxGopBytesPerStream, int maxGopsPerStream) {
         this.context = new ConcurrentHashMap<>();
+        this.gopCacheBudget = gopCacheBudget;
+        this.maxGopBytesPerStream = maxGopBytesPerStream;
+        this.maxGopsPerStream = maxGopsPerStream;
+    }
+
+    /*
+    Creates a stream whose GOP cache draws from the node-wide budget. The stream still has to be added.
+     */
+    public Stream newStream(String streamName) {
+        Stream stream = new Stream(streamName, new GopCache(maxGopBytesPerStream, maxGopsPerStream, gopCacheBudget, this));
+        stream.setDeliveryPolicy(deliveryPolicy);
+        stream.setDisconnectThreshold(disconnectThreshold);
+        stream.setSubscriberPlacement(subscriberPlacement);
+        stream.setMetrics(metrics.forStream(stream));
+        return stream;
+    }
+
+    /*
+    Applies to subscribers of streams created from now on
+     */
+    public void setDeliveryPolicy(DeliveryPolicy deliveryPolicy, int disconnectThreshold) {
+        this.deliveryPolicy = deliveryPolicy;
+        this.disconnectThreshold = disconnectThreshold;
+    }
+
+    public void setSubscriberPlacement(SubscriberPlacement subscriberPlacement) {
+        this.subscriberPlacement = subscriberPlacement;
     }
 
     public void addStream(Stream stream) {
@@ -24,4 +67,40 @@ public class StreamContext {
         }
         return context.getOrDefault(streamName, null);  // 왜 이렇게 했을까?
     }
+
+    public void setMetrics(RtmpMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public GopCacheBudget getGopCacheBudget() {
+        return gopCacheBudget;
+    }
+
+    /*
+    Takes the oldest GOP away from the largest cache until enough memory is free
+     */
+    @Override
+    public boolean reclaim(GopCache requester, long bytes) {
+        long freed = 0;
+        while (freed < bytes) {
+            GopCache largest = null;
+            long largestBytes = 0;
+            for (Stream stream : context.values()) {
+                GopCache cache = stream.getGopCache();
+                if (cache == requester) {
+                    continue;
+                }
+                long cached = cache.bytes();
+                if (cached > largestBytes) {
+                    largest = cache;
+                    largestBytes = cached;
+                }
+            }
+            if (largest == null) {
+                return false;
+            }
+            freed += largest.evictOldestGop();
+        }
+        return true;
+    }
 }
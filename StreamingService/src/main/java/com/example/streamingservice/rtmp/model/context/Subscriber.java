@@ -0,0 +1,132 @@
+package com.example.streamingservice.rtmp.model.context;
+
+import com.example.streamingservice.rtmp.handlers.ChunkEncoder;
+import com.example.streamingservice.rtmp.handlers.OutboundChunkState;
+import com.example.streamingservice.rtmp.metrics.StreamMetrics;
+import com.example.streamingservice.rtmp.model.messages.EncodedMediaMessage;
+import com.example.streamingservice.rtmp.model.messages.RtmpConstants;
+import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import com.example.streamingservice.rtmp.model.util.MessageProvider;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+A viewer of a Stream. Delivery follows the channel's write-buffer watermarks:
+while the channel is not writable frames are dropped according to the DeliveryPolicy.
+ */
+@Slf4j
+@Getter
+public class Subscriber {
+
+    private final Channel channel;
+    private final DeliveryPolicy policy;
+    // Consecutive drops after which the subscriber is disconnected, 0 disables it
+    private final int disconnectThreshold;
+    private final StreamMetrics metrics;
+    // Message stream the viewer plays on, one connection may play several streams
+    private final int streamId;
+
+    private final AtomicLong deliveredFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    private int consecutiveDrops;
+    private boolean waitingForKeyframe;
+
+    public Subscriber(Channel channel, DeliveryPolicy policy, int disconnectThreshold) {
+        this(channel, policy, disconnectThreshold, StreamMetrics.NOOP);
+    }
+
+    public Subscriber(Channel channel, DeliveryPolicy policy, int disconnectThreshold, StreamMetrics metrics) {
+        this(channel, policy, disconnectThreshold, metrics, RtmpConstants.RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE);
+    }
+
+    public Subscriber(Channel channel, DeliveryPolicy policy, int disconnectThreshold, StreamMetrics metrics, int streamId) {
+        this.channel = channel;
+        this.policy = policy;
+        this.disconnectThreshold = disconnectThreshold;
+        this.metrics = metrics;
+        this.streamId = streamId;
+    }
+
+    public void deliver(EncodedMediaMessage encoded) {
+        RtmpMediaMessage message = encoded.message();
+        if (shouldDeliver(message)) {
+            consecutiveDrops = 0;
+            deliveredFrames.incrementAndGet();
+            write(encoded);
+            return;
+        }
+
+        droppedFrames.incrementAndGet();
+        metrics.getDroppedFrames().increment();
+        consecutiveDrops++;
+        int threshold = policy == DeliveryPolicy.DISCONNECT ? Math.max(disconnectThreshold, 1) : disconnectThreshold;
+        if (threshold > 0 && consecutiveDrops >= threshold) {
+            log.info("Subscriber {} dropped {} frames in a row, disconnecting", channel.remoteAddress(), consecutiveDrops);
+            consecutiveDrops = 0;
+            channel.close();
+        }
+    }
+
+    /*
+    Writes a config or cached GOP frame on join, flushed by the caller
+     */
+    public void writeCached(RtmpMediaMessage message) {
+        channel.write(RtmpMediaMessage.toRtmpMessage(message, streamId));
+    }
+
+    /*
+    The stream ended. The viewer is told on its own message stream and keeps the connection,
+    which may still play or publish other streams.
+     */
+    public void endOfStream() {
+        channel.write(MessageProvider.userControlMessageEvent(RtmpConstants.STREAM_EOF, streamId));
+        channel.write(MessageProvider.withStreamId(
+                MessageProvider.onStatus("status", "NetStream.Play.UnpublishNotify", "Stream unpublished"), streamId));
+        channel.writeAndFlush(MessageProvider.withStreamId(
+                MessageProvider.onStatus("status", "NetStream.Play.Stop", "Stopped playing"), streamId));
+    }
+
+    /*
+    Picks the smallest chunk header for this connection and records it, so later messages on the cid compress against it
+     */
+    protected void write(EncodedMediaMessage encoded) {
+        OutboundChunkState state = ChunkEncoder.outboundState(channel);
+        RtmpHeader header = encoded.message().header();
+        int cid = header.getCid();
+        int timestamp = header.getTimestamp();
+
+        int fmt = state.selectFmt(cid, streamId, header.getType(), header.getMessageLength(), timestamp);
+        int timestampField = state.timestampField(fmt, cid, timestamp);
+        ByteBuf chunks = encoded.retainedChunks(state.getChunkSize(), fmt, timestampField, streamId);
+        metrics.getEgressBytes().increment(chunks.readableBytes());
+        channel.writeAndFlush(chunks);
+        state.update(fmt, cid, streamId, header.getType(), header.getMessageLength(), timestamp);
+    }
+
+    private boolean shouldDeliver(RtmpMediaMessage message) {
+        boolean video = message.header().getType() == RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+        boolean writable = channel.isWritable();
+
+        if (!writable) {
+            if (video) {
+                waitingForKeyframe = true;
+            }
+            // Audio is tiny and keeps the player alive, everything else is dropped
+            return !video && policy == DeliveryPolicy.AUDIO_ONLY;
+        }
+        if (video && waitingForKeyframe) {
+            // Inter-frames are useless until the decoder gets a new reference
+            if (!message.isKeyframe()) {
+                return false;
+            }
+            waitingForKeyframe = false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.streamingservice.rtmp.model.context;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+Which event loop a subscriber channel lives on while it plays a stream
+ */
+@Slf4j
+public enum SubscriberPlacement {
+    // Subscribers stay on the loop that accepted them, the broadcast hands every other loop one task per frame
+    ACCEPTING_LOOP,
+    // Subscribers are moved to the publisher's loop when they join, the broadcast writes to them in place.
+    // Trades cross-thread hand-offs for concentrating a big audience on one loop.
+    PUBLISHER_LOOP;
+
+    /*
+    Runs the join on the event loop the subscriber ends up on. A channel that can't be moved
+    (another transport, registration refused) joins from the loop it came from.
+    The move is queued on the subscriber's loop, so it starts only after the current read (the play
+    command being decoded) has returned and never deregisters a channel from inside its own pipeline.
+    What is bound to a loop when it is created stays on the origin loop after the move: reactor-netty's
+    inbound receive of the connection (it keeps the loop it saw at connect and dispatches request and
+    cancel there) and timers already scheduled by handlers, like a pending WindowedFlushHandler flush.
+    Those only touch the channel through its pipeline, which hands the call over to the new loop.
+    Subscriptions and broadcasts the connection already has are bucketed by its current loop, so only a connection
+    without any may be placed. RtmpMessageHandler joins later plays in place.
+     */
+    public void place(Channel subscriber, Channel publisher, Runnable join) {
+        if (this == ACCEPTING_LOOP || publisher == null || subscriber.eventLoop() == publisher.eventLoop()) {
+            join.run();
+            return;
+        }
+        EventLoop origin = subscriber.eventLoop();
+        EventLoop target = publisher.eventLoop();
+        origin.execute(() -> move(subscriber, origin, target, join));
+    }
+
+    private static void move(Channel subscriber, EventLoop origin, EventLoop target, Runnable join) {
+        // The viewer may have gone before the move got its turn
+        if (!subscriber.isOpen()) {
+            return;
+        }
+        // Reads stop while the channel is between loops, queued writes are kept and flushed after the move
+        subscriber.deregister().addListener(deregistered -> {
+            if (!deregistered.isSuccess()) {
+                join.run();
+                return;
+            }
+            target.register(subscriber).addListener(registered -> {
+                if (registered.isSuccess()) {
+                    join.run();
+                    return;
+                }
+                log.info("Subscriber {} stays on its event loop: {}", subscriber.remoteAddress(), registered.cause().getMessage());
+                origin.register(subscriber).addListener(restored -> {
+                    if (restored.isSuccess()) {
+                        join.run();
+                    } else {
+                        subscriber.close();
+                    }
+                });
+            });
+        });
+    }
+}
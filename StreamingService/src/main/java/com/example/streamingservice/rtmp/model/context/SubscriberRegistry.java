@@ -0,0 +1,91 @@
+package com.example.streamingservice.rtmp.model.context;
+
+import io.netty.channel.EventLoop;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/*
+Copy-on-write registry of the subscribers of a stream, bucketed by the event loop of each subscriber channel.
+Joins and leaves are rare and copy the snapshot under a lock, the broadcast path only reads the volatile
+snapshot, so it iterates without locking or allocating an iterator and can hand each bucket to its loop as one task.
+ */
+public class SubscriberRegistry {
+
+    private static final LoopGroup[] EMPTY = new LoopGroup[0];
+
+    private volatile LoopGroup[] groups = EMPTY;
+
+    public record LoopGroup(EventLoop eventLoop, Subscriber[] subscribers) {
+    }
+
+    public synchronized void add(Subscriber subscriber) {
+        EventLoop eventLoop = subscriber.getChannel().eventLoop();
+        LoopGroup[] current = groups;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].eventLoop() == eventLoop) {
+                Subscriber[] members = current[i].subscribers();
+                Subscriber[] grown = Arrays.copyOf(members, members.length + 1);
+                grown[members.length] = subscriber;
+
+                LoopGroup[] next = current.clone();
+                next[i] = new LoopGroup(eventLoop, grown);
+                groups = next;
+                return;
+            }
+        }
+        LoopGroup[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = new LoopGroup(eventLoop, new Subscriber[]{subscriber});
+        groups = next;
+    }
+
+    public synchronized boolean remove(Subscriber subscriber) {
+        LoopGroup[] current = groups;
+        for (int i = 0; i < current.length; i++) {
+            Subscriber[] members = current[i].subscribers();
+            for (int j = 0; j < members.length; j++) {
+                if (members[j] != subscriber) {
+                    continue;
+                }
+                if (members.length == 1) {
+                    LoopGroup[] next = new LoopGroup[current.length - 1];
+                    System.arraycopy(current, 0, next, 0, i);
+                    System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                    groups = next;
+                } else {
+                    Subscriber[] shrunk = new Subscriber[members.length - 1];
+                    System.arraycopy(members, 0, shrunk, 0, j);
+                    System.arraycopy(members, j + 1, shrunk, j, members.length - j - 1);
+                    LoopGroup[] next = current.clone();
+                    next[i] = new LoopGroup(current[i].eventLoop(), shrunk);
+                    groups = next;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    The returned arrays are never modified, callers may iterate them from any thread
+     */
+    public LoopGroup[] snapshot() {
+        return groups;
+    }
+
+    public int size() {
+        int size = 0;
+        for (LoopGroup group : groups) {
+            size += group.subscribers().length;
+        }
+        return size;
+    }
+
+    public void forEach(Consumer<Subscriber> consumer) {
+        for (LoopGroup group : groups) {
+            for (Subscriber subscriber : group.subscribers()) {
+                consumer.accept(subscriber);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.streamingservice.rtmp.model.messages;
+
+import com.example.streamingservice.rtmp.flv.FlvTags;
+import com.example.streamingservice.rtmp.handlers.ChunkEncoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Media message chunk-encoded once per distinct first chunk header and shared by every subscriber.
+Subscribers in the same header compression state (chunk size, fmt, timestamp field, message stream id) share one encoding.
+Subscribers get retainedDuplicate() views of the encoded chunks, the chunks are released with this object.
+FLV viewers share one FLV tag the same way.
+ */
+public class EncodedMediaMessage extends AbstractReferenceCounted {
+
+    private final RtmpMediaMessage message;
+    private final ByteBufAllocator allocator;
+
+    // Steady-state subscribers all land on the same few headers, so a tiny list beats a map here
+    private final List<Encoding> encodings = new ArrayList<>(2);
+    private ByteBuf flvTag;
+
+    private record Encoding(int chunkSize, int fmt, int timestampField, int streamId, ByteBuf chunks) {
+
+        boolean matches(int chunkSize, int fmt, int timestampField, int streamId) {
+            return this.chunkSize == chunkSize && this.fmt == fmt
+                    && this.timestampField == timestampField && this.streamId == streamId;
+        }
+    }
+
+    public EncodedMediaMessage(RtmpMediaMessage message, ByteBufAllocator allocator) {
+        this.message = message.retain();
+        this.allocator = allocator;
+    }
+
+    public RtmpMediaMessage message() {
+        return message;
+    }
+
+    /*
+    Returns a view of the chunks for the given header which the caller owns and may write to a channel
+     */
+    public synchronized ByteBuf retainedChunks(int chunkSize, int fmt, int timestampField, int streamId) {
+        for (Encoding encoding : encodings) {
+            if (encoding.matches(chunkSize, fmt, timestampField, streamId)) {
+                return encoding.chunks().retainedDuplicate();
+            }
+        }
+        RtmpHeader header = message.header();
+        ByteBuf chunks = allocator.buffer(ChunkEncoder.maxEncodedSize(header.getMessageLength(), chunkSize));
+        ChunkEncoder.encodeMessage(header, message.payload(), fmt, timestampField, streamId, chunkSize, chunks);
+        encodings.add(new Encoding(chunkSize, fmt, timestampField, streamId, chunks));
+        return chunks.retainedDuplicate();
+    }
+
+    public synchronized ByteBuf retainedFlvTag() {
+        if (flvTag == null) {
+            flvTag = FlvTags.tag(allocator, message.header().getType(), message.header().getTimestamp(), message.payload());
+        }
+        return flvTag.retainedDuplicate();
+    }
+
+    @Override
+    protected synchronized void deallocate() {
+        if (flvTag != null) {
+            flvTag.release();
+            flvTag = null;
+        }
+        for (Encoding encoding : encodings) {
+            encoding.chunks().release();
+        }
+        encodings.clear();
+        message.release();
+    }
+
+    @Override
+    public ReferenceCounted touch(Object hint) {
+        return this;
+    }
+}
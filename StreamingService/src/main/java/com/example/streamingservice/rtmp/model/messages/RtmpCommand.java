@@ -0,0 +1,138 @@
+package com.example.streamingservice.rtmp.model.messages;
+
+import com.example.streamingservice.rtmp.amf0.Amf0Visitor;
+import lombok.Getter;
+import lombok.ToString;
+
+/*
+The parts of an AMF0 command the server acts on, filled by Amf0Reader.
+    [0] command name, [1] transaction id, [2] command object (connect: app, tcUrl, objectEncoding),
+    [3..] arguments (publish: stream key, publishing type; play: stream name; deleteStream: message stream id)
+One instance is reused per connection, call reset() before reading the next command.
+ */
+@Getter
+@ToString
+public class RtmpCommand implements Amf0Visitor {
+
+    private static final int MAX_ARGUMENTS = 2;
+
+    private String name;
+    private double transactionId;
+    private String app;
+    private String tcUrl;
+    private double objectEncoding;
+    // First argument when it is a number
+    private double streamId;
+    private final String[] arguments = new String[MAX_ARGUMENTS];
+
+    @ToString.Exclude
+    private int index;
+    @ToString.Exclude
+    private int depth;
+    @ToString.Exclude
+    private String key;
+
+    public RtmpCommand() {
+        reset();
+    }
+
+    public void reset() {
+        name = null;
+        transactionId = 0;
+        app = null;
+        tcUrl = null;
+        objectEncoding = 0;
+        streamId = 0;
+        arguments[0] = null;
+        arguments[1] = null;
+        index = -1;
+        depth = 0;
+        key = null;
+    }
+
+    public String getArgument(int i) {
+        return i < MAX_ARGUMENTS ? arguments[i] : null;
+    }
+
+    @Override
+    public void number(double value) {
+        value();
+        if (depth == 0 && index == 1) {
+            transactionId = value;
+        } else if (depth == 0 && index == 3) {
+            streamId = value;
+        } else if (inCommandObject() && "objectEncoding".equals(key)) {
+            objectEncoding = value;
+        }
+    }
+
+    @Override
+    public void string(String value) {
+        value();
+        if (depth == 0) {
+            if (index == 0) {
+                name = value;
+            } else if (index >= 3 && index - 3 < MAX_ARGUMENTS) {
+                arguments[index - 3] = value;
+            }
+        } else if (inCommandObject()) {
+            if ("app".equals(key)) {
+                app = value;
+            } else if ("tcUrl".equals(key)) {
+                tcUrl = value;
+            }
+        }
+    }
+
+    @Override
+    public void bool(boolean value) {
+        value();
+    }
+
+    @Override
+    public void nullValue() {
+        value();
+    }
+
+    @Override
+    public void date(double epochMillis) {
+        value();
+    }
+
+    @Override
+    public void objectStart() {
+        value();
+        depth++;
+    }
+
+    @Override
+    public void key(String key) {
+        this.key = key;
+    }
+
+    @Override
+    public void objectEnd() {
+        depth--;
+    }
+
+    @Override
+    public void arrayStart(int length) {
+        value();
+        depth++;
+    }
+
+    @Override
+    public void arrayEnd() {
+        depth--;
+    }
+
+    private void value() {
+        if (depth == 0) {
+            index++;
+        }
+    }
+
+    private boolean inCommandObject() {
+        return depth == 1 && index == 2;
+    }
+}
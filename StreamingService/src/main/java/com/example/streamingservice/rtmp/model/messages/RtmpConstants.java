@@ -10,7 +10,8 @@ public class RtmpConstants {
 
 
     public static final int RTMP_DEFAULT_OUTPUT_ACK_SIZE = 5_000_000;
-    public static final int RTMP_DEFAULT_OUTPUT_CHUNK_SIZE = 5000;
+    public static final int RTMP_DEFAULT_OUTPUT_CHUNK_SIZE = 4096;
+    public static final int RTMP_MAX_OUTPUT_CHUNK_SIZE = 65536;
     /*
      *   The message stream ID can be any arbitrary value.
      *   Different message streams multiplexed onto the same chunk stream are demultiplexed based on their message stream IDs.
@@ -13,4 +13,21 @@ public class RtmpHeader {
     int timestampDelta;
     long extendedTimestamp;
     int headerLength;
+
+    /*
+    Shared headers are never modified, a message going out on another message stream gets a copy
+     */
+    public RtmpHeader withStreamId(int streamId) {
+        RtmpHeader copy = new RtmpHeader();
+        copy.fmt = fmt;
+        copy.cid = cid;
+        copy.timestamp = timestamp;
+        copy.messageLength = messageLength;
+        copy.type = type;
+        copy.streamId = streamId;
+        copy.timestampDelta = timestampDelta;
+        copy.extendedTimestamp = extendedTimestamp;
+        copy.headerLength = headerLength;
+        return copy;
+    }
 }
@@ -1,28 +1,87 @@
 package com.example.streamingservice.rtmp.model.messages;
 
-import io.netty.buffer.ByteBufUtil;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
 
-public record RtmpMediaMessage(RtmpHeader header, byte[] payload) {
+/*
+Audio/video message backed by the (pooled) buffer it was decoded into.
+Whoever holds a reference (stream, GOP cache, config slots) retains it and releases it when done.
+ */
+public record RtmpMediaMessage(RtmpHeader header, ByteBuf payload) implements ReferenceCounted {
 
+    /*
+    Takes a new reference to the payload, so the caller can still release the original message
+     */
     public static RtmpMediaMessage fromRtmpMessage(RtmpMessage message) {
-        return new RtmpMediaMessage(message.header(), ByteBufUtil.getBytes(message.payload()));
+        return new RtmpMediaMessage(message.header(), message.payload().retain());
     }
 
+    /*
+    Every send gets its own reader index and its own reference, released by the ChunkEncoder
+     */
     public static RtmpMessage toRtmpMessage(RtmpMediaMessage message) {
-        return new RtmpMessage(message.header(), Unpooled.wrappedBuffer(message.payload()));
+        return new RtmpMessage(message.header(), message.payload().retainedDuplicate());
+    }
+
+    /*
+    Same, sent on the receiver's message stream
+     */
+    public static RtmpMessage toRtmpMessage(RtmpMediaMessage message, int streamId) {
+        RtmpHeader header = message.header();
+        if (header.getStreamId() != streamId) {
+            header = header.withStreamId(streamId);
+        }
+        return new RtmpMessage(header, message.payload().retainedDuplicate());
     }
 
     public boolean isAudioConfig() {
-        return this.payload.length > 1 && this.payload[1] == 0x00;
+        return this.payload.readableBytes() > 1 && this.payload.getByte(this.payload.readerIndex() + 1) == 0x00;
     }
 
     public boolean isKeyframe() {
-        return this.payload.length > 1 && this.payload[0] == 0x17;
+        return this.payload.readableBytes() > 1 && this.payload.getByte(this.payload.readerIndex()) == 0x17;
     }
 
     public boolean isVideoConfig() {
-        return this.payload.length > 1 && this.payload[1] == 0x00;
+        return this.payload.readableBytes() > 1 && this.payload.getByte(this.payload.readerIndex() + 1) == 0x00;
+    }
+
+    @Override
+    public int refCnt() {
+        return payload.refCnt();
+    }
+
+    @Override
+    public RtmpMediaMessage retain() {
+        payload.retain();
+        return this;
+    }
+
+    @Override
+    public RtmpMediaMessage retain(int increment) {
+        payload.retain(increment);
+        return this;
     }
 
+    @Override
+    public RtmpMediaMessage touch() {
+        payload.touch();
+        return this;
+    }
+
+    @Override
+    public RtmpMediaMessage touch(Object hint) {
+        payload.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return payload.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return payload.release(decrement);
+    }
 }
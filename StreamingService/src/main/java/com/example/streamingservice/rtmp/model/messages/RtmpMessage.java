@@ -1,6 +1,49 @@
 package com.example.streamingservice.rtmp.model.messages;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
 
-public record RtmpMessage(RtmpHeader header, ByteBuf payload) {
+/*
+Reference counted through its payload, so Netty codecs release it once it has been decoded or encoded
+ */
+public record RtmpMessage(RtmpHeader header, ByteBuf payload) implements ReferenceCounted {
+
+    @Override
+    public int refCnt() {
+        return payload.refCnt();
+    }
+
+    @Override
+    public RtmpMessage retain() {
+        payload.retain();
+        return this;
+    }
+
+    @Override
+    public RtmpMessage retain(int increment) {
+        payload.retain(increment);
+        return this;
+    }
+
+    @Override
+    public RtmpMessage touch() {
+        payload.touch();
+        return this;
+    }
+
+    @Override
+    public RtmpMessage touch(Object hint) {
+        payload.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return payload.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return payload.release(decrement);
+    }
 }
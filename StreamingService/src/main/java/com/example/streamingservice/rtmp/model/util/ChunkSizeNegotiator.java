@@ -0,0 +1,39 @@
+package com.example.streamingservice.rtmp.model.util;
+
+import java.util.Map;
+
+/*
+Picks the outbound chunk size of a viewer from the stream metadata.
+The goal is roughly one chunk per average frame: the smallest power of two holding an average frame,
+clamped to the configured bounds. Without bitrate information the fallback size is used.
+ */
+public class ChunkSizeNegotiator {
+
+    private static final double DEFAULT_FRAMERATE = 30;
+
+    public static int negotiate(Map<String, Object> metadata, int minChunkSize, int maxChunkSize, int fallback) {
+        if (metadata == null) {
+            return fallback;
+        }
+        double videoKbps = number(metadata.get("videodatarate"));
+        double audioKbps = number(metadata.get("audiodatarate"));
+        if (videoKbps + audioKbps <= 0) {
+            return fallback;
+        }
+        double framerate = number(metadata.get("framerate"));
+        if (framerate <= 0) {
+            framerate = DEFAULT_FRAMERATE;
+        }
+
+        long bytesPerFrame = (long) ((videoKbps + audioKbps) * 1000 / 8 / framerate);
+        long chunkSize = Long.highestOneBit(Math.max(bytesPerFrame, 1));
+        if (chunkSize < bytesPerFrame) {
+            chunkSize <<= 1;
+        }
+        return (int) Math.max(minChunkSize, Math.min(maxChunkSize, chunkSize));
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number number ? number.doubleValue() : 0;
+    }
+}
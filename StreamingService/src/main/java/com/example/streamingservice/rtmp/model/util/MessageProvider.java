@@ -1,81 +1,186 @@
 package com.example.streamingservice.rtmp.model.util;
 
 import com.example.streamingservice.rtmp.amf0.Amf0Rules;
-import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
 import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE;
 
+/*
+Payloads of fixed messages are encoded once and shared by every connection.
+Templates are read-only and unreleasable, every message gets its own duplicate() view,
+so the encoder releasing the message never frees the template.
+Messages with a variable transaction id copy the template and patch the number in place.
+ */
 public class MessageProvider {
 
-    public static RtmpMessage onStatus(String level, String code, String description) {
-        List<Object> result = new ArrayList<>();
-        result.add("onStatus");
-        result.add(0);
-        result.add(null);
+    private static final Map<Integer, ByteBuf> SET_CHUNK_SIZES = new ConcurrentHashMap<>();
+    private static final Map<Integer, ByteBuf> WINDOW_ACKNOWLEDGEMENTS = new ConcurrentHashMap<>();
+    private static final Map<Long, ByteBuf> PEER_BANDWIDTHS = new ConcurrentHashMap<>();
+    private static final Map<Status, ByteBuf> STATUSES = new ConcurrentHashMap<>();
 
-        Amf0Rules.Amf0Object status = new Amf0Rules.Amf0Object();
-        status.put("level", level);
-        status.put("code", code);
-        status.put("description", description);
+    private static final ByteBuf SAMPLE_ACCESS = template(encode(List.<Object>of("|RtmpSampleAccess", true, true)));
+    private static final ByteBuf CONNECT_RESULT = template(encode(connectResultObjects()));
+    private static final ByteBuf CREATE_STREAM_RESULT = template(encode(createStreamResultObjects()));
 
-        result.add(status);
+    // "_result" string marker, length and bytes followed by the number marker
+    private static final int RESULT_TRANSACTION_ID_OFFSET = 1 + 2 + "_result".length() + 1;
 
-        ByteBuf payload = Unpooled.buffer();
-        Amf0Rules.encodeList(payload, result);
+    private record Status(String level, String code, String description) {
+    }
 
-        RtmpHeader header = HeaderProvider.commandMessageHeader(payload.readableBytes());
+    /*
+    Wraps an encoded payload as a shared template
+     */
+    public static ByteBuf template(ByteBuf payload) {
+        return Unpooled.unreleasableBuffer(payload.asReadOnly());
+    }
 
-        return new RtmpMessage(header, payload);
+    public static RtmpMessage onStatus(String level, String code, String description) {
+        ByteBuf template = STATUSES.computeIfAbsent(new Status(level, code, description), status -> {
+            List<Object> result = new ArrayList<>();
+            result.add("onStatus");
+            result.add(0);
+            result.add(null);
+
+            Amf0Rules.Amf0Object info = new Amf0Rules.Amf0Object();
+            info.put("level", status.level());
+            info.put("code", status.code());
+            info.put("description", status.description());
+
+            result.add(info);
+            return template(encode(result));
+        });
+        return commandMessage(template.duplicate());
     }
 
     public static RtmpMessage userControlMessageEvent(int event) {
-        RtmpHeader userCtrlEventHandler = HeaderProvider.userControlMessageEventHeader(event);
-        ByteBuf userCtrlEventPayload = Unpooled
-                .buffer(6)
-                .writeShort((short) event)
-                .writeInt(RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE);
-        return new RtmpMessage(userCtrlEventHandler, userCtrlEventPayload);
+        return userControlMessageEvent(event, RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE);
+    }
+
+    /*
+    Stream events (begin, EOF) carry the message stream id they are about. Stream ids are picked by the client,
+    so the six bytes are written fresh instead of being cached per id.
+     */
+    public static RtmpMessage userControlMessageEvent(int event, int streamId) {
+        ByteBuf payload = Unpooled.buffer(6, 6).writeShort(event).writeInt(streamId);
+        return withStreamId(new RtmpMessage(HeaderProvider.userControlMessageEventHeader(event), payload), streamId);
+    }
+
+    /*
+    Moves a message built with the default message stream id onto the given one, headers are never shared
+     */
+    public static RtmpMessage withStreamId(RtmpMessage message, int streamId) {
+        message.header().setStreamId(streamId);
+        return message;
+    }
+
+    public static RtmpMessage sampleAccess() {
+        return commandMessage(SAMPLE_ACCESS.duplicate());
+    }
+
+    /*
+    _result of connect with the client's transaction id patched into the template
+     */
+    public static RtmpMessage connectResult(double transactionId) {
+        ByteBuf payload = copyOf(CONNECT_RESULT);
+        payload.setDouble(RESULT_TRANSACTION_ID_OFFSET, transactionId);
+        return commandMessage(payload);
+    }
+
+    /*
+    _result of createStream, the transaction id and the message stream id are patched into the template
+     */
+    public static RtmpMessage createStreamResult(double transactionId, int streamId) {
+        ByteBuf payload = copyOf(CREATE_STREAM_RESULT);
+        payload.setDouble(RESULT_TRANSACTION_ID_OFFSET, transactionId);
+        // The stream id is the trailing number
+        payload.setDouble(payload.writerIndex() - 8, streamId);
+        return commandMessage(payload);
     }
 
     public static RtmpMessage commandMessage(List<Object> objects) {
-        ByteBuf commandBuf = Unpooled.buffer();
-        Amf0Rules.encodeList(commandBuf, objects);
-        int size = commandBuf.readableBytes();
+        return commandMessage(encode(objects));
+    }
 
-        return new RtmpMessage(HeaderProvider.commandMessageHeader(size), commandBuf);
+    public static RtmpMessage commandMessage(ByteBuf payload) {
+        return new RtmpMessage(HeaderProvider.commandMessageHeader(payload.readableBytes()), payload);
     }
 
     public static RtmpMessage dataMessage(List<Object> objects) {
-        ByteBuf commandBuf = Unpooled.buffer();
-        Amf0Rules.encodeList(commandBuf, objects);
-        int size = commandBuf.readableBytes();
+        return dataMessage(encode(objects));
+    }
 
-        return new RtmpMessage(HeaderProvider.dataMessageHeader(size), commandBuf);
+    public static RtmpMessage dataMessage(ByteBuf payload) {
+        return new RtmpMessage(HeaderProvider.dataMessageHeader(payload.readableBytes()), payload);
     }
 
     public static RtmpMessage setWindowAcknowledgement(int ackSize) {
-        ByteBuf payload = Unpooled.buffer(4).writeInt(ackSize);
-        return new RtmpMessage(HeaderProvider.setWindowAcknowledgementHeader(), payload);
+        ByteBuf template = WINDOW_ACKNOWLEDGEMENTS.computeIfAbsent(ackSize,
+                key -> template(Unpooled.buffer(4).writeInt(key)));
+        return new RtmpMessage(HeaderProvider.setWindowAcknowledgementHeader(), template.duplicate());
     }
 
     public static RtmpMessage setPeerBandwidth(int bandwidth, int type) {
-        ByteBuf payload = Unpooled.buffer(5).writeInt(bandwidth).writeByte(type);
-        return new RtmpMessage(HeaderProvider.setPeerBandwidthHeader(), payload);
+        ByteBuf template = PEER_BANDWIDTHS.computeIfAbsent(((long) bandwidth << 8) | type,
+                key -> template(Unpooled.buffer(5).writeInt(bandwidth).writeByte(type)));
+        return new RtmpMessage(HeaderProvider.setPeerBandwidthHeader(), template.duplicate());
     }
 
     public static RtmpMessage setChunkSize(int chunkSize) {
-        ByteBuf payload = Unpooled.buffer(4).writeInt(chunkSize);
-        return new RtmpMessage(HeaderProvider.setChunkSizeHeader(), payload);
+        ByteBuf template = SET_CHUNK_SIZES.computeIfAbsent(chunkSize,
+                key -> template(Unpooled.buffer(4).writeInt(key)));
+        return new RtmpMessage(HeaderProvider.setChunkSizeHeader(), template.duplicate());
     }
 
     public static RtmpMessage acknowledgement(int sequence) {
-        ByteBuf payload = Unpooled.buffer().writeInt(sequence);
+        ByteBuf payload = Unpooled.buffer(4).writeInt(sequence);
         return new RtmpMessage(HeaderProvider.acknowledgementHeader(), payload);
     }
+
+    private static ByteBuf encode(List<Object> objects) {
+        ByteBuf payload = Unpooled.buffer();
+        Amf0Rules.encodeList(payload, objects);
+        return payload;
+    }
+
+    private static ByteBuf copyOf(ByteBuf template) {
+        int length = template.readableBytes();
+        return Unpooled.buffer(length, length).writeBytes(template, template.readerIndex(), length);
+    }
+
+    private static List<Object> connectResultObjects() {
+        List<Object> result = new ArrayList<>();
+
+        Amf0Rules.Amf0Object cmdObj = new Amf0Rules.Amf0Object();
+        cmdObj.put("fmsVer", "FMS/3,0,1,123");
+        cmdObj.put("capabilities", 31);
+
+        Amf0Rules.Amf0Object info = new Amf0Rules.Amf0Object();
+        info.put("level", "status");
+        info.put("code", "NetConnection.Connect.Success");
+        info.put("description", "Connection succeeded");
+        info.put("objectEncoding", 0);
+
+        result.add("_result");
+        result.add(0); // transaction id, patched
+        result.add(cmdObj);
+        result.add(info);
+        return result;
+    }
+
+    private static List<Object> createStreamResultObjects() {
+        List<Object> result = new ArrayList<>();
+        result.add("_result");
+        result.add(0); // transaction id, patched
+        result.add(null); // properties
+        result.add(RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE); // stream id, patched
+        return result;
+    }
 }
@@ -0,0 +1,206 @@
+package com.example.streamingservice.rtmp.record;
+
+import com.example.streamingservice.rtmp.flv.FlvTags;
+import com.example.streamingservice.rtmp.model.context.MediaSink;
+import com.example.streamingservice.rtmp.model.messages.RtmpConstants;
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.PlatformDependent;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+Appends the media of one broadcast as FLV tags to a memory-mapped file, and keyframe offsets to its index.
+Files are preallocated and mapped a region at a time, so appending on the publisher's event loop is a memory copy,
+not a write call per frame. Both files are cut to their written length when the broadcast ends.
+Tag timestamps start at 0 with the first frame. Audio-only broadcasts are indexed once a second instead of on keyframes.
+ */
+@Slf4j
+public class FlvRecorder implements MediaSink {
+
+    private static final int CODEC_AVC = 7;
+    private static final int SOUND_FORMAT_AAC = 10;
+    private static final int AUDIO_INDEX_INTERVAL_MILLIS = 1000;
+    // About three hours of keyframes two seconds apart per region
+    private static final int INDEX_REGION_BYTES = 64 * 1024;
+
+    @Getter
+    private final FlvRecording recording;
+    private final MappedFile data;
+    private final MappedFile index;
+
+    private long baseTimestamp = -1;
+    private boolean hasVideo;
+    private int lastIndexedMillis;
+    private boolean closed;
+
+    /*
+    Starts the file with the FLV header and the onMetaData payload
+     */
+    public FlvRecorder(Path file, ByteBuf metadata, long preallocateBytes, int regionBytes) throws IOException {
+        Files.createDirectories(file.getParent());
+        this.recording = new FlvRecording(file);
+        this.data = new MappedFile(file, preallocateBytes, regionBytes);
+        MappedFile indexFile = null;
+        try {
+            indexFile = new MappedFile(FlvRecording.indexFile(file), INDEX_REGION_BYTES, INDEX_REGION_BYTES);
+            // Header length, filled in with the first frame
+            indexFile.reserve(FlvRecording.INDEX_HEADER_SIZE).putLong(0);
+            ByteBuf header = FlvTags.fileHeader();
+            ByteBuffer target = data.reserve(header.readableBytes() + metadata.readableBytes() + FlvTags.TAG_OVERHEAD);
+            header.getBytes(header.readerIndex(), target);
+            FlvTags.writeTag(target, RtmpConstants.RTMP_MSG_DATA_TYPE_AMF0, 0, metadata);
+        } catch (IOException e) {
+            data.close();
+            if (indexFile != null) {
+                indexFile.close();
+            }
+            throw e;
+        }
+        this.index = indexFile;
+        recording.setLength(data.position());
+    }
+
+    @Override
+    public synchronized void onMedia(RtmpMediaMessage message) {
+        if (closed) {
+            return;
+        }
+        short type = message.header().getType();
+        ByteBuf payload = message.payload();
+        if (payload.readableBytes() < 2) {
+            return;
+        }
+        boolean video = type == RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+        boolean sequenceHeader = isSequenceHeader(video, payload);
+        hasVideo |= video;
+
+        long offset = data.position();
+        // Sequence headers before the first frame make up the header part, they are recorded at time 0
+        int millis = 0;
+        boolean firstFrame = false;
+        if (!sequenceHeader || baseTimestamp >= 0) {
+            long timestamp = message.header().getTimestamp() & 0xFFFFFFFFL;
+            if (baseTimestamp < 0) {
+                baseTimestamp = timestamp;
+                firstFrame = true;
+                recording.setHeaderLength(offset);
+            }
+            millis = (int) Math.max(timestamp - baseTimestamp, 0);
+        }
+        boolean indexed = !sequenceHeader && (video
+                ? (payload.getByte(payload.readerIndex()) & 0xF0) == 0x10
+                : !hasVideo && (recording.keyframes() == 0 || millis - lastIndexedMillis >= AUDIO_INDEX_INTERVAL_MILLIS));
+        try {
+            // On disk right away, a recording left by a crash still knows where its header part ends
+            if (firstFrame) {
+                index.writeLong(0, offset);
+            }
+            FlvTags.writeTag(data.reserve(payload.readableBytes() + FlvTags.TAG_OVERHEAD), type, millis, payload);
+            // Only entries the recording accepted go to the index, so it reads back the same after a restart
+            if (indexed && recording.addKeyframe(millis, offset)) {
+                index.reserve(FlvRecording.INDEX_ENTRY_SIZE).putInt(millis).putLong(offset);
+                lastIndexedMillis = millis;
+            }
+            recording.setLength(data.position());
+        } catch (IOException e) {
+            log.error("Failed to record to {}, recording stopped", recording.getFile(), e);
+            onClose();
+        }
+    }
+
+    @Override
+    public synchronized void onClose() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long headerLength = baseTimestamp < 0 ? data.position() : recording.headerLength();
+        recording.setHeaderLength(headerLength);
+        try {
+            index.writeLong(0, headerLength);
+        } catch (IOException e) {
+            log.error("Failed to write the index header of {}", recording.getFile(), e);
+        }
+        data.close();
+        index.close();
+        recording.finish();
+        log.info("Recorded {} bytes with {} keyframes to {}", recording.length(), recording.keyframes(), recording.getFile());
+    }
+
+    private static boolean isSequenceHeader(boolean video, ByteBuf payload) {
+        int first = payload.getUnsignedByte(payload.readerIndex());
+        int codec = video ? first & 0x0F : first >> 4;
+        return codec == (video ? CODEC_AVC : SOUND_FORMAT_AAC) && payload.getByte(payload.readerIndex() + 1) == 0;
+    }
+
+    /*
+    Append-only file mapped one region at a time. Mapping past the end grows the file.
+     */
+    private static final class MappedFile {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final int regionBytes;
+        private MappedByteBuffer region;
+        private long regionStart;
+
+        MappedFile(Path path, long preallocateBytes, int regionBytes) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.regionBytes = regionBytes;
+            if (preallocateBytes > 0) {
+                // The size is set once instead of growing with every region
+                channel.write(ByteBuffer.allocate(1), preallocateBytes - 1);
+            }
+        }
+
+        long position() {
+            return region == null ? regionStart : regionStart + region.position();
+        }
+
+        ByteBuffer reserve(int bytes) throws IOException {
+            if (region == null || region.remaining() < bytes) {
+                long start = position();
+                unmap();
+                regionStart = start;
+                region = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(regionBytes, bytes));
+            }
+            return region;
+        }
+
+        void writeLong(long position, long value) throws IOException {
+            channel.write(ByteBuffer.allocate(8).putLong(0, value), position);
+        }
+
+        /*
+        Unmapped right away rather than when the buffer is collected, then cut to what was written
+         */
+        void close() {
+            long end = position();
+            unmap();
+            regionStart = end;
+            try (channel) {
+                channel.truncate(end);
+            } catch (IOException e) {
+                log.error("Failed to close {}", path, e);
+            }
+        }
+
+        private void unmap() {
+            if (region != null) {
+                PlatformDependent.freeDirectBuffer(region);
+                region = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.streamingservice.rtmp.record;
+
+import com.example.streamingservice.rtmp.model.context.Stream;
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Attaches an FlvRecorder to every published stream when recording is enabled.
+Each broadcast gets {directory}/{stream}/{stream}-{start millis}.flv with its .idx next to it.
+The latest recording of a stream is kept for time-shift and VOD requests, older ones are looked up on disk.
+ */
+@Slf4j
+@Getter
+public class FlvRecorderFactory {
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long preallocateBytes;
+    private final int regionBytes;
+
+    // Latest recording of every stream, live or finished
+    @Getter(AccessLevel.NONE)
+    private final Map<String, FlvRecording> recordings = new ConcurrentHashMap<>();
+
+    public FlvRecorderFactory(boolean enabled, Path directory, long preallocateBytes, int regionBytes) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.preallocateBytes = preallocateBytes;
+        this.regionBytes = regionBytes;
+    }
+
+    public static FlvRecorderFactory disabled() {
+        return new FlvRecorderFactory(false, Path.of("."), 0, 1024 * 1024);
+    }
+
+    public void attach(Stream stream) {
+        if (!enabled) {
+            return;
+        }
+        String streamName = stream.getStreamName();
+        Path file = directory.resolve(streamName).resolve(streamName + "-" + System.currentTimeMillis() + ".flv");
+        RtmpMessage metadata = stream.metadataMessage();
+        try {
+            FlvRecorder recorder = new FlvRecorder(file, metadata.payload(), preallocateBytes, regionBytes);
+            recordings.put(streamName, recorder.getRecording());
+            stream.addSink(recorder);
+            log.info("Recording stream {} to {}", streamName, file);
+        } catch (IOException e) {
+            log.error("Failed to start recording stream {} to {}", streamName, file, e);
+        } finally {
+            metadata.release();
+        }
+    }
+
+    /*
+    Null when the stream has no recording
+     */
+    public FlvRecording recording(String streamName) {
+        if (!enabled || streamName.isEmpty() || streamName.contains("/") || streamName.contains("\\")
+                || streamName.contains("..")) {
+            return null;
+        }
+        FlvRecording recording = recordings.get(streamName);
+        if (recording != null) {
+            return recording;
+        }
+        Path streamDirectory = directory.resolve(streamName);
+        if (!Files.isDirectory(streamDirectory)) {
+            return null;
+        }
+        // Same stream name and number of digits, the newest sorts last
+        try (var files = Files.list(streamDirectory)) {
+            Optional<Path> latest = files
+                    .filter(file -> file.getFileName().toString().endsWith(".flv"))
+                    .max(Comparator.comparing(file -> file.getFileName().toString()));
+            if (latest.isEmpty()) {
+                return null;
+            }
+            return recordings.computeIfAbsent(streamName, key -> {
+                try {
+                    return FlvRecording.open(latest.get());
+                } catch (IOException e) {
+                    log.error("Failed to open recording {}", latest.get(), e);
+                    return null;
+                }
+            });
+        } catch (IOException e) {
+            log.error("Failed to look up recordings in {}", streamDirectory, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.streamingservice.rtmp.record;
+
+import com.example.streamingservice.rtmp.flv.FlvTags;
+import com.example.streamingservice.rtmp.model.messages.RtmpConstants;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+One recorded broadcast: {name}.flv and its keyframe index {name}.idx.
+The index file starts with the header length (FLV header, onMetaData and the sequence headers),
+followed by 12 byte entries of recording time in millis and file offset of the keyframe tag.
+A seek is a binary search over the entries held in memory. Serving a seek means sending the header part
+and everything from the keyframe on, both straight from the file.
+While the broadcast is live the recorder appends to the same object, readers see what was committed so far.
+ */
+public class FlvRecording {
+
+    static final int INDEX_HEADER_SIZE = 8;
+    static final int INDEX_ENTRY_SIZE = 12;
+
+    @Getter
+    private final Path file;
+
+    // Guarded by this, appended by the recorder only
+    private int[] times;
+    private long[] offsets;
+    private int size;
+
+    private volatile long headerLength;
+    private volatile long length;
+    @Getter
+    private volatile boolean live;
+
+    FlvRecording(Path file) {
+        this(file, new int[64], new long[64], 0, 0, 0, true);
+    }
+
+    private FlvRecording(Path file, int[] times, long[] offsets, int size, long headerLength, long length, boolean live) {
+        this.file = file;
+        this.times = times;
+        this.offsets = offsets;
+        this.size = size;
+        this.headerLength = headerLength;
+        this.length = length;
+        this.live = live;
+    }
+
+    /*
+    A finished recording left on disk. Entries after the last increasing offset are zeros
+    preallocated by a recorder that never got to truncate the index, they are ignored.
+    The flv file may be preallocated zeros past its end the same way, so its length is found by walking
+    the tags from the last indexed keyframe, and keyframes past that length are dropped.
+     */
+    public static FlvRecording open(Path file) throws IOException {
+        Path indexFile = indexFile(file);
+        ByteBuffer index = ByteBuffer.wrap(Files.exists(indexFile) ? Files.readAllBytes(indexFile) : new byte[0]);
+        long headerLength = index.remaining() >= INDEX_HEADER_SIZE ? index.getLong() : 0;
+        int capacity = index.remaining() / INDEX_ENTRY_SIZE;
+        int[] times = new int[Math.max(capacity, 1)];
+        long[] offsets = new long[Math.max(capacity, 1)];
+        int size = 0;
+        while (index.remaining() >= INDEX_ENTRY_SIZE) {
+            int time = index.getInt();
+            long offset = index.getLong();
+            if (offset <= (size == 0 ? 0 : offsets[size - 1]) || (size > 0 && time < times[size - 1])) {
+                break;
+            }
+            times[size] = time;
+            offsets[size++] = offset;
+        }
+        long length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long start = size > 0 ? offsets[size - 1] : Math.max(headerLength, FlvTags.fileHeader().readableBytes());
+            length = wholeTags(channel, start);
+        }
+        while (size > 0 && offsets[size - 1] >= length) {
+            size--;
+        }
+        return new FlvRecording(file, times, offsets, size, headerLength, length, false);
+    }
+
+    /*
+    End of the last whole tag from the position on. A tag counts when its type is known, it fits in the file
+    and its previous tag size matches, a zero filled tail fails the first check.
+     */
+    private static long wholeTags(FileChannel channel, long position) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(FlvTags.TAG_HEADER_SIZE);
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        while (position + FlvTags.TAG_OVERHEAD <= fileSize) {
+            read(channel, header.clear(), position);
+            int type = header.get(0);
+            if (type != RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO && type != RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO
+                    && type != RtmpConstants.RTMP_MSG_DATA_TYPE_AMF0) {
+                break;
+            }
+            int dataSize = header.getInt(0) & 0xFFFFFF;
+            long end = position + FlvTags.TAG_OVERHEAD + dataSize;
+            if (end > fileSize) {
+                break;
+            }
+            read(channel, trailer.clear(), end - 4);
+            if (trailer.getInt(0) != FlvTags.TAG_HEADER_SIZE + dataSize) {
+                break;
+            }
+            position = end;
+        }
+        return position;
+    }
+
+    private static void read(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IOException("Unexpected end of " + channel);
+            }
+        }
+    }
+
+    static Path indexFile(Path file) {
+        String name = file.getFileName().toString();
+        return file.resolveSibling(name.substring(0, name.length() - ".flv".length()) + ".idx");
+    }
+
+    /*
+    Offset of the last keyframe at or before the recording time, the header length when nothing was indexed yet
+     */
+    public synchronized long seek(long millis) {
+        if (size == 0) {
+            return headerLength;
+        }
+        int position = Arrays.binarySearch(times, 0, size, (int) Math.min(millis, Integer.MAX_VALUE));
+        if (position < 0) {
+            // Insertion point minus one is the last keyframe before, the first one for earlier times
+            position = Math.max(-position - 2, 0);
+        }
+        return offsets[position];
+    }
+
+    public synchronized int keyframes() {
+        return size;
+    }
+
+    /*
+    FLV header, onMetaData and sequence headers, what a player needs in front of any keyframe
+     */
+    public long headerLength() {
+        return headerLength;
+    }
+
+    /*
+    Bytes that can be read, only whole tags
+     */
+    public long length() {
+        return length;
+    }
+
+    /*
+    False when the entry is dropped, timestamps going backwards would break the search
+     */
+    synchronized boolean addKeyframe(int millis, long offset) {
+        if (size > 0 && millis < times[size - 1]) {
+            return false;
+        }
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        times[size] = millis;
+        offsets[size++] = offset;
+        return true;
+    }
+
+    void setHeaderLength(long headerLength) {
+        this.headerLength = headerLength;
+    }
+
+    void setLength(long length) {
+        this.length = length;
+    }
+
+    void finish() {
+        live = false;
+    }
+}
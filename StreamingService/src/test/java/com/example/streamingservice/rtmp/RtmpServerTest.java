@@ -1,6 +1,6 @@
 package com.example.streamingservice.rtmp;
 
-import com.example.streamingservice.rtmp.entity.StreamKey;
+import com.example.streamingservice.rtmp.control.ControlPlaneClient;
 import com.example.streamingservice.rtmp.handlers.*;
 import com.example.streamingservice.rtmp.model.context.Stream;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,7 +14,6 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.stubbing.OngoingStubbing;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.netty.Connection;
@@ -50,37 +49,19 @@ class RtmpServerTest {
     private ChunkEncoder getChunkEncoder;
 
     @Mock
-    private WebClient webClient;
-
-    private final String authAddress = "testAuthAddress";
-    private final String transcodingAddress = "testTranscodingAddress";
+    private ControlPlaneClient controlPlaneClient;
 
     @BeforeEach
     void setup() {
-        rtmpServer.setWebClient(webClient);
-        rtmpServer.setAuthAddress(authAddress);
-        rtmpServer.setTranscodingAddress(transcodingAddress);
+        rtmpServer.setControlPlaneClient(controlPlaneClient);
     }
 
     @Test
     @DisplayName("RTMP 서버 성공 테스트")
     void testRtmpServer() {
 
-        WebClient.RequestBodyUriSpec mockPost = Mockito.mock(WebClient.RequestBodyUriSpec.class);
-        WebClient.RequestHeadersUriSpec mockGet = Mockito.mock(WebClient.RequestHeadersUriSpec.class);
-        WebClient.ResponseSpec mockResponse = Mockito.mock(WebClient.ResponseSpec.class);
-
-        when(webClient.post()).thenReturn(mockPost);
-        when(webClient.get()).thenReturn(mockGet);
-
-        when(mockPost.uri(Mockito.anyString())).thenReturn(mockPost);
-        when(mockGet.uri(Mockito.anyString())).thenReturn(mockGet);
-
-        when(mockPost.retrieve()).thenReturn(mockResponse);
-        when(mockGet.retrieve()).thenReturn(mockResponse);
-
-        when(mockResponse.bodyToMono(Boolean.class)).thenReturn(Mono.just(true));
-        when(mockResponse.bodyToMono(Long.class)).thenReturn(Mono.just(1L));
+        when(controlPlaneClient.checkStreamKey(Mockito.anyString(), Mockito.anyString())).thenReturn(Mono.just(true));
+        when(controlPlaneClient.startTranscoding(Mockito.anyString(), Mockito.any())).thenReturn(Mono.just(1L));
 
         StepVerifier.create(Mono.fromRunnable(()-> rtmpServer.run())).verifyComplete();
     }
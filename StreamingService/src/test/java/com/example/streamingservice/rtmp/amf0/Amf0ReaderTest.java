@@ -0,0 +1,64 @@
+package com.example.streamingservice.rtmp.amf0;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpCommand;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class Amf0ReaderTest {
+
+    @Test
+    @DisplayName("connect 명령 스트리밍 디코딩 테스트")
+    void testReadsConnectCommand() {
+        Amf0Rules.Amf0Object cmdObj = new Amf0Rules.Amf0Object();
+        cmdObj.put("app", "스트리머");
+        cmdObj.put("flashVer", "FMLE/3.0");
+        cmdObj.put("tcUrl", "rtmp://localhost/스트리머");
+        cmdObj.put("objectEncoding", 0.0);
+
+        List<Object> connect = new ArrayList<>();
+        connect.add("connect");
+        connect.add(1.0);
+        connect.add(cmdObj);
+        ByteBuf buf = Unpooled.buffer();
+        Amf0Rules.encodeList(buf, connect);
+
+        RtmpCommand command = new RtmpCommand();
+        Amf0Reader.readAll(buf, command);
+
+        // Well-known names come back as the canonical instance
+        Assertions.assertThat(command.getName()).isSameAs("connect");
+        Assertions.assertThat(command.getTransactionId()).isEqualTo(1.0);
+        Assertions.assertThat(command.getApp()).isEqualTo("스트리머");
+        Assertions.assertThat(command.getTcUrl()).isEqualTo("rtmp://localhost/스트리머");
+        Assertions.assertThat(command.getObjectEncoding()).isZero();
+        buf.release();
+    }
+
+    @Test
+    @DisplayName("publish 명령 인자 디코딩 테스트")
+    void testReadsPublishArguments() {
+        List<Object> publish = new ArrayList<>();
+        publish.add("publish");
+        publish.add(5.0);
+        publish.add(null);
+        publish.add("secret");
+        publish.add("live");
+        ByteBuf buf = Unpooled.buffer();
+        Amf0Rules.encodeList(buf, publish);
+
+        RtmpCommand command = new RtmpCommand();
+        Assertions.assertThat(Amf0Reader.peekString(buf)).isSameAs("publish");
+        Amf0Reader.readAll(buf, command);
+
+        Assertions.assertThat(command.getTransactionId()).isEqualTo(5.0);
+        Assertions.assertThat(command.getArgument(0)).isEqualTo("secret");
+        Assertions.assertThat(command.getArgument(1)).isSameAs("live");
+        buf.release();
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.streamingservice.rtmp.control;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ControlPlaneClientTest {
+
+    private final List<ClientRequest> requests = new CopyOnWriteArrayList<>();
+    private ControlPlaneClient client;
+
+    @BeforeEach
+    void setup() {
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    requests.add(request);
+                    return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body("true")
+                            .build());
+                })
+                .build();
+        // The interval is long enough that only explicit flushes send states
+        client = new ControlPlaneClient(webClient, "http://content", "http://transcoding",
+                Duration.ofMinutes(1), Duration.ofHours(1), 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+    }
+
+    @Test
+    @DisplayName("유효한 stream key는 TTL 동안 다시 확인하지 않는다")
+    void testStreamKeyCache() {
+        StepVerifier.create(client.checkStreamKey("user1", "key")).expectNext(true).verifyComplete();
+        StepVerifier.create(client.checkStreamKey("user1", "key")).expectNext(true).verifyComplete();
+        StepVerifier.create(client.checkStreamKey("user1", "other")).expectNext(true).verifyComplete();
+
+        assertThat(requests).hasSize(2);
+        assertThat(requests.get(0).url().toString()).isEqualTo("http://content/broadcasts/user1/check");
+    }
+
+    @Test
+    @DisplayName("방송 상태는 스트림마다 마지막 상태만 묶어서 전송한다")
+    void testCoalescedStates() {
+        client.onAir("user1");
+        client.onAir("user2");
+        client.offAir("user1");
+
+        StepVerifier.create(client.flush()).verifyComplete();
+        StepVerifier.create(client.flush()).verifyComplete();
+
+        assertThat(requests).hasSize(1);
+        assertThat(requests.get(0).url().toString()).isEqualTo("http://content/broadcasts/states");
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.streamingservice.rtmp.flv;
+
+import com.example.streamingservice.rtmp.model.context.Stream;
+import com.example.streamingservice.rtmp.model.context.StreamContext;
+import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.*;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
+
+class FlvEgressHandlerTest {
+
+    private RtmpMediaMessage video(int timestamp, byte... payload) {
+        RtmpHeader header = new RtmpHeader();
+        header.setCid(6);
+        header.setType((short) RTMP_MSG_USER_CONTROL_TYPE_VIDEO);
+        header.setTimestamp(timestamp);
+        header.setMessageLength(payload.length);
+        return new RtmpMediaMessage(header, Unpooled.wrappedBuffer(payload));
+    }
+
+    private ByteBuf readContent(EmbeddedChannel channel) {
+        HttpContent content = channel.readOutbound();
+        return content.content();
+    }
+
+    @Test
+    @DisplayName("HTTP-FLV 시청자 입장 및 라이브 태그 전송 테스트")
+    void testServesHttpFlv() {
+        StreamContext context = new StreamContext();
+        Stream stream = new Stream("streamer");
+        context.addStream(stream);
+        stream.addMedia(video(0, (byte) 0x17, 0, 0, 0, 0, 1));
+
+        EmbeddedChannel channel = new EmbeddedChannel(new FlvEgressHandler(context));
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/live/streamer.flv"));
+
+        HttpResponse response = channel.readOutbound();
+        Assertions.assertThat(response.status()).isEqualTo(HttpResponseStatus.OK);
+        Assertions.assertThat(response.headers().get(HttpHeaderNames.CONTENT_TYPE)).isEqualTo("video/x-flv");
+
+        ByteBuf header = readContent(channel);
+        Assertions.assertThat(header.toString(0, 3, StandardCharsets.US_ASCII)).isEqualTo("FLV");
+        header.release();
+        ByteBuf metadata = readContent(channel);
+        Assertions.assertThat(metadata.getByte(0)).isEqualTo((byte) RTMP_MSG_DATA_TYPE_AMF0);
+        metadata.release();
+        ByteBuf config = readContent(channel);
+        Assertions.assertThat(config.getByte(0)).isEqualTo((byte) RTMP_MSG_USER_CONTROL_TYPE_VIDEO);
+        config.release();
+
+        // Live frames arrive as tags with the RTMP timestamp and a trailing previous tag size
+        stream.addMedia(video(40, (byte) 0x17, 1, 0, 0, 0, 9, 9));
+        ByteBuf tag = readContent(channel);
+        Assertions.assertThat(tag.getUnsignedMedium(1)).isEqualTo(7);
+        Assertions.assertThat(tag.getUnsignedMedium(4)).isEqualTo(40);
+        Assertions.assertThat(tag.readableBytes()).isEqualTo(11 + 7 + 4);
+        Assertions.assertThat(tag.getInt(tag.readableBytes() - 4)).isEqualTo(11 + 7);
+        tag.release();
+
+        // The stream ends like any chunked response and the connection closes
+        stream.closeStream();
+        Assertions.assertThat((Object) channel.readOutbound()).isSameAs(LastHttpContent.EMPTY_LAST_CONTENT);
+        Assertions.assertThat(channel.isOpen()).isFalse();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("존재하지 않는 스트림 요청 시 404 응답 테스트")
+    void testMissingStream() {
+        EmbeddedChannel channel = new EmbeddedChannel(new FlvEgressHandler(new StreamContext()));
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/live/nobody.flv"));
+
+        FullHttpResponse response = channel.readOutbound();
+        Assertions.assertThat(response.status()).isEqualTo(HttpResponseStatus.NOT_FOUND);
+        response.release();
+        channel.finishAndReleaseAll();
+    }
+}
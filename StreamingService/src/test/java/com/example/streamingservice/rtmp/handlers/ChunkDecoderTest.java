@@ -0,0 +1,83 @@
+package com.example.streamingservice.rtmp.handlers;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
+
+class ChunkDecoderTest {
+
+    private static final int CID = 6;
+    private static final int STREAM_ID = 1;
+
+    private byte[] videoPayload(int length) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) i;
+        }
+        return payload;
+    }
+
+    // fmt 0 chunk followed by fmt 3 chunks, 128 bytes each
+    private ByteBuf chunked(byte[] payload) {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte((RTMP_CHUNK_TYPE_0 << 6) | CID);
+        buf.writeMedium(40);
+        buf.writeMedium(payload.length);
+        buf.writeByte(RTMP_MSG_USER_CONTROL_TYPE_VIDEO);
+        buf.writeIntLE(STREAM_ID);
+        int offset = 0;
+        while (offset < payload.length) {
+            if (offset > 0) {
+                buf.writeByte((RTMP_CHUNK_TYPE_3 << 6) | CID);
+            }
+            int length = Math.min(RTMP_DEFAULT_CHUNK_SIZE, payload.length - offset);
+            buf.writeBytes(payload, offset, length);
+            offset += length;
+        }
+        return buf;
+    }
+
+    private void assertReassembled(ChunkDecoder.ReassemblyMode mode) {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChunkDecoder(mode));
+        byte[] payload = videoPayload(1000);
+        ByteBuf wire = chunked(payload);
+
+        // Feed one byte at a time so every partial header and partial chunk is exercised
+        while (wire.isReadable()) {
+            channel.writeInbound(wire.readRetainedSlice(1));
+        }
+        wire.release();
+
+        RtmpMessage message = channel.readInbound();
+        Assertions.assertThat(message).isNotNull();
+        Assertions.assertThat(message.header().getCid()).isEqualTo(CID);
+        Assertions.assertThat(message.header().getType()).isEqualTo((short) RTMP_MSG_USER_CONTROL_TYPE_VIDEO);
+        Assertions.assertThat(message.header().getMessageLength()).isEqualTo(payload.length);
+
+        byte[] decoded = new byte[message.payload().readableBytes()];
+        message.payload().readBytes(decoded);
+        Assertions.assertThat(decoded).isEqualTo(payload);
+
+        message.payload().release();
+        Assertions.assertThat((Object) channel.readInbound()).isNull();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("CompositeByteBuf 재조립 테스트")
+    void testCompositeReassembly() {
+        assertReassembled(ChunkDecoder.ReassemblyMode.COMPOSITE);
+    }
+
+    @Test
+    @DisplayName("Pooled buffer 재조립 테스트")
+    void testPooledReassembly() {
+        assertReassembled(ChunkDecoder.ReassemblyMode.POOLED);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.streamingservice.rtmp.handlers;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
+
+class ChunkEncoderTest {
+
+    private static final int CID = 6;
+
+    private RtmpMessage video(int timestamp, int length) {
+        RtmpHeader header = new RtmpHeader();
+        header.setCid(CID);
+        header.setStreamId(1);
+        header.setType((short) RTMP_MSG_USER_CONTROL_TYPE_VIDEO);
+        header.setTimestamp(timestamp);
+        header.setMessageLength(length);
+        return new RtmpMessage(header, Unpooled.wrappedBuffer(new byte[length]));
+    }
+
+    private int encodedFmt(EmbeddedChannel channel, RtmpMessage message) {
+        channel.writeOutbound(message);
+        ByteBuf encoded = channel.readOutbound();
+        int fmt = (encoded.getByte(0) & 0xff) >> 6;
+        encoded.release();
+        return fmt;
+    }
+
+    @Test
+    @DisplayName("청크 헤더 압축 형식 선택 테스트")
+    void testSelectsSmallestHeader() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChunkEncoder());
+
+        Assertions.assertThat(encodedFmt(channel, video(0, 300))).isEqualTo(RTMP_CHUNK_TYPE_0);
+        Assertions.assertThat(encodedFmt(channel, video(40, 300))).isEqualTo(RTMP_CHUNK_TYPE_2);
+        Assertions.assertThat(encodedFmt(channel, video(80, 300))).isEqualTo(RTMP_CHUNK_TYPE_3);
+        Assertions.assertThat(encodedFmt(channel, video(120, 200))).isEqualTo(RTMP_CHUNK_TYPE_1);
+        // Going backwards needs an absolute timestamp again
+        Assertions.assertThat(encodedFmt(channel, video(10, 200))).isEqualTo(RTMP_CHUNK_TYPE_0);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("압축된 헤더 디코딩 시 타임스탬프 복원 테스트")
+    void testRoundTripKeepsTimestamps() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new ChunkEncoder());
+        EmbeddedChannel decoder = new EmbeddedChannel(new ChunkDecoder());
+        int[] timestamps = {0, 40, 80, 120, 133, 146};
+
+        for (int timestamp : timestamps) {
+            encoder.writeOutbound(video(timestamp, 300));
+            decoder.writeInbound((ByteBuf) encoder.readOutbound());
+        }
+        for (int timestamp : timestamps) {
+            RtmpMessage message = decoder.readInbound();
+            Assertions.assertThat(message.header().getTimestamp()).isEqualTo(timestamp);
+            Assertions.assertThat(message.payload().readableBytes()).isEqualTo(300);
+            message.release();
+        }
+        encoder.finishAndReleaseAll();
+        decoder.finishAndReleaseAll();
+    }
+}
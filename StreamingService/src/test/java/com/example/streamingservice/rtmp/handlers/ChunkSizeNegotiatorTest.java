@@ -0,0 +1,48 @@
+package com.example.streamingservice.rtmp.handlers;
+
+import com.example.streamingservice.rtmp.model.util.ChunkSizeNegotiator;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+class ChunkSizeNegotiatorTest {
+
+    private static final int MIN = 4096;
+    private static final int MAX = 65536;
+    private static final int FALLBACK = 8192;
+
+    private int negotiate(Map<String, Object> metadata) {
+        return ChunkSizeNegotiator.negotiate(metadata, MIN, MAX, FALLBACK);
+    }
+
+    @Test
+    @DisplayName("비트레이트 정보가 없으면 기본 청크 크기를 사용한다")
+    void testFallsBackWithoutBitrate() {
+        Assertions.assertThat(negotiate(null)).isEqualTo(FALLBACK);
+        Assertions.assertThat(negotiate(Map.of("framerate", 30.0, "encoder", "obs"))).isEqualTo(FALLBACK);
+        Assertions.assertThat(negotiate(Map.of("videodatarate", "2500"))).isEqualTo(FALLBACK);
+    }
+
+    @Test
+    @DisplayName("평균 프레임 크기를 담는 가장 작은 2의 거듭제곱으로 올림한다")
+    void testRoundsUpToPowerOfTwo() {
+        // 4628 kbps at 30 fps is about 19.3KB per frame
+        Assertions.assertThat(negotiate(Map.of("videodatarate", 4500.0, "audiodatarate", 128.0, "framerate", 30.0)))
+                .isEqualTo(32768);
+        // Exactly 8KB per frame stays 8KB
+        Assertions.assertThat(negotiate(Map.of("videodatarate", 2048.0, "framerate", 31.25))).isEqualTo(8192);
+        // Without a framerate 30 fps is assumed, 25KB per frame
+        Assertions.assertThat(negotiate(Map.of("videodatarate", 6000.0))).isEqualTo(32768);
+    }
+
+    @Test
+    @DisplayName("설정된 최소, 최대 청크 크기로 제한한다")
+    void testClampsToBounds() {
+        // About 2KB per frame
+        Assertions.assertThat(negotiate(Map.of("videodatarate", 500.0, "framerate", 30.0))).isEqualTo(MIN);
+        // About 200KB per frame
+        Assertions.assertThat(negotiate(Map.of("videodatarate", 50000.0, "framerate", 30.0))).isEqualTo(MAX);
+    }
+}
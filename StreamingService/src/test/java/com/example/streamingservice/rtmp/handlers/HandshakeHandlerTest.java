@@ -0,0 +1,70 @@
+package com.example.streamingservice.rtmp.handlers;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpConstants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class HandshakeHandlerTest {
+
+    private ByteBuf c0c1() {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(RtmpConstants.RTMP_VERSION);
+        buf.writeInt(1234);
+        buf.writeInt(0);
+        for (int i = 0; i < RtmpConstants.RTMP_HANDSHAKE_SIZE - 8; i++) {
+            buf.writeByte(i);
+        }
+        return buf;
+    }
+
+    @Test
+    @DisplayName("분할 수신된 핸드셰이크 처리 및 S2 에코 테스트")
+    void testHandshakeAcrossPartialReads() {
+        HandshakeLimiter limiter = new HandshakeLimiter(1, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(new HandshakeHandler(limiter));
+        Assertions.assertThat(limiter.getInFlight()).isEqualTo(1);
+
+        ByteBuf c0c1 = c0c1();
+        channel.writeInbound(c0c1.readRetainedSlice(100));
+        Assertions.assertThat((Object) channel.readOutbound()).isNull();
+        channel.writeInbound(c0c1);
+
+        ByteBuf s0s1s2 = channel.readOutbound();
+        Assertions.assertThat(s0s1s2.readableBytes()).isEqualTo(1 + 2 * RtmpConstants.RTMP_HANDSHAKE_SIZE);
+        // S2 echoes the C1 timestamp and random bytes
+        int s2 = 1 + RtmpConstants.RTMP_HANDSHAKE_SIZE;
+        Assertions.assertThat(s0s1s2.getInt(s2)).isEqualTo(1234);
+        Assertions.assertThat(s0s1s2.getByte(s2 + 8 + 10)).isEqualTo((byte) 10);
+        s0s1s2.release();
+
+        ByteBuf c2 = Unpooled.buffer().writeZero(RtmpConstants.RTMP_HANDSHAKE_SIZE).writeByte(7);
+        channel.writeInbound(c2);
+
+        // The handler is gone, the permit is back and the byte after C2 went down the pipeline
+        Assertions.assertThat(channel.pipeline().get(HandshakeHandler.class)).isNull();
+        Assertions.assertThat(limiter.getInFlight()).isZero();
+        ByteBuf rest = channel.readInbound();
+        Assertions.assertThat(rest.readByte()).isEqualTo((byte) 7);
+        rest.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("핸드셰이크 동시 처리 제한 테스트")
+    void testRefusesAboveLimit() {
+        HandshakeLimiter limiter = new HandshakeLimiter(1, 0);
+        EmbeddedChannel first = new EmbeddedChannel(new HandshakeHandler(limiter));
+        EmbeddedChannel second = new EmbeddedChannel(new HandshakeHandler(limiter));
+
+        Assertions.assertThat(first.isOpen()).isTrue();
+        Assertions.assertThat(second.isOpen()).isFalse();
+
+        first.close();
+        Assertions.assertThat(limiter.getInFlight()).isZero();
+        second.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.streamingservice.rtmp.handlers;
+
+import com.example.streamingservice.rtmp.amf0.Amf0Rules;
+import com.example.streamingservice.rtmp.control.ControlPlaneClient;
+import com.example.streamingservice.rtmp.model.context.Stream;
+import com.example.streamingservice.rtmp.model.context.StreamContext;
+import com.example.streamingservice.rtmp.model.context.SubscriberPlacement;
+import com.example.streamingservice.rtmp.model.context.SubscriberRegistry;
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import com.example.streamingservice.rtmp.model.util.MessageProvider;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
+
+class RtmpMessageHandlerTest {
+
+    private final StreamContext context = new StreamContext();
+    private final ControlPlaneClient controlPlaneClient = Mockito.mock(ControlPlaneClient.class);
+
+    private EmbeddedChannel connect(String app) {
+        RtmpMessageHandler handler = new RtmpMessageHandler(context);
+        handler.controlPlaneClient = controlPlaneClient;
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        Amf0Rules.Amf0Object commandObject = new Amf0Rules.Amf0Object();
+        commandObject.put("app", app);
+        channel.writeInbound(command(0, "connect", 1.0, commandObject));
+        drain(channel);
+        return channel;
+    }
+
+    private RtmpMessage command(int streamId, Object... objects) {
+        return MessageProvider.withStreamId(MessageProvider.commandMessage(new ArrayList<>(Arrays.asList(objects))), streamId);
+    }
+
+    /*
+    "{message stream id}:{status code}" for onStatus, createStream results and user control events, other messages are skipped
+     */
+    private List<String> drain(EmbeddedChannel channel) {
+        List<String> written = new ArrayList<>();
+        Object out;
+        while ((out = channel.readOutbound()) != null) {
+            if (out instanceof RtmpMessage message) {
+                int streamId = message.header().getStreamId();
+                if (message.header().getType() == RTMP_MSG_COMMAND_TYPE_AMF0) {
+                    List<Object> decoded = Amf0Rules.decodeAll(message.payload().duplicate());
+                    if ("onStatus".equals(decoded.get(0))) {
+                        written.add(streamId + ":" + ((Map<?, ?>) decoded.get(3)).get("code"));
+                    } else if ("_result".equals(decoded.get(0)) && decoded.get(3) instanceof Double id) {
+                        written.add(streamId + ":_result:" + id.intValue());
+                    }
+                } else if (message.header().getType() == RTMP_MSG_USER_CONTROL_TYPE_EVENT) {
+                    written.add(streamId + ":event" + message.payload().getShort(message.payload().readerIndex()));
+                }
+            }
+            ReferenceCountUtil.release(out);
+        }
+        return written;
+    }
+
+    @Test
+    @DisplayName("한 연결에서 방송과 시청을 함께 하고 끝난 스트림의 시청만 종료된다")
+    void testPublishesAndPlaysOnOwnMessageStreams() {
+        Stream other = new Stream("other");
+        context.addStream(other);
+        EmbeddedChannel channel = connect("streamer");
+
+        channel.writeInbound(command(0, "createStream", 2.0, null));
+        channel.writeInbound(command(0, "createStream", 3.0, null));
+        Assertions.assertThat(drain(channel)).containsExactly("0:_result:1", "0:_result:2");
+
+        // A bare publish name is the key of the main stream
+        channel.writeInbound(command(1, "publish", 0.0, null, "secret", "live"));
+        Stream published = channel.readInbound();
+        Assertions.assertThat(published.getStreamName()).isEqualTo("streamer");
+        Assertions.assertThat(published.getStreamKey()).isEqualTo("secret");
+        Assertions.assertThat(published.getPublisherStreamId()).isEqualTo(1);
+
+        channel.writeInbound(command(2, "play", 0.0, null, "other"));
+        Assertions.assertThat(drain(channel)).contains("2:event" + STREAM_BEGIN, "2:NetStream.Play.Start");
+        Assertions.assertThat(other.getSubscribers().size()).isEqualTo(1);
+
+        // The played stream ends on its message stream only, the broadcast of the connection goes on
+        other.closeStream();
+        Assertions.assertThat(drain(channel)).containsExactly("2:event" + STREAM_EOF,
+                "2:NetStream.Play.UnpublishNotify", "2:NetStream.Play.Stop");
+        Assertions.assertThat(channel.isOpen()).isTrue();
+        Assertions.assertThat(other.getSubscribers().size()).isZero();
+        Assertions.assertThat(context.getStream("streamer")).isSameAs(published);
+
+        channel.finishAndReleaseAll();
+        Assertions.assertThat(context.getStream("streamer")).isNull();
+    }
+
+    @Test
+    @DisplayName("생성한 스트림 id를 무시한 클라이언트도 마지막으로 만든 메시지 스트림으로 처리한다")
+    void testFallsBackToCreatedStream() {
+        EmbeddedChannel channel = connect("streamer");
+        channel.writeInbound(command(0, "createStream", 2.0, null));
+        drain(channel);
+
+        channel.writeInbound(command(0, "publish", 0.0, null, "streamer_720p?key=secret", "live"));
+        Stream rendition = channel.readInbound();
+        Assertions.assertThat(rendition.getStreamName()).isEqualTo("streamer_720p");
+        Assertions.assertThat(rendition.getStreamKey()).isEqualTo("secret");
+        Assertions.assertThat(rendition.getPublisherStreamId()).isEqualTo(1);
+
+        // Metadata sent on message stream 0 still reaches the only published stream
+        Amf0Rules.Amf0Object metadata = new Amf0Rules.Amf0Object();
+        metadata.put("width", 1280.0);
+        channel.writeInbound(MessageProvider.withStreamId(MessageProvider.dataMessage(
+                new ArrayList<>(List.of("@setDataFrame", "onMetaData", metadata))), 0));
+        Assertions.assertThat(rendition.getMetadata()).containsEntry("width", 1280.0);
+
+        // deleteStream names the message stream, the connection closes with nothing left on it
+        channel.writeInbound(command(0, "deleteStream", 4.0, null, 1.0));
+        Assertions.assertThat(drain(channel)).containsExactly("1:NetStream.Unpublish.Success");
+        Assertions.assertThat(context.getStream("streamer_720p")).isNull();
+        Assertions.assertThat(channel.isOpen()).isFalse();
+        // Renditions never went on air
+        Mockito.verifyNoInteractions(controlPlaneClient);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("다른 스트리머 이름의 방송과 없는 스트림 시청은 거절한다")
+    void testRejectsForeignAndUnknownNames() {
+        EmbeddedChannel publisher = connect("streamer");
+        publisher.writeInbound(command(0, "createStream", 2.0, null));
+        drain(publisher);
+        publisher.writeInbound(command(1, "publish", 0.0, null, "someone?key=secret", "live"));
+        Assertions.assertThat(drain(publisher)).containsExactly("1:NetStream.Publish.BadName");
+        Assertions.assertThat((Object) publisher.readInbound()).isNull();
+        Assertions.assertThat(publisher.isOpen()).isFalse();
+
+        EmbeddedChannel viewer = connect("streamer");
+        viewer.writeInbound(command(0, "createStream", 2.0, null));
+        drain(viewer);
+        viewer.writeInbound(command(1, "play", 0.0, null, "nobody"));
+        Assertions.assertThat(drain(viewer)).containsExactly("1:NetStream.Play.StreamNotFound");
+        Assertions.assertThat(viewer.isOpen()).isFalse();
+
+        publisher.finishAndReleaseAll();
+        viewer.finishAndReleaseAll();
+    }
+
+    @Test
+    @DisplayName("이미 스트림을 시청 중인 연결은 두 번째 재생에서 이벤트 루프를 옮기지 않는다")
+    void testSecondPlayStaysOnLoop() throws Exception {
+        EventLoopGroup group = new NioEventLoopGroup(2);
+        try {
+            EventLoop first = group.next();
+            EventLoop second = group.next();
+            context.setSubscriberPlacement(SubscriberPlacement.PUBLISHER_LOOP);
+            Channel firstPublisher = new NioSocketChannel();
+            Channel secondPublisher = new NioSocketChannel();
+            first.register(firstPublisher).sync();
+            second.register(secondPublisher).sync();
+            Stream firstStream = context.newStream("first");
+            firstStream.setPublisher(firstPublisher);
+            context.addStream(firstStream);
+            Stream secondStream = context.newStream("second");
+            secondStream.setPublisher(secondPublisher);
+            context.addStream(secondStream);
+
+            RtmpMessageHandler handler = new RtmpMessageHandler(context);
+            Channel viewer = new NioSocketChannel();
+            viewer.pipeline().addLast(handler);
+            second.register(viewer).sync();
+            Amf0Rules.Amf0Object commandObject = new Amf0Rules.Amf0Object();
+            commandObject.put("app", "viewer");
+            // Both plays arrive in one read, the second one while the connection is being moved
+            second.submit(() -> {
+                viewer.pipeline().fireChannelRead(command(0, "connect", 1.0, commandObject));
+                viewer.pipeline().fireChannelRead(command(0, "createStream", 2.0, null));
+                viewer.pipeline().fireChannelRead(command(0, "createStream", 3.0, null));
+                viewer.pipeline().fireChannelRead(command(1, "play", 0.0, null, "first"));
+                viewer.pipeline().fireChannelRead(command(2, "play", 0.0, null, "second"));
+            }).sync();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((firstStream.getSubscribers().size() == 0 || secondStream.getSubscribers().size() == 0)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // Moved once to the first publisher's loop, both subscriptions are delivered from there
+            Assertions.assertThat(viewer.eventLoop()).isSameAs(first);
+            for (Stream stream : List.of(firstStream, secondStream)) {
+                SubscriberRegistry.LoopGroup[] groups = stream.getSubscribers().snapshot();
+                Assertions.assertThat(groups).hasSize(1);
+                Assertions.assertThat(groups[0].eventLoop()).isSameAs(first);
+            }
+
+            // Another play once the connection is settled joins in place
+            Stream thirdStream = context.newStream("third");
+            thirdStream.setPublisher(secondPublisher);
+            context.addStream(thirdStream);
+            first.submit(() -> {
+                viewer.pipeline().fireChannelRead(command(0, "createStream", 4.0, null));
+                viewer.pipeline().fireChannelRead(command(3, "play", 0.0, null, "third"));
+            }).sync();
+            Assertions.assertThat(viewer.eventLoop()).isSameAs(first);
+            Assertions.assertThat(thirdStream.getSubscribers().snapshot()[0].eventLoop()).isSameAs(first);
+
+            viewer.close().sync();
+            firstPublisher.close().sync();
+            secondPublisher.close().sync();
+        } finally {
+            group.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.streamingservice.rtmp.hls;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
+
+class HlsPackagerTest {
+
+    @TempDir
+    Path directory;
+
+    private RtmpMediaMessage media(int type, int timestamp, byte... payload) {
+        RtmpHeader header = new RtmpHeader();
+        header.setType((short) type);
+        header.setTimestamp(timestamp);
+        header.setMessageLength(payload.length);
+        return new RtmpMediaMessage(header, Unpooled.wrappedBuffer(payload));
+    }
+
+    private RtmpMediaMessage videoFrame(int timestamp, boolean keyframe) {
+        byte[] payload = new byte[5 + 4 + 400];
+        payload[0] = (byte) (keyframe ? 0x17 : 0x27);
+        payload[1] = 0x01;
+        payload[7] = (byte) (400 >> 8);
+        payload[8] = (byte) (400 & 0xFF);
+        payload[9] = (byte) (keyframe ? 0x65 : 0x41);
+        return media(RTMP_MSG_USER_CONTROL_TYPE_VIDEO, timestamp, payload);
+    }
+
+    private void feed(HlsPackager packager, RtmpMediaMessage message) {
+        packager.onMedia(message);
+        message.release();
+    }
+
+    private void feedGop(HlsPackager packager) {
+        // AVCDecoderConfigurationRecord with one SPS and one PPS, AAC-LC 44.1kHz stereo
+        feed(packager, media(RTMP_MSG_USER_CONTROL_TYPE_VIDEO, 0,
+                (byte) 0x17, 0, 0, 0, 0, 1, 0x64, 0, 0x1F, (byte) 0xFF, (byte) 0xE1, 0, 2, 0x67, 0x64, 1, 0, 2, 0x68, (byte) 0xEE));
+        feed(packager, media(RTMP_MSG_USER_CONTROL_TYPE_AUDIO, 0, (byte) 0xAF, 0, 0x12, 0x10));
+
+        for (int timestamp = 0; timestamp <= 2400; timestamp += 40) {
+            feed(packager, videoFrame(timestamp, timestamp % 1200 == 0));
+            feed(packager, media(RTMP_MSG_USER_CONTROL_TYPE_AUDIO, timestamp, (byte) 0xAF, 1, 0x21, 0x10, 0x04));
+        }
+    }
+
+    @Test
+    @DisplayName("키프레임 기준 세그먼트 분할 및 TS 패킷 구조 테스트")
+    void testCutsSegmentsOnKeyframes() throws IOException {
+        HlsPlaylist playlist = new HlsPlaylist(directory, "streamer", "src", 2000, 6, Runnable::run);
+        HlsPackager packager = new HlsPackager(playlist, ByteBufAllocator.DEFAULT, 2000);
+
+        feedGop(packager);
+
+        // The keyframe at 2400 closed the first segment
+        Path m3u8 = directory.resolve("streamer_src.m3u8");
+        Assertions.assertThat(Files.readString(m3u8))
+                .contains("#EXT-X-MEDIA-SEQUENCE:0")
+                .contains("#EXTINF:2.400,\nstreamer_src/data0.ts");
+
+        byte[] segment = Files.readAllBytes(directory.resolve("streamer_src/data0.ts"));
+        Assertions.assertThat(segment.length % TsMuxer.PACKET_SIZE).isZero();
+        for (int offset = 0; offset < segment.length; offset += TsMuxer.PACKET_SIZE) {
+            Assertions.assertThat(segment[offset]).isEqualTo((byte) 0x47);
+        }
+        // PAT section followed by its CRC checks out to zero
+        ByteBuf pat = Unpooled.wrappedBuffer(segment, 5, 3 + 13);
+        Assertions.assertThat(TsMuxer.crc32(pat, 0, pat.readableBytes())).isZero();
+
+        packager.onClose();
+        Assertions.assertThat(Files.exists(m3u8)).isFalse();
+    }
+
+    @Test
+    @DisplayName("LL-HLS 파트 분할 및 preload hint 테스트")
+    void testWritesPartialSegments() throws IOException {
+        HlsPlaylist playlist = new HlsPlaylist(directory, "streamer", "src", 2000, 500, 6, Runnable::run);
+        HlsPackager packager = new HlsPackager(playlist, ByteBufAllocator.DEFAULT, 2000, 500);
+
+        feedGop(packager);
+
+        String m3u8 = Files.readString(directory.resolve("streamer_src.m3u8"));
+        Assertions.assertThat(m3u8)
+                .contains("#EXT-X-PART-INF:PART-TARGET=0.500")
+                .contains("#EXT-X-PART:DURATION=0.480,URI=\"streamer_src/data0_0.ts\",INDEPENDENT=YES")
+                .contains("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"streamer_src/data1_0.ts\"");
+
+        // The whole segment is the concatenation of its parts
+        long parts = 0;
+        for (int part = 0; Files.exists(directory.resolve("streamer_src/data0_" + part + ".ts")); part++) {
+            parts += Files.size(directory.resolve("streamer_src/data0_" + part + ".ts"));
+        }
+        Assertions.assertThat(parts).isEqualTo(Files.size(directory.resolve("streamer_src/data0.ts")));
+        packager.onClose();
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.streamingservice.rtmp.model.context;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+
+class GopCacheTest {
+
+    private RtmpMediaMessage frame(boolean keyframe, int length) {
+        RtmpHeader header = new RtmpHeader();
+        header.setType((short) RTMP_MSG_USER_CONTROL_TYPE_VIDEO);
+        header.setMessageLength(length);
+        byte[] payload = new byte[length];
+        payload[0] = (byte) (keyframe ? 0x17 : 0x27);
+        payload[1] = 0x01;
+        return new RtmpMediaMessage(header, Unpooled.wrappedBuffer(payload));
+    }
+
+    private void add(GopCache cache, boolean keyframe, int length) {
+        RtmpMediaMessage message = frame(keyframe, length);
+        cache.add(message, keyframe);
+        message.release();
+    }
+
+    @Test
+    @DisplayName("GOP 단위 링 버퍼 테스트")
+    void testKeepsWholeGops() {
+        GopCache cache = new GopCache(Long.MAX_VALUE, 2, GopCacheBudget.unlimited(), (requester, bytes) -> false);
+
+        add(cache, true, 100);
+        add(cache, false, 10);
+        add(cache, true, 100);
+        add(cache, false, 10);
+        add(cache, true, 100);
+
+        // The oldest GOP was dropped as a whole, the cache starts at a keyframe
+        Assertions.assertThat(cache.size()).isEqualTo(3);
+        Assertions.assertThat(cache.bytes()).isEqualTo(210);
+        cache.forEach(message -> Assertions.assertThat(message.refCnt()).isEqualTo(1));
+        cache.clear();
+    }
+
+    @Test
+    @DisplayName("첫 키프레임 전에 받은 프레임은 캐시하지 않는다")
+    void testSkipsFramesBeforeFirstKeyframe() {
+        GopCache cache = new GopCache(Long.MAX_VALUE, 1, GopCacheBudget.unlimited(), (requester, bytes) -> false);
+
+        // Audio usually arrives before the first keyframe
+        RtmpHeader header = new RtmpHeader();
+        header.setType((short) RTMP_MSG_USER_CONTROL_TYPE_AUDIO);
+        RtmpMediaMessage audio = new RtmpMediaMessage(header, Unpooled.wrappedBuffer(new byte[]{(byte) 0xAF, 0x01, 0x21}));
+        Assertions.assertThat(cache.add(audio, false)).isFalse();
+        audio.release();
+        add(cache, false, 10);
+
+        add(cache, true, 100);
+        add(cache, false, 10);
+        add(cache, true, 100);
+        add(cache, false, 10);
+
+        // Only the last GOP is kept
+        Assertions.assertThat(cache.size()).isEqualTo(2);
+        Assertions.assertThat(cache.bytes()).isEqualTo(110);
+        cache.clear();
+    }
+
+    @Test
+    @DisplayName("수신 버퍼 슬라이스로 조립된 프레임은 정확한 크기로 복사해 캐시한다")
+    void testCopiesSlicedFrames() {
+        GopCache cache = new GopCache(Long.MAX_VALUE, 1, GopCacheBudget.unlimited(), (requester, bytes) -> false);
+        // A 100 byte frame sliced out of a 16KB read buffer
+        ByteBuf read = Unpooled.buffer(16384).writeByte(0x17).writeByte(0x01).writeZero(98);
+        CompositeByteBuf payload = Unpooled.compositeBuffer().addComponent(true, read.readRetainedSlice(100));
+        read.release();
+        RtmpMediaMessage message = new RtmpMediaMessage(new RtmpHeader(), payload);
+
+        cache.add(message, true);
+        message.release();
+
+        // The read buffer is gone, only the exact-size copy is left
+        Assertions.assertThat(read.refCnt()).isZero();
+        Assertions.assertThat(cache.bytes()).isEqualTo(100);
+        cache.forEach(cached -> {
+            Assertions.assertThat(cached.payload().capacity()).isEqualTo(100);
+            Assertions.assertThat(cached.isKeyframe()).isTrue();
+        });
+        cache.clear();
+    }
+
+    @Test
+    @DisplayName("스트림당 바이트 제한 초과 테스트")
+    void testOverflowWaitsForNextKeyframe() {
+        GopCache cache = new GopCache(150, 1, GopCacheBudget.unlimited(), (requester, bytes) -> false);
+
+        add(cache, true, 100);
+        add(cache, false, 100);
+        add(cache, false, 10);
+        Assertions.assertThat(cache.size()).isZero();
+
+        add(cache, true, 100);
+        Assertions.assertThat(cache.size()).isEqualTo(1);
+        cache.clear();
+    }
+
+    @Test
+    @DisplayName("전역 메모리 예산 초과 시 가장 큰 캐시 축출 테스트")
+    void testBudgetReclaimsFromLargestStream() {
+        StreamContext context = new StreamContext(new GopCacheBudget(300), Long.MAX_VALUE, 1);
+        Stream large = context.newStream("large");
+        Stream small = context.newStream("small");
+        context.addStream(large);
+        context.addStream(small);
+
+        add(large.getGopCache(), true, 250);
+        add(small.getGopCache(), true, 100);
+
+        Assertions.assertThat(large.getGopCache().size()).isZero();
+        Assertions.assertThat(small.getGopCache().bytes()).isEqualTo(100);
+        Assertions.assertThat(context.getGopCacheBudget().getUsed()).isEqualTo(100);
+
+        small.getGopCache().clear();
+        Assertions.assertThat(context.getGopCacheBudget().getUsed()).isZero();
+    }
+}
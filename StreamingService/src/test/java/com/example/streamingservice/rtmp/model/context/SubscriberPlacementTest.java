@@ -0,0 +1,48 @@
+package com.example.streamingservice.rtmp.model.context;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+class SubscriberPlacementTest {
+
+    @Test
+    @DisplayName("시청자 채널을 퍼블리셔의 이벤트 루프로 옮긴 뒤 입장한다")
+    void testMovesSubscriberToPublisherLoop() throws Exception {
+        EventLoopGroup group = new NioEventLoopGroup(2);
+        try {
+            EventLoop first = group.next();
+            EventLoop second = group.next();
+            Channel publisher = new NioSocketChannel();
+            Channel subscriber = new NioSocketChannel();
+            first.register(publisher).sync();
+            second.register(subscriber).sync();
+
+            CompletableFuture<Boolean> joinedOnPublisherLoop = new CompletableFuture<>();
+            CompletableFuture<Boolean> movedDuringCall = new CompletableFuture<>();
+            second.execute(() -> {
+                SubscriberPlacement.PUBLISHER_LOOP.place(subscriber, publisher,
+                        () -> joinedOnPublisherLoop.complete(first.inEventLoop()));
+                // Like the play command, the caller is still in the subscriber's read when place returns
+                movedDuringCall.complete(subscriber.eventLoop() != second || joinedOnPublisherLoop.isDone());
+            });
+
+            Assertions.assertThat(movedDuringCall.get(5, TimeUnit.SECONDS)).isFalse();
+            Assertions.assertThat(joinedOnPublisherLoop.get(5, TimeUnit.SECONDS)).isTrue();
+            Assertions.assertThat(subscriber.eventLoop()).isSameAs(first);
+            Assertions.assertThat(subscriber.isRegistered()).isTrue();
+            publisher.close().sync();
+            subscriber.close().sync();
+        } finally {
+            group.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        }
+    }
+}
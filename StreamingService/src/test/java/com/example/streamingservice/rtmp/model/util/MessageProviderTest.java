@@ -0,0 +1,36 @@
+package com.example.streamingservice.rtmp.model.util;
+
+import com.example.streamingservice.rtmp.amf0.Amf0Rules;
+import com.example.streamingservice.rtmp.model.messages.RtmpMessage;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class MessageProviderTest {
+
+    @Test
+    @DisplayName("트랜잭션 ID 패치 테스트")
+    void testPatchesTransactionId() {
+        RtmpMessage first = MessageProvider.createStreamResult(4.0, 1);
+        RtmpMessage second = MessageProvider.createStreamResult(9.0, 3);
+
+        List<Object> decoded = Amf0Rules.decodeAll(second.payload());
+        Assertions.assertThat(decoded).containsExactly("_result", 9.0, null, 3.0);
+        Assertions.assertThat(Amf0Rules.decodeAll(first.payload()).get(1)).isEqualTo(4.0);
+        first.release();
+        second.release();
+    }
+
+    @Test
+    @DisplayName("공유 템플릿은 해제되지 않음 테스트")
+    void testSharedTemplateSurvivesRelease() {
+        for (int i = 0; i < 3; i++) {
+            RtmpMessage message = MessageProvider.onStatus("status", "NetStream.Play.Start", "Strat live");
+            Assertions.assertThat(Amf0Rules.decodeAll(message.payload()).get(0)).isEqualTo("onStatus");
+            message.release();
+            Assertions.assertThat(message.payload().refCnt()).isPositive();
+        }
+    }
+}
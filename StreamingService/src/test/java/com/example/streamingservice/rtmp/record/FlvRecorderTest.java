@@ -0,0 +1,99 @@
+package com.example.streamingservice.rtmp.record;
+
+import com.example.streamingservice.rtmp.model.messages.RtmpHeader;
+import com.example.streamingservice.rtmp.model.messages.RtmpMediaMessage;
+import io.netty.buffer.Unpooled;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.example.streamingservice.rtmp.model.messages.RtmpConstants.*;
+
+class FlvRecorderTest {
+
+    @TempDir
+    Path directory;
+
+    private void feed(FlvRecorder recorder, int type, int timestamp, byte... payload) {
+        RtmpHeader header = new RtmpHeader();
+        header.setType((short) type);
+        header.setTimestamp(timestamp);
+        header.setMessageLength(payload.length);
+        RtmpMediaMessage message = new RtmpMediaMessage(header, Unpooled.wrappedBuffer(payload));
+        recorder.onMedia(message);
+        message.release();
+    }
+
+    @Test
+    @DisplayName("녹화 파일의 키프레임 인덱스로 탐색 위치를 찾는다")
+    void testSeeksOnKeyframeIndex() throws IOException {
+        Path file = directory.resolve("streamer/streamer-1.flv");
+        FlvRecorder recorder = new FlvRecorder(file, Unpooled.wrappedBuffer(new byte[]{2, 0, 0}), 1024 * 1024, 4096);
+
+        // Sequence headers, then a GOP every second starting at publisher time 5000
+        feed(recorder, RTMP_MSG_USER_CONTROL_TYPE_VIDEO, 0, (byte) 0x17, 0, 0, 0, 0);
+        feed(recorder, RTMP_MSG_USER_CONTROL_TYPE_AUDIO, 0, (byte) 0xAF, 0, 0x12, 0x10);
+        for (int timestamp = 5000; timestamp < 8000; timestamp += 100) {
+            boolean keyframe = timestamp % 1000 == 0;
+            feed(recorder, RTMP_MSG_USER_CONTROL_TYPE_VIDEO, timestamp,
+                    (byte) (keyframe ? 0x17 : 0x27), 1, 0, 0, 0, 0, 0, 0, 1, 0x65);
+            feed(recorder, RTMP_MSG_USER_CONTROL_TYPE_AUDIO, timestamp, (byte) 0xAF, 1, 0x21);
+        }
+        FlvRecording live = recorder.getRecording();
+        Assertions.assertThat(live.isLive()).isTrue();
+        Assertions.assertThat(live.keyframes()).isEqualTo(3);
+        recorder.onClose();
+
+        // Reopened from disk like after a restart, both files were cut to what was written
+        FlvRecording recording = FlvRecording.open(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Assertions.assertThat(recording.length()).isEqualTo(bytes.length).isEqualTo(live.length());
+        Assertions.assertThat(new String(bytes, 0, 3, StandardCharsets.US_ASCII)).isEqualTo("FLV");
+        Assertions.assertThat(recording.keyframes()).isEqualTo(3);
+        Assertions.assertThat(recording.headerLength()).isEqualTo(live.headerLength());
+        Assertions.assertThat(recording.seek(0)).isEqualTo(recording.headerLength());
+
+        // Recording time 1500 falls in the second GOP
+        long offset = recording.seek(1500);
+        Assertions.assertThat(bytes[(int) offset]).isEqualTo((byte) RTMP_MSG_USER_CONTROL_TYPE_VIDEO);
+        Assertions.assertThat(bytes[(int) offset + 11]).isEqualTo((byte) 0x17);
+        int timestamp = (bytes[(int) offset + 4] & 0xFF) << 16 | (bytes[(int) offset + 5] & 0xFF) << 8 | bytes[(int) offset + 6] & 0xFF;
+        Assertions.assertThat(timestamp).isEqualTo(1000);
+        Assertions.assertThat(recording.seek(60_000)).isGreaterThan(offset);
+    }
+
+    @Test
+    @DisplayName("종료되지 않은 녹화 파일은 마지막 온전한 태그까지만 읽는다")
+    void testOpensRecordingLeftByCrash() throws IOException {
+        Path file = directory.resolve("streamer/streamer-2.flv");
+        FlvRecorder recorder = new FlvRecorder(file, Unpooled.wrappedBuffer(new byte[]{2, 0, 0}), 1024 * 1024, 4096);
+
+        feed(recorder, RTMP_MSG_USER_CONTROL_TYPE_VIDEO, 0, (byte) 0x17, 0, 0, 0, 0);
+        for (int timestamp = 0; timestamp < 3000; timestamp += 100) {
+            boolean keyframe = timestamp % 1000 == 0;
+            feed(recorder, RTMP_MSG_USER_CONTROL_TYPE_VIDEO, timestamp,
+                    (byte) (keyframe ? 0x17 : 0x27), 1, 0, 0, 0, 0, 0, 0, 1, 0x65);
+        }
+        // A keyframe going back in time is recorded but not indexed
+        feed(recorder, RTMP_MSG_USER_CONTROL_TYPE_VIDEO, 1500, (byte) 0x17, 1, 0, 0, 0, 0, 0, 0, 1, 0x65);
+        FlvRecording live = recorder.getRecording();
+        Assertions.assertThat(live.keyframes()).isEqualTo(3);
+
+        // Read before onClose, both files still have their preallocated zeros
+        FlvRecording recording = FlvRecording.open(file);
+        Assertions.assertThat(Files.size(file)).isEqualTo(1024 * 1024);
+        Assertions.assertThat(recording.length()).isEqualTo(live.length());
+        Assertions.assertThat(recording.keyframes()).isEqualTo(3);
+        // The header part (FLV header, onMetaData, sequence header) ends where the first frame starts
+        Assertions.assertThat(recording.headerLength()).isEqualTo(live.headerLength()).isGreaterThan(13);
+        Assertions.assertThat(recording.seek(0)).isEqualTo(recording.headerLength());
+        Assertions.assertThat(recording.seek(2500)).isEqualTo(live.seek(2500));
+        recorder.onClose();
+    }
+}
@@ -1,10 +1,12 @@
 package com.example.transcodingservice.controller;
 
+import com.example.transcodingservice.service.PassthroughVariant;
 import com.example.transcodingservice.service.ProcessManagingService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Mono;
 
@@ -15,7 +17,14 @@ public class ProcessController {
     private final ProcessManagingService service;
 
     @GetMapping("/{owner}")
-    Mono<Long> initiateFfmpeg(@PathVariable("owner") String owner) {
-        return service.startProcess(owner);
+    Mono<Long> initiateFfmpeg(@PathVariable("owner") String owner,
+                              @RequestParam(value = "passthrough", required = false) String passthrough,
+                              @RequestParam(value = "bandwidth", defaultValue = "0") long bandwidth,
+                              @RequestParam(value = "resolution", defaultValue = "") String resolution) {
+        // 스트리밍 서버가 원본 화질을 직접 패키징하면 ffmpeg 은 나머지 화질만 만든다
+        if (passthrough == null || passthrough.isBlank()) {
+            return service.startProcess(owner);
+        }
+        return service.startProcess(owner, new PassthroughVariant(passthrough, bandwidth, resolution));
     }
 }
@@ -0,0 +1,8 @@
+package com.example.transcodingservice.service;
+
+/*
+스트리밍 서버가 직접 패키징하는 원본 화질, ffmpeg 은 이 화질을 인코딩하지 않는다
+bandwidth 는 bps, 메타데이터에 없으면 0 과 빈 resolution
+ */
+public record PassthroughVariant(String name, long bandwidth, String resolution) {
+}
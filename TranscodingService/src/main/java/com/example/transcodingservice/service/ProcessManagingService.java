@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
@@ -32,6 +33,17 @@ public class ProcessManagingService {
     @Value("${ffmpeg.command}")
     private String template;
 
+    // 원본 화질 없이 트랜스코딩 화질만 만드는 템플릿, 인자는 ffmpeg.command 와 같다
+    @Value("${ffmpeg.passthrough-command:}")
+    private String passthroughTemplate;
+
+    // passthrough-command 가 만드는 화질, "이름:bps:가로x세로" 를 쉼표로 구분
+    @Value("${ffmpeg.renditions:}")
+    private String renditions;
+
+    @Value("${hls.master-playlist:master.m3u8}")
+    private String masterPlaylist;
+
     @Value("${rtmp.server}")
     private String address;
 
@@ -144,7 +156,57 @@ public class ProcessManagingService {
         return thumbnailDirectory.toAbsolutePath().toString();
     }
 
-    public Mono<Long> startProcess(String owner){
+    /*
+    원본 화질은 스트리밍 서버가 {owner}_{name}.m3u8 로 패키징하므로 ffmpeg 은 트랜스코딩 화질만 만들고
+    마스터 플레이리스트는 두 쪽을 모두 가리키도록 직접 작성
+     */
+    public Mono<Long> startProcess(String owner, PassthroughVariant passthrough) {
+        if (passthroughTemplate.isBlank()) {
+            log.warn("ffmpeg.passthrough-command 가 없어 {} 의 원본 화질도 ffmpeg 으로 인코딩합니다", owner);
+            return startProcess(owner);
+        }
+        return Mono.fromRunnable(() -> writeMasterPlaylist(owner, passthrough))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then(Mono.defer(() -> startProcess(owner, passthroughTemplate)));
+    }
+
+    public Mono<Long> startProcess(String owner) {
+        return startProcess(owner, template);
+    }
+
+    private void writeMasterPlaylist(String owner, PassthroughVariant passthrough) {
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n");
+        appendVariant(playlist, owner, passthrough);
+        for (String rendition : renditions.split(",")) {
+            String[] fields = rendition.trim().split(":");
+            if (fields.length < 2) {
+                continue;
+            }
+            appendVariant(playlist, owner, new PassthroughVariant(fields[0], Long.parseLong(fields[1]),
+                    fields.length > 2 ? fields[2] : ""));
+        }
+        Path directory = Paths.get(path).resolve(owner);
+        try {
+            Files.createDirectories(directory);
+            // 플레이어가 반쯤 쓰인 파일을 읽지 않도록 임시 파일을 옮긴다
+            Path temporary = directory.resolve(masterPlaylist + ".tmp");
+            Files.writeString(temporary, playlist);
+            Files.move(temporary, directory.resolve(masterPlaylist), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to write master playlist for {}", owner, e);
+        }
+    }
+
+    private void appendVariant(StringBuilder playlist, String owner, PassthroughVariant variant) {
+        playlist.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(variant.bandwidth());
+        if (!variant.resolution().isBlank()) {
+            playlist.append(",RESOLUTION=").append(variant.resolution());
+        }
+        playlist.append('\n').append(owner).append('_').append(variant.name()).append(".m3u8\n");
+    }
+
+    private Mono<Long> startProcess(String owner, String template){
         deleteFile.scheduleAtFixedRate(() -> this.deleteOldTsAndJpgFiles(owner), delete_interval, delete_interval, TimeUnit.MINUTES);
         // isAlive() - 하위 프로세스가 Process활성 상태인지 테스트
         if(processMap.containsKey(owner) && processMap.get(owner).isAlive()){